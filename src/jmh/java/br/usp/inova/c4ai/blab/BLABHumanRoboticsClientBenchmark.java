@@ -0,0 +1,50 @@
+package br.usp.inova.c4ai.blab;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the coalescing of the bot messages of a turn into a single reply.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BLABHumanRoboticsClientBenchmark {
+
+    /**
+     * Messages sent by different bots in the same turn.
+     */
+    private static final String[] FRAGMENTS = {
+            "The University of São Paulo was founded in 1934.",
+            "It is the largest public university in Brazil,\nwith campuses in several cities of the state.",
+            "Would you like to know more about its history?",
+            "I found 3 related articles.",
+    };
+
+    /**
+     * Number of bot messages in the turn.
+     */
+    @Param({"1", "4"})
+    public int fragments;
+
+    @Benchmark
+    public String coalesceBotMessages() {
+        StringBuilder reply = new StringBuilder();
+        for (int i = 0; i < fragments; i++)
+            BLABHumanRoboticsClient.appendBotMessage(reply, FRAGMENTS[i]);
+        return BLABHumanRoboticsClient.singleLine(reply.toString()).toString();
+    }
+}
@@ -0,0 +1,145 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import br.usp.inova.c4ai.blab.internal.network.Network;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the decoding of WebSocket frames received from BLAB Controller
+ * and the encoding of messages sent to it.
+ * <p>
+ * Frames are decoded in full with the hand-written codecs ({@link BLABCodecs}) and by reflection, and selectively
+ * with {@link WebSocketFrameDecoder}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class BLABClientBenchmark {
+
+    /**
+     * A text message sent by a bot.
+     */
+    static final String TEXT_FRAME = """
+            {"message": {"type": "T", "time": "2023-03-14T17:42:08.517353Z", "event": null, \
+            "text": "The University of São Paulo was founded in 1934.\\nIt is the largest public university in Brazil, \
+            with campuses in several cities of the state.", \
+            "sender_id": "5f0c1b3e-6a7d-4c83-9f57-2b8d51a0c6e4", "id": "8f14e45f-ceea-467f-a0e6-1a7a4f1f7b2c", \
+            "local_id": null, "sent_by_human": false, "quoted_message_id": null, "options": [], \
+            "additional_metadata": {}, "external_file_url": null}}""";
+
+    /**
+     * A state notification with the list of participants.
+     */
+    static final String STATE_FRAME = """
+            {"state": {"participants": [\
+            {"id": "2b6f3c1e-0d9a-4b8e-8f3c-7a1d2e4f5a6b", "name": "visitor", "type": "H"}, \
+            {"id": "5f0c1b3e-6a7d-4c83-9f57-2b8d51a0c6e4", "name": "ChatGPT", "type": "B"}, \
+            {"id": "9a8b7c6d-5e4f-4a3b-2c1d-0e9f8a7b6c5d", "name": "BLAB Wiki", "type": "B"}]}}""";
+
+    /**
+     * A system message sent when a participant joins the conversation.
+     */
+    static final String SYSTEM_FRAME = """
+            {"message": {"type": "S", "time": "2023-03-14T17:42:01.107912Z", "event": "J", "text": null, \
+            "sender_id": null, "id": "c9f0f895-fb98-4b91-99f5-1f2bc1e2e5a3", "local_id": null, \
+            "sent_by_human": false, "quoted_message_id": null, "options": [], \
+            "additional_metadata": {"participant_id": "9a8b7c6d-5e4f-4a3b-2c1d-0e9f8a7b6c5d"}, \
+            "external_file_url": null}}""";
+
+    /**
+     * A typical user utterance.
+     */
+    static final String USER_TEXT = "When was the \"University of São Paulo\" founded?";
+
+    private JSONFormat json;
+
+    private JSONFormat reflectiveJson;
+
+    private Network network;
+
+    private BLABClient client;
+
+    private WebSocketFrameDecoder decoder;
+
+    @Setup
+    public void setUp() {
+        json = new JSONFormat(BLABCodecs.FACTORY);
+        reflectiveJson = new JSONFormat();
+        decoder = new WebSocketFrameDecoder(json);
+        network = new Network();
+        client = new BLABClient(network, json, "http://localhost", "ws://localhost", text -> {
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        network.close();
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeTextFrame() {
+        return json.fromJson(TEXT_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeStateFrame() {
+        return json.fromJson(STATE_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeSystemFrame() {
+        return json.fromJson(SYSTEM_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeTextFrameReflectively() {
+        return reflectiveJson.fromJson(TEXT_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeStateFrameReflectively() {
+        return reflectiveJson.fromJson(STATE_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public BLABClient.WebSocketMessageData decodeSystemFrameReflectively() {
+        return reflectiveJson.fromJson(SYSTEM_FRAME, BLABClient.WebSocketMessageData.class);
+    }
+
+    @Benchmark
+    public WebSocketFrameDecoder.DecodedFrame decodeTextFrameSelectively() throws IOException {
+        return decoder.decode(TEXT_FRAME);
+    }
+
+    @Benchmark
+    public WebSocketFrameDecoder.DecodedFrame decodeStateFrameSelectively() throws IOException {
+        return decoder.decode(STATE_FRAME);
+    }
+
+    @Benchmark
+    public WebSocketFrameDecoder.DecodedFrame decodeSystemFrameSelectively() throws IOException {
+        return decoder.decode(SYSTEM_FRAME);
+    }
+
+    @Benchmark
+    public String encodeTextMessage() {
+        return client.encodeTextMessage(USER_TEXT);
+    }
+}
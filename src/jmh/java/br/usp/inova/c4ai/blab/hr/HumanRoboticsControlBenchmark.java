@@ -0,0 +1,53 @@
+package br.usp.inova.c4ai.blab.hr;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the estimation of how long the robot takes to speak a sentence.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HumanRoboticsControlBenchmark {
+
+    /**
+     * A typical bot reply.
+     */
+    static final String REPLY = """
+            The University of São Paulo was founded in 1934.
+            It is the largest public university in Brazil, with campuses in several cities of the state.""";
+
+    /**
+     * Estimator with the default model, which is not stored.
+     */
+    private final SpeechDurationEstimator estimator = new SpeechDurationEstimator(60, null);
+
+    /**
+     * Features of the reply (reused, as in the estimator).
+     */
+    private final double[] features = new double[4];
+
+    @Benchmark
+    public double[] extractFeatures() {
+        SpeechDurationEstimator.extractFeatures(REPLY, features);
+        return features;
+    }
+
+    @Benchmark
+    public long estimateSpeechDuration() {
+        return estimator.estimate(REPLY);
+    }
+}
@@ -0,0 +1,288 @@
+package br.usp.inova.c4ai.blab.loadtest;
+
+import br.usp.inova.c4ai.blab.BLABHumanRoboticsGateway;
+import br.usp.inova.c4ai.blab.metrics.ConversationMetrics;
+import br.usp.inova.c4ai.blab.metrics.HttpPhase;
+import br.usp.inova.c4ai.blab.metrics.LatencyHistogram;
+import br.usp.inova.c4ai.blab.metrics.TurnPhase;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs many scripted conversations against {@link StubBLABController} with {@link SimulatedRobot}s,
+ * all hosted by the same {@link BLABHumanRoboticsGateway}, and reports throughput, latency percentiles of each
+ * phase of a turn and of HTTP calls, threads and heap usage.
+ * <p>
+ * Options are read from system properties (see *README.md*).
+ */
+public final class LoadTest {
+
+    /**
+     * Total number of conversations.
+     */
+    private final int conversations = Integer.getInteger("loadtest.conversations", 1000);
+
+    /**
+     * Maximum number of simultaneous conversations.
+     */
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 100);
+
+    /**
+     * Number of user messages in each conversation.
+     */
+    private final int turns = Integer.getInteger("loadtest.turns", 5);
+
+    /**
+     * Minimum time (in milliseconds) before the bot starts to reply.
+     */
+    private final long botLatency = Long.getLong("loadtest.botLatency", 200);
+
+    /**
+     * Maximum random time (in milliseconds) added to {@link #botLatency}.
+     */
+    private final long botJitter = Long.getLong("loadtest.botJitter", 100);
+
+    /**
+     * Number of messages in each bot reply.
+     */
+    private final int botMessages = Integer.getInteger("loadtest.botMessages", 1);
+
+    /**
+     * Number of bots in each conversation.
+     */
+    private final int bots = Integer.getInteger("loadtest.bots", 1);
+
+    /**
+     * Whether the local stub sends binary frames instead of text frames.
+     */
+    private final boolean binaryFrames = Boolean.getBoolean("loadtest.binaryFrames");
+
+    /**
+     * How long the simulated robot takes to connect, in milliseconds.
+     */
+    private final long connectTime = Long.getLong("loadtest.connectTime", 0);
+
+    /**
+     * How long the simulated robot takes to speak a sentence, in milliseconds.
+     */
+    private final long speechTime = Long.getLong("loadtest.speechTime", 0);
+
+    /**
+     * How long the simulated user takes to answer, in milliseconds.
+     */
+    private final long thinkTime = Long.getLong("loadtest.thinkTime", 0);
+
+    /**
+     * Number of recognitions into which each user message is split.
+     */
+    private final int fragments = Integer.getInteger("loadtest.fragments", 1);
+
+    /**
+     * Interval between the recognitions of the same user message, in milliseconds.
+     */
+    private final long fragmentGap = Long.getLong("loadtest.fragmentGap", 100);
+
+    /**
+     * How long the client waits for further recognitions before sending a user message, in milliseconds.
+     */
+    private final long quietPeriod = Long.getLong("loadtest.quietPeriod", 0);
+
+    /**
+     * Directory where the transcripts are recorded, or an empty string if they are not recorded.
+     */
+    private final String transcriptDir = System.getProperty("loadtest.transcriptDir", "");
+
+    /**
+     * Number of conversations created in advance.
+     */
+    private final int conversationPool = Integer.getInteger("loadtest.conversationPool", 0);
+
+    /**
+     * URL of an external BLAB Controller (or stub), or {@code null} to start a local stub.
+     */
+    private final String serverURL = System.getProperty("loadtest.serverURL");
+
+    /**
+     * WebSocket URL of the external BLAB Controller, if {@link #serverURL} is set.
+     */
+    private final String wsServerURL = System.getProperty("loadtest.wsServerURL");
+
+    /**
+     * Number of conversations in which the whole script was said and answered.
+     */
+    private final AtomicInteger succeeded = new AtomicInteger();
+
+    /**
+     * Number of conversations that failed.
+     */
+    private final AtomicInteger failed = new AtomicInteger();
+
+    /**
+     * Highest heap usage observed, in bytes.
+     */
+    private final AtomicLong peakHeap = new AtomicLong();
+
+    private LoadTest() {
+    }
+
+    /**
+     * Runs the load test.
+     *
+     * @throws IOException          if the stub server cannot be started
+     * @throws InterruptedException if interrupted while waiting for the conversations
+     */
+    private void run() throws IOException, InterruptedException {
+        StubBLABController stub = null;
+        String server = serverURL;
+        String wsServer = wsServerURL;
+        if (server == null) {
+            stub = new StubBLABController(botLatency, botJitter, botMessages, bots, binaryFrames);
+            stub.start(0);
+            server = stub.serverURL();
+            wsServer = stub.wsServerURL();
+        }
+        Properties config = sessionConfig(server, wsServer);
+        List<String> script = new ArrayList<>();
+        for (int i = 1; i <= turns; i++)
+            script.add("This is message number " + i + " of the simulated user.");
+        long replyTimeout = botLatency + botJitter + speechTime + 10_000;
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        memory.gc();
+        long baselineHeap = memory.getHeapMemoryUsage().getUsed();
+        int baselineThreads = threads.getThreadCount();
+        threads.resetPeakThreadCount();
+
+        ScheduledExecutorService timer = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "simulated-robot");
+            t.setDaemon(true);
+            return t;
+        });
+        ExecutorService completions = Executors.newSingleThreadExecutor();
+        timer.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max),
+                0, 100, TimeUnit.MILLISECONDS);
+        Semaphore slots = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(conversations);
+
+        long start = System.nanoTime();
+        Properties settings = new Properties();
+        settings.setProperty("TRANSCRIPT_DIR", transcriptDir);
+        settings.setProperty("CONVERSATION_POOL_SIZE", Integer.toString(conversationPool));
+        try (BLABHumanRoboticsGateway gateway = new BLABHumanRoboticsGateway(settings)) {
+            for (int i = 0; i < conversations; i++) {
+                slots.acquire();
+                String name = "conversation-" + i;
+                gateway.addSession(name, config, callback -> new SimulatedRobot(callback, script, timer,
+                        connectTime, speechTime, thinkTime, fragments, fragmentGap, replyTimeout,
+                        success -> completions.execute(() -> {
+                            (success ? succeeded : failed).incrementAndGet();
+                            if (success)
+                                gateway.closeSession(name);
+                            else
+                                gateway.removeSession(name);
+                            slots.release();
+                            done.countDown();
+                        })));
+            }
+            done.await();
+            long elapsed = System.nanoTime() - start;
+            report(gateway.metrics(), elapsed, threads.getPeakThreadCount() - baselineThreads,
+                    peakHeap.get() - baselineHeap);
+        } finally {
+            timer.shutdownNow();
+            completions.shutdownNow();
+            if (stub != null)
+                stub.close();
+        }
+    }
+
+    /**
+     * Creates the configuration shared by all sessions.
+     *
+     * @param server   URL of the HTTP chat API
+     * @param wsServer URL of the WebSocket endpoint
+     * @return the configuration
+     */
+    private Properties sessionConfig(String server, String wsServer) {
+        Properties config = new Properties();
+        config.setProperty("BLAB_CHAT_SERVER_URL", server);
+        config.setProperty("BLAB_CHAT_WS_SERVER_URL", wsServer);
+        config.setProperty("BLAB_CHAT_BOTS", String.join(",", StubBLABController.botNames(bots)));
+        config.setProperty("GREETING", "Hello, I am a simulated robot.");
+        config.setProperty("USER_MESSAGE_TIMEOUT", "60000");
+        config.setProperty("USER_MESSAGE_QUIET_PERIOD", Long.toString(quietPeriod));
+        config.setProperty("BOT_MESSAGE_TIMEOUT", Long.toString(botLatency + botJitter + 5_000));
+        return config;
+    }
+
+    /**
+     * Prints the results.
+     *
+     * @param metrics      latency histograms and counters of all sessions
+     * @param elapsed      duration of the test, in nanoseconds
+     * @param extraThreads peak number of threads above the baseline
+     * @param extraHeap    peak heap usage above the baseline, in bytes
+     */
+    private void report(ConversationMetrics metrics, long elapsed, int extraThreads, long extraHeap) {
+        double seconds = elapsed / 1e9;
+        System.out.printf(Locale.ROOT, "%n%d conversations (%d succeeded, %d failed) in %.1fs%n",
+                conversations, succeeded.get(), failed.get(), seconds);
+        System.out.printf(Locale.ROOT, "throughput: %.1f conversations/s, %.1f turns/s%n",
+                conversations / seconds, metrics.histogram(TurnPhase.ENQUEUE_TO_SEND).count() / seconds);
+        System.out.printf(Locale.ROOT, "failed sends: %d, user timeouts: %d, bot timeouts: %d%n",
+                metrics.failedSends(), metrics.userTimeouts(), metrics.botTimeouts());
+        System.out.printf(Locale.ROOT, "merged recognitions: %d, duplicate recognitions: %d%n",
+                metrics.mergedRecognitions(), metrics.duplicateRecognitions());
+        System.out.printf(Locale.ROOT, "%-28s %8s %9s %9s %9s %9s%n", "phase (ms)", "count", "p50", "p90", "p99", "p99.9");
+        for (TurnPhase phase : TurnPhase.values()) {
+            LatencyHistogram h = metrics.histogram(phase);
+            System.out.printf(Locale.ROOT, "%-28s %8d %9.1f %9.1f %9.1f %9.1f%n", phase.label(), h.count(),
+                    h.percentileSeconds(0.5) * 1e3, h.percentileSeconds(0.9) * 1e3,
+                    h.percentileSeconds(0.99) * 1e3, h.percentileSeconds(0.999) * 1e3);
+        }
+        for (HttpPhase phase : HttpPhase.values()) {
+            LatencyHistogram h = metrics.histogram(phase);
+            System.out.printf(Locale.ROOT, "%-28s %8d %9.1f %9.1f %9.1f %9.1f%n", "http_" + phase.label(), h.count(),
+                    h.percentileSeconds(0.5) * 1e3, h.percentileSeconds(0.9) * 1e3,
+                    h.percentileSeconds(0.99) * 1e3, h.percentileSeconds(0.999) * 1e3);
+        }
+        for (ConversationMetrics.Gauge gauge : metrics.gauges())
+            System.out.printf(Locale.ROOT, "%s: %d%n", gauge.name(), gauge.value().getAsLong());
+        for (ConversationMetrics.Counter counter : metrics.counters())
+            System.out.printf(Locale.ROOT, "%s: %d%n", counter.name(), counter.value().getAsLong());
+        System.out.printf(Locale.ROOT, "threads: %d at peak above baseline (%d concurrent conversations)%n",
+                extraThreads, concurrency);
+        System.out.printf(Locale.ROOT, "heap: %.1f MiB at peak above baseline (%.1f KiB per concurrent conversation)%n",
+                extraHeap / 1048576.0, extraHeap / 1024.0 / concurrency);
+    }
+
+    /**
+     * Runs the load test with the options given as system properties.
+     *
+     * @param args unused
+     * @throws Exception if the test cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        Configurator.setRootLevel(Level.getLevel(System.getProperty("loadtest.logLevel", "WARN")));
+        new LoadTest().run();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,235 @@
+package br.usp.inova.c4ai.blab.loadtest;
+
+import br.usp.inova.c4ai.blab.hr.RobotControl;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Robot stand-in for load tests.
+ * <p>
+ * The simulated user says each message of a script, waiting for the robot to speak the reply and listen before
+ * saying the next one. Speaking takes a fixed time, and the user takes a fixed time to answer. Each message may be
+ * recognized in several fragments, delivered at fixed intervals (as when the user pauses in the middle of a
+ * sentence).
+ * When the script ends (or the robot does not answer in time, or the connection is closed before the script ends),
+ * a completion callback is called.
+ */
+public class SimulatedRobot implements RobotControl {
+
+    /**
+     * Function that is called whenever the user says something to the robot.
+     */
+    private final Consumer<String> callback;
+
+    /**
+     * Messages that the user has not said yet.
+     */
+    private final Iterator<String> script;
+
+    /**
+     * Runs the simulated delays.
+     */
+    private final ScheduledExecutorService timer;
+
+    /**
+     * How long the robot takes to connect, in milliseconds.
+     */
+    private final long connectTime;
+
+    /**
+     * How long the robot takes to speak a sentence, in milliseconds.
+     */
+    private final long speechTime;
+
+    /**
+     * How long the user takes to say something after the robot starts listening, in milliseconds.
+     */
+    private final long thinkTime;
+
+    /**
+     * Number of recognitions into which each user message is split.
+     */
+    private final int fragments;
+
+    /**
+     * Interval between the recognitions of the same user message, in milliseconds.
+     */
+    private final long fragmentGap;
+
+    /**
+     * How long the robot can take to answer a user message before the conversation is considered failed,
+     * in milliseconds.
+     */
+    private final long replyTimeout;
+
+    /**
+     * Function that is called when the conversation ends, with {@code true} if the whole script was said.
+     */
+    private final Consumer<Boolean> onFinished;
+
+    /**
+     * Whether a user message has been said and the robot has not listened again.
+     */
+    private boolean awaitingReply;
+
+    /**
+     * Whether the conversation has ended.
+     */
+    private boolean finished;
+
+    /**
+     * Next simulated event (user message, completion or reply timeout).
+     */
+    private ScheduledFuture<?> next;
+
+    /**
+     * Initializes an instance.
+     *
+     * @param callback     function that is called whenever the user says something to the robot
+     * @param script       messages said by the user, in order
+     * @param timer        runs the simulated delays
+     * @param connectTime  how long the robot takes to connect, in milliseconds
+     * @param speechTime   how long the robot takes to speak a sentence, in milliseconds
+     * @param thinkTime    how long the user takes to say something after the robot starts listening, in milliseconds
+     * @param fragments    number of recognitions into which each user message is split
+     * @param fragmentGap  interval between the recognitions of the same user message, in milliseconds
+     * @param replyTimeout how long the robot can take to answer before the conversation fails, in milliseconds
+     * @param onFinished   function that is called when the conversation ends, with {@code true} if the whole
+     *                     script was said and answered
+     */
+    public SimulatedRobot(Consumer<String> callback, List<String> script, ScheduledExecutorService timer,
+                          long connectTime, long speechTime, long thinkTime, int fragments, long fragmentGap,
+                          long replyTimeout, Consumer<Boolean> onFinished) {
+        this.callback = callback;
+        this.script = script.iterator();
+        this.timer = timer;
+        this.connectTime = connectTime;
+        this.speechTime = speechTime;
+        this.thinkTime = thinkTime;
+        this.fragments = Math.max(1, fragments);
+        this.fragmentGap = fragmentGap;
+        this.replyTimeout = replyTimeout;
+        this.onFinished = onFinished;
+    }
+
+    @Override
+    public void connect() {
+        try {
+            Thread.sleep(connectTime);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized boolean sayAndListen(String text) {
+        listenAfter(speechTime);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean say(String text) {
+        if (awaitingReply)
+            schedule(this::onReplyTimeout, speechTime + replyTimeout);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean listen() {
+        listenAfter(0);
+        return true;
+    }
+
+    /**
+     * Closes the connection. If the conversation had not finished yet (e.g. it ended because of an error), it is
+     * considered failed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (next != null)
+                next.cancel(false);
+        }
+        finish(false);
+    }
+
+    /**
+     * Schedules the next user message (or the end of the conversation) after the robot starts listening.
+     *
+     * @param delay time until the robot starts listening, in milliseconds
+     */
+    private void listenAfter(long delay) {
+        if (finished)
+            return;
+        awaitingReply = false;
+        if (!script.hasNext()) {
+            schedule(() -> finish(true), delay);
+            return;
+        }
+        String message = script.next();
+        schedule(() -> {
+            synchronized (this) {
+                awaitingReply = true;
+                schedule(this::onReplyTimeout, (fragments - 1) * fragmentGap + replyTimeout);
+            }
+            recognize(message);
+        }, delay + thinkTime);
+    }
+
+    /**
+     * Delivers the recognitions of a user message: the first one immediately, and the others at fixed intervals.
+     *
+     * @param message the user message
+     */
+    private void recognize(String message) {
+        String[] words = message.split(" ");
+        int count = Math.min(fragments, words.length);
+        for (int i = 0; i < count; i++) {
+            String fragment = String.join(" ", Arrays.copyOfRange(words, i * words.length / count, (i + 1) * words.length / count));
+            if (i == 0)
+                callback.accept(fragment);
+            else
+                timer.schedule(() -> callback.accept(fragment), i * fragmentGap, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ends the conversation when the robot does not answer in time.
+     */
+    private void onReplyTimeout() {
+        finish(false);
+    }
+
+    /**
+     * Ends the conversation.
+     *
+     * @param success whether the whole script was said and answered
+     */
+    private void finish(boolean success) {
+        synchronized (this) {
+            if (finished)
+                return;
+            finished = true;
+        }
+        onFinished.accept(success);
+    }
+
+    /**
+     * Replaces the next simulated event.
+     *
+     * @param event the event
+     * @param delay time until the event, in milliseconds
+     */
+    private void schedule(Runnable event, long delay) {
+        if (next != null)
+            next.cancel(false);
+        next = timer.schedule(event, delay, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,356 @@
+package br.usp.inova.c4ai.blab.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+/**
+ * Local stand-in for BLAB Controller, for load tests.
+ * <p>
+ * It implements the subset of the chat API used by this client:
+ * <ul>
+ *     <li>{@code POST /api/chat/conversations/} creates a conversation and sets the {@code sessionid} cookie;</li>
+ *     <li>{@code /ws/chat/<conversation id>/} accepts a WebSocket connection if the cookie matches, echoes each text
+ *     message from the user and, after a configurable latency (plus a random jitter, drawn for each bot), sends
+ *     the reply of each bot in one or more messages.</li>
+ * </ul>
+ * Frames are sent as text or, optionally, as binary frames with the same UTF-8 encoded JSON; both are accepted from
+ * the client.
+ * It can also be started on its own ({@link #main(String[])}), so that the client and the server do not share the
+ * same process.
+ */
+public class StubBLABController implements Closeable {
+
+    /**
+     * Path of the HTTP chat API.
+     */
+    static final String API_PATH = "/api/chat";
+
+    /**
+     * Path of the WebSocket endpoint.
+     */
+    static final String WS_PATH = "/ws/chat";
+
+    /**
+     * Local HTTP and WebSocket server.
+     */
+    private final MockWebServer server = new MockWebServer();
+
+    /**
+     * Schedules the bot replies.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Session ID of each conversation, indexed by conversation ID.
+     */
+    private final Map<String, String> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Minimum time (in milliseconds) before the bot starts to reply.
+     */
+    private final long botLatency;
+
+    /**
+     * Maximum random time (in milliseconds) added to {@link #botLatency}.
+     */
+    private final long botJitter;
+
+    /**
+     * Number of messages in each bot reply.
+     */
+    private final int botMessages;
+
+    /**
+     * Names of the bots in each conversation.
+     */
+    private final List<String> botNames;
+
+    /**
+     * Whether frames are sent as binary frames.
+     */
+    private final boolean binaryFrames;
+
+    /**
+     * Initializes an instance (which must be started with {@link #start(int)}).
+     *
+     * @param botLatency   minimum time (in milliseconds) before the bot starts to reply
+     * @param botJitter    maximum random time (in milliseconds) added to the latency
+     * @param botMessages  number of messages in each bot reply
+     * @param bots         number of bots in each conversation (see {@link #botNames(int)})
+     * @param binaryFrames whether frames are sent as binary frames (with UTF-8 encoded JSON) instead of text frames
+     */
+    public StubBLABController(long botLatency, long botJitter, int botMessages, int bots, boolean binaryFrames) {
+        this.botLatency = botLatency;
+        this.botJitter = botJitter;
+        this.botMessages = botMessages;
+        this.botNames = botNames(bots);
+        this.binaryFrames = binaryFrames;
+        AtomicInteger count = new AtomicInteger();
+        this.scheduler = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "stub-bot-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        server.setDispatcher(new StubDispatcher());
+    }
+
+    /**
+     * Returns the names of the bots in each conversation ("Stub" if there is a single bot, or "Stub1", "Stub2" and
+     * so on otherwise).
+     *
+     * @param count number of bots
+     * @return the names
+     */
+    public static List<String> botNames(int count) {
+        if (count == 1)
+            return List.of("Stub");
+        return IntStream.rangeClosed(1, count).mapToObj(i -> "Stub" + i).toList();
+    }
+
+    /**
+     * Starts the server.
+     *
+     * @param port the port, or 0 to choose any free port
+     * @throws IOException if the server cannot be started
+     */
+    public void start(int port) throws IOException {
+        server.start(port);
+    }
+
+    /**
+     * Returns the URL of the HTTP chat API (the value of {@code BLAB_CHAT_SERVER_URL}).
+     *
+     * @return the URL, without a trailing slash
+     */
+    public String serverURL() {
+        return "http://" + server.getHostName() + ":" + server.getPort() + API_PATH;
+    }
+
+    /**
+     * Returns the URL of the WebSocket endpoint (the value of {@code BLAB_CHAT_WS_SERVER_URL}).
+     *
+     * @return the URL, without a trailing slash
+     */
+    public String wsServerURL() {
+        return "ws://" + server.getHostName() + ":" + server.getPort() + WS_PATH;
+    }
+
+    /**
+     * Stops the server.
+     *
+     * @throws IOException if the server cannot be stopped
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        server.shutdown();
+    }
+
+    /**
+     * Creates a message frame in the format sent by BLAB Controller.
+     *
+     * @param text        message text
+     * @param senderId    participant ID of the sender
+     * @param sentByHuman whether the message was sent by the user
+     * @return the JSON representation of the frame
+     */
+    private static String messageFrame(String text, String senderId, boolean sentByHuman) {
+        JsonObject message = new JsonObject();
+        message.addProperty("type", "T");
+        message.addProperty("time", java.time.Instant.now().toString());
+        message.addProperty("id", UUID.randomUUID().toString());
+        message.addProperty("sender_id", senderId);
+        message.addProperty("text", text);
+        message.addProperty("sent_by_human", sentByHuman);
+        message.add("options", new JsonArray());
+        JsonObject frame = new JsonObject();
+        frame.add("message", message);
+        return frame.toString();
+    }
+
+    /**
+     * Creates a state frame with the list of participants.
+     *
+     * @param participantIds IDs of the participants, indexed by name (the user is named "user")
+     * @return the JSON representation of the frame
+     */
+    private static String stateFrame(Map<String, String> participantIds) {
+        JsonArray participants = new JsonArray();
+        participantIds.forEach((name, id) -> {
+            JsonObject participant = new JsonObject();
+            participant.addProperty("id", id);
+            participant.addProperty("name", name);
+            participant.addProperty("type", "user".equals(name) ? "H" : "B");
+            participants.add(participant);
+        });
+        JsonObject state = new JsonObject();
+        state.add("participants", participants);
+        JsonObject frame = new JsonObject();
+        frame.add("state", state);
+        return frame.toString();
+    }
+
+    /**
+     * Handles the requests.
+     */
+    private final class StubDispatcher extends Dispatcher {
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            String path = request.getPath();
+            if (path == null)
+                return new MockResponse().setResponseCode(400);
+            if ("POST".equals(request.getMethod()) && path.equals(API_PATH + "/conversations/"))
+                return createConversation(request);
+            if (path.startsWith(WS_PATH + "/"))
+                return connect(request, path.substring(WS_PATH.length() + 1).replace("/", ""));
+            return new MockResponse().setResponseCode(404);
+        }
+
+        /**
+         * Creates a conversation.
+         *
+         * @param request the request
+         * @return a response with the conversation data and the session cookie
+         */
+        private MockResponse createConversation(RecordedRequest request) {
+            JsonObject body = JsonParser.parseString(request.getBody().readUtf8()).getAsJsonObject();
+            String conversationId = UUID.randomUUID().toString();
+            String sessionId = UUID.randomUUID().toString().replace("-", "");
+            sessions.put(conversationId, sessionId);
+            JsonObject response = new JsonObject();
+            response.addProperty("id", conversationId);
+            response.add("name", body.get("conversation_name"));
+            response.addProperty("my_participant_id", UUID.randomUUID().toString());
+            response.add("participants", new JsonArray());
+            return new MockResponse()
+                    .setHeader("Content-Type", "application/json")
+                    .addHeader("Set-Cookie", "sessionid=" + sessionId + "; Path=/; HttpOnly")
+                    .setBody(response.toString());
+        }
+
+        /**
+         * Accepts a WebSocket connection.
+         *
+         * @param request        the request
+         * @param conversationId ID of the conversation
+         * @return a WebSocket upgrade if the session cookie matches the conversation, or an error otherwise
+         */
+        private MockResponse connect(RecordedRequest request, String conversationId) {
+            String sessionId = sessions.get(conversationId);
+            if (sessionId == null)
+                return new MockResponse().setResponseCode(404);
+            String cookie = request.getHeader("Cookie");
+            if (cookie == null || !cookie.contains("sessionid=" + sessionId))
+                return new MockResponse().setResponseCode(403);
+            return new MockResponse().withWebSocketUpgrade(new ConversationListener());
+        }
+    }
+
+    /**
+     * Simulates the bots of a conversation.
+     */
+    private final class ConversationListener extends WebSocketListener {
+
+        /**
+         * IDs of the participants of the conversation, indexed by name.
+         */
+        private final Map<String, String> participantIds = new LinkedHashMap<>();
+
+        private ConversationListener() {
+            participantIds.put("user", UUID.randomUUID().toString());
+            for (String name : botNames)
+                participantIds.put(name, UUID.randomUUID().toString());
+        }
+
+        @Override
+        public void onOpen(WebSocket webSocket, Response response) {
+            send(webSocket, stateFrame(participantIds));
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, String text) {
+            JsonObject message = JsonParser.parseString(text).getAsJsonObject();
+            if (!"T".equals(message.get("type").getAsString()))
+                return;
+            String userText = message.get("text").getAsString();
+            send(webSocket, messageFrame(userText, participantIds.get("user"), true));
+            for (String bot : botNames) {
+                String botId = participantIds.get(bot);
+                long delay = botLatency + (botJitter > 0 ? ThreadLocalRandom.current().nextLong(botJitter + 1) : 0);
+                scheduler.schedule(() -> {
+                    for (int i = 1; i <= botMessages; i++)
+                        send(webSocket, messageFrame(bot + " reply " + i + " of " + botMessages + " to: " + userText, botId, false));
+                }, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        @Override
+        public void onMessage(WebSocket webSocket, ByteString bytes) {
+            onMessage(webSocket, bytes.utf8());
+        }
+
+        /**
+         * Sends a frame as text or as binary data, according to {@link #binaryFrames}.
+         *
+         * @param webSocket the connection
+         * @param frame     the JSON representation of the frame
+         */
+        private void send(WebSocket webSocket, String frame) {
+            if (binaryFrames)
+                webSocket.send(ByteString.encodeUtf8(frame));
+            else
+                webSocket.send(frame);
+        }
+
+        @Override
+        public void onClosing(WebSocket webSocket, int code, String reason) {
+            webSocket.close(code, null);
+        }
+    }
+
+    /**
+     * Runs the server until the process is terminated.
+     * <p>
+     * System properties: {@code loadtest.port} (default: 8080), {@code loadtest.botLatency} (ms, default: 200),
+     * {@code loadtest.botJitter} (ms, default: 100), {@code loadtest.botMessages} (default: 1),
+     * {@code loadtest.bots} (default: 1) and {@code loadtest.binaryFrames} (default: false).
+     *
+     * @param args unused
+     * @throws IOException if the server cannot be started
+     */
+    public static void main(String[] args) throws IOException {
+        StubBLABController controller = new StubBLABController(
+                Long.getLong("loadtest.botLatency", 200),
+                Long.getLong("loadtest.botJitter", 100),
+                Integer.getInteger("loadtest.botMessages", 1),
+                Integer.getInteger("loadtest.bots", 1),
+                Boolean.getBoolean("loadtest.binaryFrames"));
+        controller.start(Integer.getInteger("loadtest.port", 8080));
+        System.out.println("BLAB_CHAT_SERVER_URL=" + controller.serverURL());
+        System.out.println("BLAB_CHAT_WS_SERVER_URL=" + controller.wsServerURL());
+    }
+}
@@ -1,40 +1,73 @@
 package br.usp.inova.c4ai.blab;
 
 import br.usp.inova.c4ai.blab.blab.BLABClient;
+import br.usp.inova.c4ai.blab.blab.ConversationPool;
 import br.usp.inova.c4ai.blab.hr.HumanRoboticsControl;
+import br.usp.inova.c4ai.blab.hr.RobotControl;
+import br.usp.inova.c4ai.blab.internal.network.ReconnectPolicy;
+import br.usp.inova.c4ai.blab.metrics.ConversationMetrics;
+import br.usp.inova.c4ai.blab.metrics.QueueStats;
+import br.usp.inova.c4ai.blab.metrics.TurnTimer;
+import br.usp.inova.c4ai.blab.transcript.Direction;
+import br.usp.inova.c4ai.blab.transcript.TranscriptRecord;
+import br.usp.inova.c4ai.blab.transcript.TranscriptWriter;
+import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.LoggerContext;
+import org.apache.logging.log4j.core.config.Configurator;
+import org.apache.logging.log4j.util.StringBuilderFormattable;
+import org.apache.logging.log4j.util.Unbox;
 
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.Properties;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 
 /**
  * Client for BLAB controller that interacts with Robios robots and avatars.
+ * <p>
+ * Each instance is a state machine driven by events (messages from the user or the bots, the end of the robot's
+ * speech and timeouts). Transitions run on a scheduler that may be shared by many instances, and no thread is
+ * blocked while waiting for messages. Requests to the robot run on a separate executor, since they may block:
+ * connecting waits until the robot is ready, and {@link RobotControl#say(String)} (used when bot replies are
+ * streamed) waits until the sentence is expected to have been spoken.
+ * <p>
+ * When the conversation ends (because it was closed, or because of a timeout or an error), the WebSocket connection
+ * with BLAB Controller is closed normally and the connection with the robot is closed. Sessions that are
+ * garbage-collected before that are reported by the {@link LeakDetector}.
  */
-public class BLABHumanRoboticsClient {
+public class BLABHumanRoboticsClient implements AutoCloseable {
 
     /**
-     * Class logger.
+     * Session logger, a child of the class logger named after the session (so that its level can be set per session).
      */
-    private static final Logger logger = LogManager.getLogger();
+    private final Logger logger;
 
     /**
-     * Pattern that matches newline characters.
+     * Whether the level of {@link #logger} was set by this session (from {@code LOG_LEVEL}), so that its logger
+     * configuration must be removed when the session ends.
      */
-    private static final Pattern NEWLINE = Pattern.compile("[\\r\\n]");
+    private final boolean ownsLogLevel;
 
     /**
-     * Instance of a class that handles bidirectional communication with Robios robots and avatars.
+     * Handles bidirectional communication with the robot or avatar (usually, a {@link HumanRoboticsControl}).
      */
-    private final HumanRoboticsControl robotControl;
+    private final RobotControl robotControl;
 
     /**
      * Instance of a class that handles bidirectional communication with BLAB Controller.
@@ -61,44 +94,396 @@ public class BLABHumanRoboticsClient {
      */
     private final long botMessageTimeout;
 
+    /**
+     * Decides when the reply of the bots to a user message is complete.
+     */
+    private final ReplyTracker replyTracker;
+
+    /**
+     * Whether bot messages should be spoken as soon as they arrive, instead of being joined before the robot speaks.
+     */
+    private final boolean streamBotReplies;
+
+    /**
+     * Whether the user can interrupt the robot: the robot listens while it speaks, and a user message received
+     * before the reply is spoken replaces it.
+     */
+    private final boolean bargeIn;
+
+    /**
+     * Joins the voice recognitions of each user turn into a single message.
+     */
+    private final UtteranceAssembler utterance;
+
     /**
      * Queue of messages sent by the user.
      */
-    private final BlockingQueue<String> userMessageQueue;
+    private final MessageQueue userMessageQueue;
 
     /**
      * Queue of messages sent by bots.
      */
-    private final BlockingQueue<String> botMessageQueue;
+    private final MessageQueue botMessageQueue;
+
+    /**
+     * Scheduler that runs the state transitions and the timeouts.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Executor that runs requests to the robot.
+     */
+    private final Executor robotExecutor;
+
+    /**
+     * Resources that may be shared with other instances.
+     */
+    private final SessionResources resources;
+
+    /**
+     * Whether {@link #resources} were created by this instance (and must be shut down when the conversation ends).
+     */
+    private final boolean ownsResources;
+
+    /**
+     * Latency histograms and counters (possibly shared with other instances).
+     */
+    private final ConversationMetrics metrics;
+
+    /**
+     * Measures the phases of the turns of this conversation.
+     */
+    private final TurnTimer turnTimer;
+
+    /**
+     * Bot messages received in the current turn that have not been spoken yet
+     * (used only if {@link #streamBotReplies} is {@code false}).
+     */
+    private final StringBuilder reply = new StringBuilder();
+
+    /**
+     * Cache of bot replies, or {@code null} if replies are not cached in this conversation.
+     */
+    private final ReplyCache replyCache;
+
+    /**
+     * Writer of the transcripts (possibly shared with other instances), or {@code null} if transcripts are not
+     * recorded.
+     */
+    private final TranscriptWriter transcript;
+
+    /**
+     * ID of the conversation in BLAB Controller, or an empty string if it has not been created yet.
+     */
+    private String conversationId = "";
+
+    /**
+     * When the robot started listening to the user in the current turn (from {@link System#nanoTime()}).
+     */
+    private long listeningSince;
+
+    /**
+     * When the user message of the current turn was sent (from {@link System#nanoTime()}).
+     */
+    private long userMessageSentAt;
+
+    /**
+     * Cache key of the user message of the current turn, or {@code null} if the reply must not be cached.
+     */
+    private ReplyCache.Key replyCacheKey;
+
+    /**
+     * Number of user messages answered from the cache or interrupted by the user whose replies from BLAB Controller
+     * must be discarded.
+     */
+    private int discardedReplies;
+
+    /**
+     * Whether a message of the reply that is currently being discarded has been received.
+     */
+    private boolean discardStarted;
+
+    /**
+     * Timeout of the reply that is currently being discarded, if any.
+     */
+    private ScheduledFuture<?> discardTimeout;
+
+    /**
+     * Incremented whenever the discard timeout is changed, so that stale timeouts are ignored.
+     */
+    private long discardTimeoutGeneration;
+
+    /**
+     * Current state of the conversation.
+     */
+    private State state = State.STARTING;
+
+    /**
+     * Whether the conversation must end as soon as the current turn is finished.
+     */
+    private boolean closing;
+
+    /**
+     * Completed when the conversation ends.
+     */
+    private final CompletableFuture<Void> ended = new CompletableFuture<>();
+
+    /**
+     * Reports this session if it is garbage-collected before it ends.
+     */
+    private final LeakDetector.Tracker leakTracker;
+
+    /**
+     * Whether the conversation has been created in BLAB Controller (user messages are only sent after that).
+     */
+    private boolean conversationStarted;
+
+    /**
+     * Whether the conversation was started by another session and is being continued by this one (in which case
+     * the robot listens to the user instead of saying the greeting).
+     */
+    private boolean resumed;
+
+    /**
+     * Whether at least one bot message has been received in the current turn.
+     */
+    private boolean replyStarted;
+
+    /**
+     * Timeout of the current state, if any.
+     */
+    private ScheduledFuture<?> timeout;
+
+    /**
+     * Incremented whenever the timeout is changed, so that stale timeouts are ignored.
+     */
+    private long timeoutGeneration;
+
+    /**
+     * Incremented whenever a request is sent to the robot or the request in progress is abandoned, so that the ends
+     * of abandoned requests are ignored.
+     */
+    private long robotRequestGeneration;
 
     /**
      * Initializes an instance with a given configuration.
+     * <p>
+     * The instance creates its own resources (including a scheduler and a robot executor),
+     * which are shut down when the conversation ends.
      *
+     * @param name   name of the session (used in log messages)
      * @param config configuration (see *README.md* for details).
      */
-    BLABHumanRoboticsClient(Properties config) {
-        botMessageQueue = new LinkedBlockingQueue<>();
-        userMessageQueue = new LinkedBlockingQueue<>();
-        robotControl = new HumanRoboticsControl(
+    BLABHumanRoboticsClient(String name, Properties config) {
+        this(name, config, SessionResources.create(config, Executors.newSingleThreadScheduledExecutor(), Executors.newCachedThreadPool()),
+                humanRoboticsControl(config), true);
+    }
+
+    /**
+     * Initializes an instance with a given configuration and resources that may be shared with other instances.
+     *
+     * @param name      name of the session (used in log messages)
+     * @param config    configuration (see *README.md* for details).
+     * @param resources shared resources
+     */
+    BLABHumanRoboticsClient(String name, Properties config, SessionResources resources) {
+        this(name, config, resources, humanRoboticsControl(config));
+    }
+
+    /**
+     * Initializes an instance with a given configuration, resources that may be shared with other instances
+     * and a custom robot (such as a simulated one).
+     *
+     * @param name         name of the session (used in log messages)
+     * @param config       configuration (see *README.md* for details).
+     * @param resources    shared resources
+     * @param robotFactory function that creates the robot, given the function to be called with the user's messages
+     */
+    BLABHumanRoboticsClient(String name, Properties config, SessionResources resources, Function<Consumer<String>, RobotControl> robotFactory) {
+        this(name, config, resources, robotFactory, false);
+    }
+
+    private BLABHumanRoboticsClient(String name, Properties config, SessionResources resources,
+                                    Function<Consumer<String>, RobotControl> robotFactory, boolean ownsResources) {
+        this.logger = LogManager.getLogger(sessionLoggerName(name));
+        this.ownsLogLevel = setLogLevel(logger, config.getProperty("LOG_LEVEL", ""));
+        this.resources = resources;
+        this.ownsResources = ownsResources;
+        this.metrics = resources.metrics();
+        this.turnTimer = metrics.newTurnTimer();
+        this.scheduler = resources.scheduler();
+        this.robotExecutor = resources.robotExecutor();
+        userMessageQueue = new MessageQueue(
+                Integer.parseInt(config.getProperty("USER_QUEUE_CAPACITY", "16")),
+                MessageQueue.OverflowPolicy.parse(config.getProperty("USER_QUEUE_OVERFLOW", "coalesce")),
+                " ", metrics.userQueue());
+        botMessageQueue = new MessageQueue(
+                Integer.parseInt(config.getProperty("BOT_QUEUE_CAPACITY", "64")),
+                MessageQueue.OverflowPolicy.parse(config.getProperty("BOT_QUEUE_OVERFLOW", "coalesce")),
+                System.lineSeparator(), metrics.botQueue());
+        utterance = new UtteranceAssembler(
+                Long.parseLong(config.getProperty("USER_MESSAGE_QUIET_PERIOD", "0")),
+                Long.parseLong(config.getProperty("USER_MESSAGE_MAX_DELAY", "3000")),
+                metrics);
+        robotControl = robotFactory.apply(this::userMessageReceived);
+        this.botNames = botNames(config);
+        this.greeting = config.getProperty("GREETING", "Hello");
+        this.userMessageTimeout = Long.parseLong(config.getProperty("USER_MESSAGE_TIMEOUT"));
+        this.botMessageTimeout = Long.parseLong(config.getProperty("BOT_MESSAGE_TIMEOUT"));
+        this.replyTracker = new ReplyTracker(botNames, Long.parseLong(config.getProperty("BOT_REPLY_GAP", "100")),
+                Long.parseLong(config.getProperty("BOT_REPLY_MAX_GAP", "5000")), botMessageTimeout);
+        this.streamBotReplies = stringToBoolean(config.getProperty("STREAM_BOT_REPLIES", "false"));
+        this.bargeIn = stringToBoolean(config.getProperty("BARGE_IN", "false"));
+        // duplicates and spaces around the separators are tolerated
+        Set<String> cacheableBots = Arrays.stream(config.getProperty("REPLY_CACHE_BOTS", "").split(config.getProperty("BLAB_CHAT_BOTS_SEP", ",")))
+                .map(String::strip)
+                .collect(Collectors.toSet());
+        this.replyCache = resources.replyCache() != null
+                && botNames.stream().map(String::strip).allMatch(cacheableBots::contains) ? resources.replyCache() : null;
+        this.transcript = resources.transcript();
+        ReconnectPolicy reconnectPolicy = reconnectPolicy(config);
+        // a session that owns its resources runs the only conversation of the process, so a pool would only add
+        // conversations that are never taken
+        ConversationPool pool = ownsResources ? null : conversationPool(config, resources);
+        this.blabControl = new BLABClient(resources.network(), resources.json(), config.getProperty("BLAB_CHAT_SERVER_URL"), config.getProperty("BLAB_CHAT_WS_SERVER_URL"), this::botMessageReceived, reconnectPolicy, pool);
+        this.leakTracker = resources.leakDetector().track(this, "Session \"" + name + "\"");
+    }
+
+    /**
+     * Returns the bots of the conversations of a session.
+     *
+     * @param config configuration of the session (see *README.md* for details)
+     * @return the bot names
+     */
+    private static List<String> botNames(Properties config) {
+        return Arrays.stream(config.getProperty("BLAB_CHAT_BOTS").split(config.getProperty("BLAB_CHAT_BOTS_SEP", ","))).toList();
+    }
+
+    /**
+     * Returns the buffer size and reconnection delays of the WebSocket connections of a session.
+     *
+     * @param config configuration of the session (see *README.md* for details)
+     * @return the reconnection policy
+     */
+    private static ReconnectPolicy reconnectPolicy(Properties config) {
+        return new ReconnectPolicy(
+                Integer.parseInt(config.getProperty("BLAB_WS_BUFFER_SIZE", "32")),
+                Long.parseLong(config.getProperty("BLAB_WS_RECONNECT_MIN_DELAY", "500")),
+                Long.parseLong(config.getProperty("BLAB_WS_RECONNECT_MAX_DELAY", "30000")));
+    }
+
+    /**
+     * Returns the pool of conversations with the server and bots of a session, creating it (and starting the
+     * creation of its conversations) if needed.
+     *
+     * @param config    configuration of the session (see *README.md* for details)
+     * @param resources shared resources
+     * @return the pool, or {@code null} if conversations are not created in advance
+     */
+    static ConversationPool conversationPool(Properties config, SessionResources resources) {
+        if (resources.conversationPools() == null)
+            return null;
+        return resources.conversationPools().pool(config.getProperty("BLAB_CHAT_SERVER_URL"),
+                config.getProperty("BLAB_CHAT_WS_SERVER_URL"), botNames(config), reconnectPolicy(config));
+    }
+
+    /**
+     * Returns a function that creates a {@link HumanRoboticsControl} with the given configuration.
+     *
+     * @param config configuration (see *README.md* for details).
+     * @return a function that creates the robot, given the function to be called with the user's messages
+     */
+    static Function<Consumer<String>, RobotControl> humanRoboticsControl(Properties config) {
+        return callback -> new HumanRoboticsControl(
                 config.getProperty("ROBIOS_ROBOT_ADDRESS"),
                 config.getProperty("ROBIOS_ROBOT_ID"),
                 config.getProperty("ROBIOS_API_KEY"),
                 Long.parseLong(config.getProperty("DELAY_PER_CHARACTER", "0")),
                 Long.parseLong(config.getProperty("MIN_DELAY", "0")),
-                this::userMessageReceived,
-                stringToBoolean(config.getProperty("ROBIOS_DISABLE_NATIVE_DIALOGS", "false"))
+                callback,
+                stringToBoolean(config.getProperty("ROBIOS_DISABLE_NATIVE_DIALOGS", "false")),
+                config.getProperty("SPEECH_MODEL_FILE", "").isBlank() ? null : Path.of(config.getProperty("SPEECH_MODEL_FILE")),
+                stringToBoolean(config.getProperty("ROBIOS_VERBOSE_LOGS", "true")),
+                stringToBoolean(config.getProperty("BARGE_IN", "false"))
         );
-        this.botNames = Arrays.stream(config.getProperty("BLAB_CHAT_BOTS").split(config.getProperty("BLAB_CHAT_BOTS_SEP", ","))).toList();
-        this.greeting = config.getProperty("GREETING", "Hello");
-        this.userMessageTimeout = Long.parseLong(config.getProperty("USER_MESSAGE_TIMEOUT"));
-        this.botMessageTimeout = Long.parseLong(config.getProperty("BOT_MESSAGE_TIMEOUT"));
-        this.blabControl = new BLABClient(config.getProperty("BLAB_CHAT_SERVER_URL"), config.getProperty("BLAB_CHAT_WS_SERVER_URL"), this::botMessageReceived);
+    }
+
+    /**
+     * Returns the name of the logger of a session.
+     *
+     * @param name name of the session
+     * @return a child of the class logger named after the session
+     */
+    private static String sessionLoggerName(String name) {
+        return BLABHumanRoboticsClient.class.getName() + "." + name;
+    }
+
+    /**
+     * Sets the level of the logger of a session.
+     * <p>
+     * Log4j keeps a logger configuration for each logger whose level is set, so the configuration created here is
+     * removed by {@link #restoreLogLevel()} when the session ends. A configuration of the same logger given in the
+     * Log4j configuration file is changed, but not removed.
+     *
+     * @param sessionLogger logger of the session
+     * @param level         log level of the session (e.g. "debug" or "warn"), or a blank string to inherit the level
+     *                      of the class logger
+     * @return whether a logger configuration was created
+     */
+    private static boolean setLogLevel(Logger sessionLogger, String level) {
+        if (level.isBlank())
+            return false;
+        Level parsed = Level.getLevel(level.strip().toUpperCase(Locale.ROOT));
+        if (parsed == null) {
+            sessionLogger.warn("Invalid log level: \"{}\"", level);
+            return false;
+        }
+        boolean configured = LoggerContext.getContext(false).getConfiguration().getLoggers().containsKey(sessionLogger.getName());
+        Configurator.setLevel(sessionLogger.getName(), parsed);
+        return !configured;
+    }
+
+    /**
+     * Removes the logger configuration created by {@link #setLogLevel(Logger, String)}, if any, so that sessions
+     * that come and go (such as one per visitor) do not accumulate configurations.
+     */
+    private void restoreLogLevel() {
+        if (!ownsLogLevel)
+            return;
+        LoggerContext context = LoggerContext.getContext(false);
+        context.getConfiguration().removeLogger(logger.getName());
+        context.updateLoggers();
     }
 
     private static boolean stringToBoolean(String s) {
         return s != null && Set.of("true", "yes", "1").contains(s.strip().toLowerCase(Locale.ROOT));
     }
 
+    /**
+     * Appends a bot message to the reply of the current turn, on a new line.
+     *
+     * @param reply   the messages received so far
+     * @param message the new message
+     */
+    static void appendBotMessage(StringBuilder reply, String message) {
+        if (!reply.isEmpty())
+            reply.append(System.lineSeparator());
+        reply.append(message);
+    }
+
+    /**
+     * Wraps a message so that it is logged in a single line, with newline characters replaced by spaces.
+     * <p>
+     * The replacement is only made if the log event is enabled, and the characters are written directly into the
+     * logger's buffer.
+     *
+     * @param message the message
+     * @return a log parameter
+     */
+    static SingleLine singleLine(String message) {
+        return new SingleLine(message);
+    }
+
     /**
      * Enqueues a message sent by the user.
      * This method is called whenever a message is received from the user.
@@ -106,96 +491,611 @@ public class BLABHumanRoboticsClient {
      * @param text the text emitted (usually spoken) by the user
      */
     private void userMessageReceived(String text) {
-        if (!userMessageQueue.offer(text)) {
-            logger.error("User said \"{}\", but the message could not be added to the queue", text);
+        turnTimer.userMessageRecognized(System.nanoTime());
+        if (bargeIn && robotControl.stopSpeaking()) {
+            metrics.bargeIn();
+            logger.info("User interrupted the robot");
+        }
+        if (!userMessageQueue.add(text)) {
+            logger.error("User said \"{}\", but the message was dropped because the queue is full", text);
+            return;
         }
+        turnTimer.userMessageEnqueued(System.nanoTime());
+        post(this::drive);
     }
 
     /**
      * Enqueues a message sent by a bot.
      * This method is called whenever a message is received from a bot.
      *
+     * @param bot  name of the bot, or {@code null} if unknown
      * @param text the text sent by a bot
      */
-    private void botMessageReceived(String text) {
-        if (!botMessageQueue.offer(text)) {
-            logger.error("Bot said \"{}\", but the message could not be added to the queue", text);
+    private void botMessageReceived(String bot, String text) {
+        long now = System.nanoTime();
+        turnTimer.botMessageReceived(now);
+        if (!botMessageQueue.add(text)) {
+            logger.error("Bot said \"{}\", but the message was dropped because the queue is full", text);
+            return;
+        }
+        // counted after it is queued, so that the reply is never complete before the message can be consumed
+        replyTracker.messageReceived(bot, now);
+        post(this::drive);
+    }
+
+    /**
+     * Start a conversation.
+     * <p>
+     * The connection with the robot, the creation of the conversation (followed by the WebSocket handshake) and the
+     * warm-up of the connection to the WebSocket server run in parallel. The robot says the greeting as soon as it
+     * is ready, even if the conversation has not been created yet; user messages are sent once it has.
+     */
+    public void start() {
+        start(null);
+    }
+
+    /**
+     * Starts or continues a conversation.
+     * <p>
+     * If a conversation handed off by another session is given, it is joined instead of creating a new one, and the
+     * robot starts listening to the user as soon as it is ready, without saying the greeting.
+     *
+     * @param handoff the conversation to be continued, or {@code null} to start a new one (see {@link #start()})
+     */
+    public void start(ConversationHandoff handoff) {
+        if (handoff != null) {
+            synchronized (this) {
+                resumed = true;
+            }
+            logger.info("Resuming conversation {}", handoff.conversationId());
+        }
+        CompletableFuture.runAsync(robotControl::connect, robotExecutor).whenComplete((result, e) -> post(() -> onRobotConnected(e)));
+        if (handoff != null) {
+            blabControl.resumeConversation(handoff.conversationId(), handoff.sessionId());
+            post(() -> onConversationStarted(handoff.conversationId()));
+            return;
         }
+        blabControl.warmUp();
+        blabControl.startConversation("", botNames, " ", conversationId -> post(() -> onConversationStarted(conversationId)));
     }
 
     /**
-     * Blocks until a message is received from the user in the message queue.
+     * Returns the depth, the high-water mark and the overflows of the user and bot message queues of this session.
      *
-     * @return the message sent by the user if it exists, or {@code null} otherwise.
+     * @return the snapshots of the user queue and of the bot queue
      */
-    private String waitForUserMessage() {
-        logger.info("Waiting at most {}ms for a message from the user...", userMessageTimeout);
-        String message;
-        try {
-            message = userMessageQueue.poll(userMessageTimeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            logger.error("Queue retrieval was interrupted", e);
-            message = null;
+    public List<QueueStats> queueStats() {
+        return List.of(userMessageQueue.stats("user"), botMessageQueue.stats("bot"));
+    }
+
+    /**
+     * Returns what another session needs to continue the conversation of this one.
+     *
+     * @return the conversation ID and session cookie, or {@code null} if the conversation has not been created
+     */
+    public synchronized ConversationHandoff conversation() {
+        if (conversationId.isEmpty())
+            return null;
+        return new ConversationHandoff(conversationId, blabControl.sessionId());
+    }
+
+    /**
+     * Stops the conversation immediately, even if a turn is in progress, and closes the connections with BLAB
+     * Controller and with the robot.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (state == State.CLOSED)
+                return;
+            release();
+        }
+        robotControl.close();
+        shutdownExecutors();
+        restoreLogLevel();
+        ended.complete(null);
+    }
+
+    /**
+     * Ends the conversation gracefully: if a user message has been sent and the reply has not been spoken yet, the
+     * conversation ends as soon as the robot has spoken it (or the bots fail to reply in time); otherwise, it ends
+     * immediately, as with {@link #stop()}.
+     * <p>
+     * This method does not wait for the conversation to end (see {@link #whenEnded()}).
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (state == State.CLOSED || closing)
+                return;
+            if (state == State.AWAITING_BOT || state == State.SPEAKING) {
+                logger.info("Conversation will end after the current turn");
+                closing = true;
+                return;
+            }
+        }
+        stop();
+    }
+
+    /**
+     * Returns a future that is completed when the conversation ends, for any reason.
+     *
+     * @return the future
+     */
+    public CompletableFuture<Void> whenEnded() {
+        return ended;
+    }
+
+    /**
+     * Handles the result of the conversation creation request.
+     *
+     * @param conversationId ID of the conversation, or {@code null} if it could not be created
+     */
+    private synchronized void onConversationStarted(String conversationId) {
+        if (state == State.CLOSED)
+            return;
+        if (conversationId == null) {
+            logger.error("Conversation could not be started");
+            end();
+            return;
+        }
+        this.conversationId = conversationId;
+        conversationStarted = true;
+        drive();
+    }
+
+    /**
+     * Handles the end of the connection attempt with the robot.
+     *
+     * @param error the reason why the connection could not be established, or {@code null} if it succeeded
+     */
+    private synchronized void onRobotConnected(Throwable error) {
+        if (state != State.STARTING) {
+            if (state == State.CLOSED && error == null)
+                robotControl.close();
+            return;
         }
-        if (message != null) {
-            logger.info("User said: \"{}\"", message);
-        } else {
-            logger.warn("Could not listen to user");
+        if (error != null) {
+            logger.error("Could not connect to the robot", error);
+            end();
+            return;
         }
-        return message;
+        state = State.GREETING;
+        if (resumed)
+            runOnRobot(robotControl::listen, false, "Failed to listen");
+        else
+            runOnRobot(() -> robotControl.sayAndListen(greeting), true, "Failed to say greeting \"{}\" or to listen", greeting);
     }
 
     /**
-     * Block until a message is received from a bot in the message queue.
+     * Handles the end of a request to the robot.
      *
-     * @return the message sent by the bot if it exists, or {@code null} otherwise.
+     * @param generation value of {@link #robotRequestGeneration} when the request was sent
      */
-    private String waitForBotMessage() {
-        StringBuilder sb = new StringBuilder();
-        boolean isFirst = true;
-        logger.info("Waiting at most {}ms for a message from the bots...", botMessageTimeout);
-        do {
-            try {
-                String message = botMessageQueue.poll(isFirst ? botMessageTimeout : 100, TimeUnit.MILLISECONDS);
-                if (null != message) {
-                    if (!isFirst)
-                        sb.append(System.lineSeparator());
-                    sb.append(message);
+    private synchronized void onRobotRequestFinished(long generation) {
+        if (generation != robotRequestGeneration)
+            return;
+        switch (state) {
+            case GREETING -> listenToUser();
+            case SPEAKING -> {
+                if (streamBotReplies && replyStarted) {
+                    state = State.AWAITING_BOT;
+                    drive();
+                } else {
+                    listenToUser();
                 }
-            } catch (InterruptedException e) {
-                logger.error("Queue retrieval was interrupted.", e);
-                return null;
             }
-            isFirst = false;
-        } while (!botMessageQueue.isEmpty());
-        String message = sb.toString();
-        if (message.isBlank())
-            logger.warn("Bot did not reply");
-        else
-            logger.info("Bot said: \"{}\"", NEWLINE.matcher(message).replaceAll(" "));
-        return message;
+            default -> {
+            }
+        }
     }
 
     /**
-     * Start a conversation.
+     * Moves to the state in which a user message is expected.
      */
-    public void start() {
-        blabControl.startConversation("", botNames, " ", conversationId -> {
-            if (!robotControl.sayAndListen(greeting))
-                logger.error("Failed to say greeting \"{}\" or to listen", greeting);
-            String userMessage;
-            while ((userMessage = waitForUserMessage()) != null) {
-                blabControl.sendMessage(userMessage);
+    private void listenToUser() {
+        if (closing) {
+            logger.info("Turn finished; ending conversation");
+            end();
+            return;
+        }
+        state = State.LISTENING;
+        listeningSince = System.nanoTime();
+        logger.info("Waiting at most {}ms for a message from the user...", Unbox.box(userMessageTimeout));
+        setTimeout(userMessageTimeout, this::onUserTimeout);
+        drive();
+    }
+
+    /**
+     * Consumes the queued messages that are expected in the current state.
+     */
+    private synchronized void drive() {
+        if (discardedReplies > 0 && state != State.CLOSED)
+            discardBotMessages();
+        if (bargeIn && (state == State.AWAITING_BOT || state == State.SPEAKING) && !closing && userMessageQueue.size() > 0) {
+            interruptReply();
+            return;
+        }
+        switch (state) {
+            case LISTENING -> {
+                if (!conversationStarted)
+                    return;
+                String userMessage = nextUtterance();
+                if (userMessage == null)
+                    return;
+                logger.info("User said: \"{}\"", userMessage);
+                userMessageSentAt = System.nanoTime();
+                turnTimer.userMessageSent(userMessageSentAt);
+                replyTracker.startTurn(userMessageSentAt);
+                transcribe(Direction.USER, userMessage, userMessageSentAt - listeningSince);
+                if (!blabControl.sendMessage(userMessage))
+                    metrics.failedSend();
+                replyStarted = false;
+                reply.setLength(0);
+                replyCacheKey = replyCache != null ? ReplyCache.key(botNames, userMessage) : null;
+                String cachedReply = replyCacheKey != null ? replyCache.get(replyCacheKey) : null;
+                if (replyCacheKey != null) {
+                    if (cachedReply != null)
+                        metrics.replyCacheHit();
+                    else
+                        metrics.replyCacheMiss();
+                }
+                if (cachedReply != null) {
+                    if (logger.isInfoEnabled())
+                        logger.info("Bot reply found in cache: \"{}\"", singleLine(cachedReply));
+                    transcribe(Direction.BOT, cachedReply, System.nanoTime() - userMessageSentAt);
+                    replyCacheKey = null;
+                    discardReply(false);
+                    state = State.SPEAKING;
+                    setTimeout(0, null);
+                    runOnRobot(() -> robotControl.sayAndListen(cachedReply), true, "Failed to say \"{}\" or to listen", cachedReply);
+                    return;
+                }
+                state = State.AWAITING_BOT;
+                logger.info("Waiting at most {}ms for a message from the bots...", Unbox.box(botMessageTimeout));
+                setTimeout(botMessageTimeout, this::onBotReplyFinished);
+                drive();
+            }
+            case AWAITING_BOT -> {
                 String botMessage;
-                if (null == (botMessage = waitForBotMessage())) {
-                    robotControl.close();
-                    break;
+                while ((botMessage = botMessageQueue.poll()) != null) {
+                    replyStarted = true;
+                    transcribe(Direction.BOT, botMessage, System.nanoTime() - userMessageSentAt);
+                    if (streamBotReplies) {
+                        if (replyCacheKey != null)
+                            appendBotMessage(reply, botMessage);
+                        if (logger.isInfoEnabled())
+                            logger.info("Bot said: \"{}\"", singleLine(botMessage));
+                        state = State.SPEAKING;
+                        setTimeout(0, null);
+                        String message = botMessage;
+                        runOnRobot(() -> robotControl.say(message), true, "Failed to say \"{}\"", message);
+                        return;
+                    }
+                    appendBotMessage(reply, botMessage);
                 }
+                if (replyStarted)
+                    awaitRestOfReply();
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Joins the queued user messages into the utterance of the current turn.
+     *
+     * @return the utterance, or {@code null} if the user has not said anything or may still be talking (in which
+     * case the timeout is set to the end of the quiet period)
+     */
+    private String nextUtterance() {
+        long now = System.nanoTime();
+        String fragment;
+        while ((fragment = userMessageQueue.poll()) != null) {
+            if (!utterance.add(fragment, now))
+                logger.debug("Ignoring repeated or blank recognition: \"{}\"", fragment);
+        }
+        if (utterance.isEmpty())
+            return null;
+        long wait = utterance.remainingWait(now);
+        if (wait > 0) {
+            setTimeout(TimeUnit.NANOSECONDS.toMillis(wait + 999_999), this::drive);
+            return null;
+        }
+        if (utterance.size() > 1)
+            logger.debug("Joining {} recognitions", Unbox.box(utterance.size()));
+        return utterance.take();
+    }
+
+    /**
+     * Finishes the reply if all the bots have replied, or waits for their further messages otherwise.
+     */
+    private void awaitRestOfReply() {
+        long wait = replyTracker.remainingWait(System.nanoTime());
+        if (wait > 0) {
+            setTimeout(TimeUnit.NANOSECONDS.toMillis(wait + 999_999), this::onBotReplyFinished);
+            return;
+        }
+        setTimeout(0, null);
+        onBotReplyFinished();
+    }
+
+    /**
+     * Abandons the reply of the current turn because the user has said something else, and starts a new turn with
+     * the new user message. The bot messages of the abandoned reply that have not been consumed yet are discarded
+     * until the bots have finished it (see {@link #discardReply(boolean)}).
+     */
+    private void interruptReply() {
+        logger.info("User spoke before the reply was finished; abandoning it");
+        if (state == State.AWAITING_BOT || streamBotReplies && replyStarted)
+            discardReply(replyStarted);
+        replyStarted = false;
+        reply.setLength(0);
+        replyCacheKey = null;
+        // the robot was asked to stop the sentence being spoken (if any) when the user message arrived
+        robotRequestGeneration++;
+        listenToUser();
+    }
+
+    /**
+     * Called when the user does not say anything within the time limit.
+     */
+    private void onUserTimeout() {
+        metrics.userTimeout();
+        logger.warn("Could not listen to user");
+        end();
+    }
 
-                if (!robotControl.sayAndListen(botMessage))
-                    logger.error("Failed to say \"{}\" or to listen", botMessage);
+    /**
+     * Called when no further bot message is expected in the current turn.
+     */
+    private void onBotReplyFinished() {
+        if (!replyStarted) {
+            metrics.botTimeout();
+            logger.warn("Bot did not reply");
+        }
+        state = State.SPEAKING;
+        if (replyStarted && replyCacheKey != null)
+            replyCache.put(replyCacheKey, reply.toString());
+        replyCacheKey = null;
+        if (streamBotReplies) {
+            replyStarted = false;
+            reply.setLength(0);
+            runOnRobot(robotControl::listen, false, "Failed to listen");
+            return;
+        }
+        String message = reply.toString();
+        reply.setLength(0);
+        if (!message.isBlank() && logger.isInfoEnabled())
+            logger.info("Bot said: \"{}\"", singleLine(message));
+        runOnRobot(() -> robotControl.sayAndListen(message), true, "Failed to say \"{}\" or to listen", message);
+    }
+
+    /**
+     * Abandons the reply of the current turn: its messages that have not been consumed yet are discarded as they
+     * arrive, until the bots have finished it (as decided by the {@link ReplyTracker}).
+     *
+     * @param started whether a message of the reply has already been consumed
+     */
+    private void discardReply(boolean started) {
+        replyTracker.abandonTurn();
+        if (discardedReplies++ == 0)
+            discardStarted = started;
+        discardBotMessages();
+    }
+
+    /**
+     * Discards the bot messages that belong to a reply that was answered from the cache or interrupted by the user.
+     * When the bots have finished that reply, the following bot messages belong to the next reply (or to the next
+     * discarded one); otherwise, the discard timeout is set to when it is expected to be finished.
+     */
+    private void discardBotMessages() {
+        while (discardedReplies > 0) {
+            String botMessage;
+            while ((botMessage = botMessageQueue.poll()) != null) {
+                logger.debug("Discarding bot message of a reply answered from cache or interrupted: \"{}\"", botMessage);
+                discardStarted = true;
+            }
+            long wait = replyTracker.discardWait(System.nanoTime());
+            if (wait > 0) {
+                setDiscardTimeout(TimeUnit.NANOSECONDS.toMillis(wait + 999_999));
+                return;
+            }
+            if (discardTimeout != null) {
+                discardTimeout.cancel(false);
+                discardTimeout = null;
             }
+            if (!discardStarted)
+                logger.warn("Bot did not reply to a message answered from cache or interrupted");
+            replyTracker.finishDiscarding();
+            discardedReplies--;
+            discardStarted = false;
+        }
+    }
+
+    /**
+     * Replaces the timeout of the reply that is currently being discarded.
+     * When the time limit is reached, the discarded reply is checked again.
+     *
+     * @param ms time limit in milliseconds
+     */
+    private void setDiscardTimeout(long ms) {
+        if (discardTimeout != null)
+            discardTimeout.cancel(false);
+        long generation = ++discardTimeoutGeneration;
+        discardTimeout = scheduler.schedule(() -> {
+            synchronized (this) {
+                if (generation != discardTimeoutGeneration || state == State.CLOSED)
+                    return;
+                discardTimeout = null;
+                drive();
+            }
+        }, ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Hands a message off to the transcript writer, if transcripts are recorded.
+     *
+     * @param direction who sent the message
+     * @param text      text of the message
+     * @param latency   latency in nanoseconds (see {@link TranscriptRecord#latency()})
+     */
+    private void transcribe(Direction direction, String text, long latency) {
+        if (transcript != null)
+            transcript.append(new TranscriptRecord(System.currentTimeMillis(), conversationId, direction, text,
+                    Math.max(0, latency / 1000)));
+    }
+
+    /**
+     * Runs a request to the robot on {@link #robotExecutor} and then calls {@link #onRobotRequestFinished(long)} on
+     * {@link #scheduler}.
+     *
+     * @param request      the request, which returns whether it was accepted
+     * @param speech       whether the request makes the robot speak
+     * @param errorMessage message logged if the request is not accepted
+     * @param errorArg     argument of the error message
+     */
+    private void runOnRobot(BooleanSupplier request, boolean speech, String errorMessage, Object... errorArg) {
+        long generation = ++robotRequestGeneration;
+        robotExecutor.execute(() -> {
+            long startedAt = System.nanoTime();
+            if (speech)
+                turnTimer.speechStarted(startedAt);
+            if (!request.getAsBoolean())
+                logger.error(errorMessage, errorArg);
+            if (speech)
+                turnTimer.speechFinished(startedAt, System.nanoTime());
+            post(() -> onRobotRequestFinished(generation));
         });
     }
 
-}
\ No newline at end of file
+    /**
+     * Runs a task on {@link #scheduler}, unless it has been shut down.
+     *
+     * @param task the task
+     */
+    private void post(Runnable task) {
+        try {
+            scheduler.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Conversation has ended; event ignored");
+        }
+    }
+
+    /**
+     * Replaces the timeout of the current state.
+     *
+     * @param ms     time limit in milliseconds
+     * @param action function called on {@link #scheduler} when the time limit is reached,
+     *               or {@code null} to remove the current timeout
+     */
+    private void setTimeout(long ms, Runnable action) {
+        if (timeout != null)
+            timeout.cancel(false);
+        long generation = ++timeoutGeneration;
+        timeout = action == null ? null : scheduler.schedule(() -> {
+            synchronized (this) {
+                if (generation == timeoutGeneration) {
+                    timeout = null;
+                    action.run();
+                }
+            }
+        }, ms, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Ends the conversation from the scheduler. The connection with the robot is closed on {@link #robotExecutor},
+     * after the request in progress (if any).
+     */
+    private void end() {
+        release();
+        try {
+            robotExecutor.execute(robotControl::close);
+        } catch (RejectedExecutionException e) {
+            robotControl.close();
+        }
+        shutdownExecutors();
+        restoreLogLevel();
+        ended.complete(null);
+    }
+
+    /**
+     * Moves to the final state, cancels the timeouts and closes the connection with BLAB Controller.
+     */
+    private void release() {
+        setTimeout(0, null);
+        if (discardTimeout != null) {
+            discardTimeout.cancel(false);
+            discardTimeout = null;
+        }
+        state = State.CLOSED;
+        blabControl.close();
+        leakTracker.close();
+    }
+
+    /**
+     * Shuts down the executors if they were created by this instance.
+     */
+    private void shutdownExecutors() {
+        if (ownsResources)
+            resources.shutdown();
+    }
+
+    /**
+     * A log parameter that formats a message in a single line.
+     *
+     * @param message the message
+     */
+    record SingleLine(String message) implements StringBuilderFormattable {
+
+        @Override
+        public void formatTo(StringBuilder buffer) {
+            for (int i = 0, length = message.length(); i < length; i++) {
+                char c = message.charAt(i);
+                buffer.append(c == '\r' || c == '\n' ? ' ' : c);
+            }
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(message.length());
+            formatTo(sb);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Represents the state of a conversation.
+     */
+    private enum State {
+        /**
+         * The connection with the robot is being established.
+         */
+        STARTING,
+
+        /**
+         * The robot is saying the greeting (or, if the conversation is being resumed, starting to listen).
+         */
+        GREETING,
+
+        /**
+         * A message from the user is expected.
+         */
+        LISTENING,
+
+        /**
+         * A message from the user has been sent, and messages from the bots are expected.
+         */
+        AWAITING_BOT,
+
+        /**
+         * The robot is speaking a bot reply.
+         */
+        SPEAKING,
+
+        /**
+         * The conversation has ended.
+         */
+        CLOSED
+    }
+
+}
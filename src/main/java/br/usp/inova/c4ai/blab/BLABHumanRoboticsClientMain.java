@@ -1,17 +1,30 @@
 package br.usp.inova.c4ai.blab;
 
+import br.usp.inova.c4ai.blab.cluster.ClusterNode;
+import br.usp.inova.c4ai.blab.cluster.FileCoordinator;
+import br.usp.inova.c4ai.blab.metrics.QueueStats;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.core.config.Configurator;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Entry point for {@link BLABHumanRoboticsClient}.
@@ -23,6 +36,12 @@ public final class BLABHumanRoboticsClientMain {
      */
     private static final Logger logger = LogManager.getLogger();
 
+    /**
+     * Command-line option that runs the sessions in a {@link BLABHumanRoboticsGateway} even if a single settings file
+     * is given (so that sessions can be added later).
+     */
+    private static final String GATEWAY_OPTION = "--gateway";
+
     /**
      * Loads configuration file.
      *
@@ -43,18 +62,179 @@ public final class BLABHumanRoboticsClientMain {
         return properties;
     }
 
+    /**
+     * Adds a session to the gateway (or, in cluster mode, a robot to the fleet of the node) using the settings in a
+     * file. The session name is the file name.
+     *
+     * @param gateway        the gateway
+     * @param cluster        the cluster node, or {@code null} if not in cluster mode
+     * @param configFileName name of the UTF-8-encoded configuration file
+     */
+    private static void addSession(BLABHumanRoboticsGateway gateway, ClusterNode cluster, String configFileName) {
+        addSession(gateway, cluster, new File(configFileName).getName(), loadSessionConfig(configFileName));
+    }
+
+    /**
+     * Adds a session to the gateway (or, in cluster mode, a robot to the fleet of the node).
+     *
+     * @param gateway the gateway
+     * @param cluster the cluster node, or {@code null} if not in cluster mode
+     * @param name    name of the session
+     * @param config  settings of the session
+     */
+    private static void addSession(BLABHumanRoboticsGateway gateway, ClusterNode cluster, String name, Properties config) {
+        if (cluster != null)
+            cluster.addRobot(name, config);
+        else
+            gateway.addSession(name, config);
+    }
+
+    /**
+     * Loads the settings of a session, logging where they come from.
+     *
+     * @param configFileName name of the UTF-8-encoded configuration file
+     * @return the settings
+     */
+    private static Properties loadSessionConfig(String configFileName) {
+        File file = new File(configFileName);
+        logger.info("Reading settings from \"{}\".", file.getAbsolutePath());
+        Properties config = loadConfig(file.getAbsolutePath());
+        logger.debug(config);
+        return config;
+    }
+
+    /**
+     * Creates the cluster node of this process, if cluster mode is enabled.
+     *
+     * @param gateway  the gateway that runs the sessions owned by the node
+     * @param settings process-wide settings
+     * @return the node, or {@code null} if {@code CLUSTER_DIR} is not set
+     */
+    private static ClusterNode clusterNode(BLABHumanRoboticsGateway gateway, Properties settings) {
+        String directory = settings.getProperty("CLUSTER_DIR", "");
+        if (directory.isBlank())
+            return null;
+        try {
+            FileCoordinator coordinator = new FileCoordinator(Path.of(directory),
+                    Long.parseLong(settings.getProperty("CLUSTER_NODE_TIMEOUT", "5000")));
+            return new ClusterNode(gateway, coordinator, settings);
+        } catch (IOException e) {
+            logger.fatal("Could not create the cluster directory \"{}\".", directory);
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Runs several sessions in the same process.
+     * <p>
+     * Process-wide settings (such as how metrics are exported) are read from the first file.
+     * After the initial sessions are started, commands are read from the standard input:
+     * {@code add <settings file>}, {@code remove <session name>} (which stops the session immediately),
+     * {@code close <session name>} (which stops it after its current turn) and {@code list}.
+     * When the process is terminated, the sessions are given some time to finish their current turns
+     * (see {@link BLABHumanRoboticsGateway#close()}).
+     * <p>
+     * In cluster mode ({@code CLUSTER_DIR} set in the first file), the files describe the whole fleet, the process
+     * runs only the sessions of the robots it owns (see {@link ClusterNode}), and the commands change the fleet of
+     * this process only. When the process is terminated, its sessions are handed off to the remaining processes.
+     *
+     * @param configFileNames names of the settings files of the initial sessions
+     */
+    private static void runGateway(String[] configFileNames) {
+        Properties settings = loadConfig(new File(configFileNames[0]).getAbsolutePath());
+        BLABHumanRoboticsGateway gateway = new BLABHumanRoboticsGateway(settings);
+        ClusterNode cluster = clusterNode(gateway, settings);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (cluster != null)
+                cluster.close();
+            gateway.close();
+        }, "gateway-shutdown"));
+        Map<String, Properties> configs = new LinkedHashMap<>();
+        for (String configFileName : configFileNames)
+            configs.put(new File(configFileName).getName(), loadSessionConfig(configFileName));
+        // conversations for all the configured sets of bots start being created before the first session is added
+        configs.values().forEach(gateway::prepareConversations);
+        configs.forEach((name, config) -> addSession(gateway, cluster, name, config));
+        if (cluster != null)
+            cluster.start();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                String[] command = line.strip().split("\\s+", 2);
+                try {
+                    switch (command[0]) {
+                        case "add" -> addSession(gateway, cluster, command[1]);
+                        case "remove" -> {
+                            if (cluster != null ? !cluster.removeRobot(command[1], true) : !gateway.removeSession(command[1]))
+                                logger.warn("No such session: \"{}\"", command[1]);
+                        }
+                        case "close" -> {
+                            if (cluster != null ? !cluster.removeRobot(command[1], false) : !gateway.closeSession(command[1]))
+                                logger.warn("No such session: \"{}\"", command[1]);
+                        }
+                        case "list" -> {
+                            logger.info("Active sessions: {}", gateway.sessionNames());
+                            for (String name : gateway.sessionNames()) {
+                                List<QueueStats> queues = gateway.queueStats(name);
+                                if (queues != null)
+                                    logger.info("Queues of \"{}\": {}", name, queues);
+                            }
+                            if (cluster != null)
+                                logger.info("Fleet: {}; cluster members: {}", cluster.robotNames(), cluster.members());
+                        }
+                        case "" -> {
+                        }
+                        default -> logger.warn("Unknown command: \"{}\"", command[0]);
+                    }
+                } catch (RuntimeException e) {
+                    logger.error("Command failed: \"{}\"", line, e);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not read commands", e);
+        }
+    }
+
     /**
      * Starts the program.
      *
-     * @param args command-line arguments (currently, the only argument is the settings file name, which is "settings.ini" by default)
+     * @param args command-line arguments: the settings file names ("settings.ini" by default), optionally preceded by
+     *             {@value #GATEWAY_OPTION}.
+     *             If more than one file is given, if the option is given or if {@code CLUSTER_DIR} is set in the
+     *             first file, each file describes a robot session and all of them run in the same process
+     *             (see {@link BLABHumanRoboticsGateway}).
+     *             Unless a Log4j configuration file is given, messages are logged at the INFO level.
+     *             When the process is terminated, the current turn is given up to {@code SHUTDOWN_GRACE_PERIOD}
+     *             milliseconds to finish.
      */
     public static void main(String[] args) {
-        Configurator.setLevel(LogManager.getRootLogger(), Level.INFO);
-        File file = new File(args.length >= 1 ? args[0] : "settings.ini");
+        if (System.getProperty("log4j2.configurationFile") == null && System.getProperty("log4j.configurationFile") == null)
+            Configurator.setLevel(LogManager.getRootLogger(), Level.INFO);
+        boolean gateway = args.length >= 1 && GATEWAY_OPTION.equals(args[0]);
+        String[] configFileNames = gateway ? Arrays.copyOfRange(args, 1, args.length) : args;
+        if (configFileNames.length == 0)
+            configFileNames = new String[]{"settings.ini"};
+        File file = new File(configFileNames[0]);
+        if (gateway || configFileNames.length > 1
+                || !loadConfig(file.getAbsolutePath()).getProperty("CLUSTER_DIR", "").isBlank()) {
+            runGateway(configFileNames);
+            return;
+        }
         logger.info("Reading settings from \"{}\".", file.getAbsolutePath());
         Properties config = loadConfig(file.getAbsolutePath());
         logger.debug(config);
-        BLABHumanRoboticsClient client = new BLABHumanRoboticsClient(config);
+        BLABHumanRoboticsClient client = new BLABHumanRoboticsClient(file.getName(), config);
+        long shutdownGracePeriod = Long.parseLong(config.getProperty("SHUTDOWN_GRACE_PERIOD", "10000"));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            client.close();
+            try {
+                client.whenEnded().get(shutdownGracePeriod, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                client.stop();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "client-shutdown"));
         logger.info("Starting conversation...");
         client.start();
     }
@@ -0,0 +1,326 @@
+package br.usp.inova.c4ai.blab;
+
+import br.usp.inova.c4ai.blab.hr.RobotControl;
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import br.usp.inova.c4ai.blab.internal.network.Network;
+import br.usp.inova.c4ai.blab.metrics.ConversationMetrics;
+import br.usp.inova.c4ai.blab.metrics.QueueStats;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Hosts several robot sessions (each one a {@link BLABHumanRoboticsClient}) in the same process.
+ * <p>
+ * All sessions share the same {@link SessionResources}: the same {@link Network} instance (hence the same HTTP
+ * connection pool and dispatcher threads), the same {@link JSONFormat} instance, the same scheduler (which runs the
+ * state transitions of every conversation) and the same pool of threads that send requests to the robots.
+ * Sessions can be added and removed at any time; they can be stopped immediately ({@link #removeSession(String)}) or
+ * after their current turn ({@link #closeSession(String)}). When no session is left, the idle HTTP connections are
+ * closed.
+ */
+public class BLABHumanRoboticsGateway implements Closeable {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Stack size of robot request threads, in bytes.
+     * Robot requests are shallow, so the JVM default (usually 1 MiB) is unnecessary.
+     */
+    private static final long ROBOT_THREAD_STACK_SIZE = 256 * 1024;
+
+    /**
+     * Resources shared by all sessions: the HTTP client, the JSON parser, the scheduler (which runs the state
+     * transitions and timeouts of all sessions), the robot request executor, the metrics and the reply cache.
+     */
+    private final SessionResources resources;
+
+    /**
+     * Active sessions, indexed by name.
+     */
+    private final Map<String, BLABHumanRoboticsClient> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * How long {@link #close()} waits for the sessions to finish their current turns, in milliseconds.
+     */
+    private final long shutdownGracePeriod;
+
+    /**
+     * Initializes an instance without sessions.
+     *
+     * @param settings process-wide settings, such as how metrics are exported and the WebSocket ping interval
+     *                 (see *README.md* for details)
+     */
+    public BLABHumanRoboticsGateway(Properties settings) {
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors() / 2), new GatewayThreadFactory("conversation-", 0));
+        // robot request threads are only held while a request (usually, speech) is in progress
+        ExecutorService robotExecutor = Executors.newCachedThreadPool(new GatewayThreadFactory("robot-", ROBOT_THREAD_STACK_SIZE));
+        this.resources = SessionResources.create(settings, scheduler, robotExecutor);
+        this.shutdownGracePeriod = Long.parseLong(settings.getProperty("SHUTDOWN_GRACE_PERIOD", "10000"));
+    }
+
+    /**
+     * Starts creating conversations in advance for the sessions that will use the given configuration, if
+     * {@code CONVERSATION_POOL_SIZE} is set, so that the first of them does not have to wait for its conversation.
+     * Sessions with the same bots (and BLAB Controller URLs) share the same pool.
+     *
+     * @param config configuration of the sessions (see *README.md* for details)
+     */
+    public void prepareConversations(Properties config) {
+        BLABHumanRoboticsClient.conversationPool(config, resources);
+    }
+
+    /**
+     * Creates and starts a new session.
+     *
+     * @param name   a unique name that identifies the session
+     * @param config configuration of the session (see *README.md* for details)
+     * @throws IllegalArgumentException if a session with the same name already exists
+     */
+    public void addSession(String name, Properties config) {
+        addSession(name, config, BLABHumanRoboticsClient.humanRoboticsControl(config));
+    }
+
+    /**
+     * Creates and starts a new session, which continues a conversation handed off by another session (possibly in
+     * another process) if one is given.
+     *
+     * @param name    a unique name that identifies the session
+     * @param config  configuration of the session (see *README.md* for details)
+     * @param handoff the conversation to be continued, or {@code null} to start a new one
+     * @throws IllegalArgumentException if a session with the same name already exists
+     */
+    public void addSession(String name, Properties config, ConversationHandoff handoff) {
+        addSession(name, config, BLABHumanRoboticsClient.humanRoboticsControl(config), handoff);
+    }
+
+    /**
+     * Creates and starts a new session with a custom robot (such as a simulated one).
+     *
+     * @param name         a unique name that identifies the session
+     * @param config       configuration of the session (see *README.md* for details)
+     * @param robotFactory function that creates the robot, given the function to be called with the user's messages
+     * @throws IllegalArgumentException if a session with the same name already exists
+     */
+    public void addSession(String name, Properties config, Function<Consumer<String>, RobotControl> robotFactory) {
+        addSession(name, config, robotFactory, null);
+    }
+
+    /**
+     * Creates and starts a new session, which continues a conversation handed off by another session (possibly in
+     * another process) if one is given.
+     *
+     * @param name         a unique name that identifies the session
+     * @param config       configuration of the session (see *README.md* for details)
+     * @param robotFactory function that creates the robot, given the function to be called with the user's messages
+     * @param handoff      the conversation to be continued, or {@code null} to start a new one
+     * @throws IllegalArgumentException if a session with the same name already exists
+     */
+    public void addSession(String name, Properties config, Function<Consumer<String>, RobotControl> robotFactory,
+                           ConversationHandoff handoff) {
+        if (sessions.containsKey(name))
+            throw new IllegalArgumentException("Session already exists: " + name);
+        BLABHumanRoboticsClient client = new BLABHumanRoboticsClient(name, config, resources, robotFactory);
+        if (sessions.putIfAbsent(name, client) != null) {
+            client.stop();
+            throw new IllegalArgumentException("Session already exists: " + name);
+        }
+        // sessions may end by themselves (e.g. because the user did not speak)
+        client.whenEnded().thenRun(() -> {
+            if (sessions.remove(name, client))
+                sessionRemoved();
+        });
+        logger.info("Starting session \"{}\"...", name);
+        client.start(handoff);
+    }
+
+    /**
+     * Stops and removes a session immediately, even if a turn is in progress.
+     *
+     * @param name name of the session
+     * @return {@code true} if the session existed, {@code false} otherwise
+     */
+    public boolean removeSession(String name) {
+        BLABHumanRoboticsClient client = sessions.remove(name);
+        if (client == null)
+            return false;
+        logger.info("Stopping session \"{}\"...", name);
+        client.stop();
+        sessionRemoved();
+        return true;
+    }
+
+    /**
+     * Closes a session after its current turn (see {@link BLABHumanRoboticsClient#close()}), and then removes it.
+     * This method does not wait for the session to end.
+     *
+     * @param name name of the session
+     * @return {@code true} if the session existed, {@code false} otherwise
+     */
+    public boolean closeSession(String name) {
+        BLABHumanRoboticsClient client = sessions.get(name);
+        if (client == null)
+            return false;
+        logger.info("Closing session \"{}\" after its current turn...", name);
+        client.close();
+        return true;
+    }
+
+    /**
+     * Closes a session after its current turn, so that its conversation can be continued by another session
+     * (see {@link #addSession(String, Properties, Function, ConversationHandoff)}), and then removes it.
+     *
+     * @param name name of the session
+     * @return a future completed when the session has ended, with its conversation (or {@code null} if it was
+     * never created), or {@code null} if the session does not exist
+     */
+    public CompletableFuture<ConversationHandoff> handOff(String name) {
+        BLABHumanRoboticsClient client = sessions.get(name);
+        if (client == null || !closeSession(name))
+            return null;
+        return client.whenEnded().thenApply(ended -> client.conversation());
+    }
+
+    /**
+     * Returns what another session needs to continue the conversation of a session.
+     *
+     * @param name name of the session
+     * @return the conversation ID and session cookie, or {@code null} if the session does not exist or its
+     * conversation has not been created yet
+     */
+    public ConversationHandoff conversation(String name) {
+        BLABHumanRoboticsClient client = sessions.get(name);
+        return client != null ? client.conversation() : null;
+    }
+
+    /**
+     * Returns the depth, the high-water mark and the overflows of the message queues of a session, so that a session
+     * whose queues fill up can be told apart from the others (the exported metrics aggregate all sessions).
+     *
+     * @param name name of the session
+     * @return the snapshots of the user queue and of the bot queue, or {@code null} if the session does not exist
+     */
+    public List<QueueStats> queueStats(String name) {
+        BLABHumanRoboticsClient client = sessions.get(name);
+        return client != null ? client.queueStats() : null;
+    }
+
+    /**
+     * Returns a future that is completed when a session ends, for any reason (the session is then removed).
+     *
+     * @param name name of the session
+     * @return the future, or {@code null} if the session does not exist
+     */
+    public CompletableFuture<Void> whenEnded(String name) {
+        BLABHumanRoboticsClient client = sessions.get(name);
+        return client != null ? client.whenEnded() : null;
+    }
+
+    /**
+     * Closes the idle HTTP connections if no session is left, instead of keeping them until the keep-alive time.
+     */
+    private void sessionRemoved() {
+        if (sessions.isEmpty())
+            resources.network().evictIdleConnections();
+    }
+
+    /**
+     * Returns the names of the active sessions.
+     *
+     * @return an unmodifiable snapshot of the session names
+     */
+    public Set<String> sessionNames() {
+        return Set.copyOf(sessions.keySet());
+    }
+
+    /**
+     * Returns the latency histograms and counters of all sessions.
+     *
+     * @return the metrics
+     */
+    public ConversationMetrics metrics() {
+        return resources.metrics();
+    }
+
+    /**
+     * Closes all sessions and releases the threads and connections.
+     * <p>
+     * Sessions in the middle of a turn are given up to {@code SHUTDOWN_GRACE_PERIOD} milliseconds to finish it;
+     * the remaining ones are then stopped.
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<Void>> ending = new ArrayList<>();
+        for (String name : sessionNames()) {
+            BLABHumanRoboticsClient client = sessions.get(name);
+            if (client != null && closeSession(name))
+                ending.add(client.whenEnded());
+        }
+        try {
+            CompletableFuture.allOf(ending.toArray(CompletableFuture[]::new)).get(shutdownGracePeriod, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Sessions did not finish their turns within {}ms: {}", Unbox.box(shutdownGracePeriod), sessionNames());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Could not close sessions", e);
+        }
+        for (String name : sessionNames())
+            removeSession(name);
+        resources.shutdownNow();
+    }
+
+    /**
+     * Creates named threads with a given stack size.
+     */
+    private static final class GatewayThreadFactory implements ThreadFactory {
+
+        /**
+         * Number of threads created so far.
+         */
+        private final AtomicInteger count = new AtomicInteger();
+
+        /**
+         * Prefix of the thread names.
+         */
+        private final String prefix;
+
+        /**
+         * Stack size in bytes, or 0 to use the JVM default.
+         */
+        private final long stackSize;
+
+        private GatewayThreadFactory(String prefix, long stackSize) {
+            this.prefix = prefix;
+            this.stackSize = stackSize;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            return new Thread(null, r, prefix + count.incrementAndGet(), stackSize);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package br.usp.inova.c4ai.blab;
+
+/**
+ * What a session needs to continue a conversation started by another session (possibly in another process):
+ * the conversation ID and the session cookie that authenticates its WebSocket connection.
+ *
+ * @param conversationId ID of the conversation in BLAB Controller
+ * @param sessionId      value of the {@code sessionid} cookie
+ */
+public record ConversationHandoff(String conversationId, String sessionId) {
+}
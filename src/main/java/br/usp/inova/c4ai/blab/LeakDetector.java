@@ -0,0 +1,191 @@
+package br.usp.inova.c4ai.blab;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.ref.Cleaner;
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reports resources (such as sessions) that became unreachable without being closed.
+ * <p>
+ * Each tracked resource is registered with a {@link Cleaner}. Closing the resource unregisters it; if the garbage
+ * collector finds it before that, an error is logged (in {@link Mode#PARANOID} mode, with the stack trace of the
+ * place where it was created) and the leak is counted. Since the check runs only when the garbage collector runs,
+ * leaks are reported with a delay, and resources that remain reachable (e.g. referenced by a pending task) are not
+ * reported at all.
+ */
+final class LeakDetector {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Cleaner shared by all instances (it owns a single daemon thread).
+     */
+    private static final Cleaner cleaner = Cleaner.create(r -> {
+        Thread thread = new Thread(r, "leak-detector");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Whether and how resources are tracked.
+     */
+    private final Mode mode;
+
+    /**
+     * Number of resources that became unreachable without being closed.
+     */
+    private final LongAdder leaks = new LongAdder();
+
+    /**
+     * Initializes an instance.
+     *
+     * @param mode whether and how resources are tracked
+     */
+    LeakDetector(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Starts tracking a resource.
+     *
+     * @param resource    the resource
+     * @param description description of the resource, used in the error message (it must not reference the
+     *                    resource)
+     * @return a tracker, which must be closed when the resource is closed
+     */
+    Tracker track(Object resource, String description) {
+        if (mode == Mode.DISABLED)
+            return Tracker.NONE;
+        LeakCheck check = new LeakCheck(description,
+                mode == Mode.PARANOID ? new Throwable(description + " was created here") : null, leaks);
+        return new Tracker(check, cleaner.register(resource, check));
+    }
+
+    /**
+     * Returns the number of resources that became unreachable without being closed.
+     *
+     * @return the number of leaks
+     */
+    long leaks() {
+        return leaks.sum();
+    }
+
+    /**
+     * Keeps track of a resource until it is closed.
+     */
+    static final class Tracker {
+
+        /**
+         * A tracker that does nothing (used when leak detection is disabled).
+         */
+        private static final Tracker NONE = new Tracker(null, null);
+
+        /**
+         * What to do when the resource becomes unreachable, or {@code null} if it is not tracked.
+         */
+        private final LeakCheck check;
+
+        /**
+         * Registration of the resource with the cleaner, or {@code null} if it is not tracked.
+         */
+        private final Cleaner.Cleanable cleanable;
+
+        private Tracker(LeakCheck check, Cleaner.Cleanable cleanable) {
+            this.check = check;
+            this.cleanable = cleanable;
+        }
+
+        /**
+         * Stops tracking the resource, which has been closed. Calling this method more than once has no effect.
+         */
+        void close() {
+            if (check == null)
+                return;
+            check.closed = true;
+            cleanable.clean();
+        }
+    }
+
+    /**
+     * Reports a resource that became unreachable, unless it has been closed.
+     * It must not reference the resource, otherwise the resource never becomes unreachable.
+     */
+    private static final class LeakCheck implements Runnable {
+
+        /**
+         * Description of the resource.
+         */
+        private final String description;
+
+        /**
+         * Where the resource was created, or {@code null} if unknown.
+         */
+        private final Throwable createdAt;
+
+        /**
+         * Counter of leaks.
+         */
+        private final LongAdder leaks;
+
+        /**
+         * Whether the resource has been closed.
+         */
+        private volatile boolean closed;
+
+        private LeakCheck(String description, Throwable createdAt, LongAdder leaks) {
+            this.description = description;
+            this.createdAt = createdAt;
+            this.leaks = leaks;
+        }
+
+        @Override
+        public void run() {
+            if (closed)
+                return;
+            leaks.increment();
+            if (createdAt != null)
+                logger.error("{} was never closed and has been garbage-collected", description, createdAt);
+            else
+                logger.error("{} was never closed and has been garbage-collected (set LEAK_DETECTION=paranoid to "
+                        + "find out where it was created)", description);
+        }
+    }
+
+    /**
+     * Determines whether and how resources are tracked.
+     */
+    enum Mode {
+        /**
+         * Resources are not tracked.
+         */
+        DISABLED,
+
+        /**
+         * Leaks are reported without the place where the resource was created.
+         */
+        SIMPLE,
+
+        /**
+         * Leaks are reported with the stack trace of the place where the resource was created (which is recorded
+         * for every resource).
+         */
+        PARANOID;
+
+        /**
+         * Returns the mode with a given name.
+         *
+         * @param name the name, in any case (e.g. "simple")
+         * @return the mode
+         * @throws IllegalArgumentException if there is no mode with that name
+         */
+        static Mode parse(String name) {
+            return valueOf(name.strip().toUpperCase(Locale.ROOT));
+        }
+    }
+}
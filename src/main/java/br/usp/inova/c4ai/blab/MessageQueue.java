@@ -0,0 +1,309 @@
+package br.usp.inova.c4ai.blab;
+
+import br.usp.inova.c4ai.blab.metrics.QueueMetrics;
+import br.usp.inova.c4ai.blab.metrics.QueueStats;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BinaryOperator;
+
+/**
+ * Bounded queue of messages backed by a ring buffer.
+ * <p>
+ * Messages can be added by any number of threads and are consumed by a single thread at a time (the state machine
+ * of a conversation). Adding and removing messages is lock-free and, unless messages are coalesced, does not
+ * allocate memory: each slot has a sequence number that tells producers and the consumer whether it is free or
+ * filled (as in Dmitry Vyukov's bounded queue), so that a thread never waits for another one to finish.
+ * <p>
+ * When the queue is full, its {@link OverflowPolicy} decides which message is lost, or whether the new messages
+ * are merged into a single one. Messages added by the same thread are always removed in the order they were added.
+ */
+final class MessageQueue {
+
+    /**
+     * Elements of the ring buffer.
+     */
+    private final AtomicReferenceArray<String> messages;
+
+    /**
+     * Sequence number of each slot: equal to the position of the next message to be written in it when it is free,
+     * or to that position plus one when it is filled.
+     */
+    private final AtomicLongArray sequences;
+
+    /**
+     * Mask that converts a position into a slot index (the capacity is a power of two).
+     */
+    private final int mask;
+
+    /**
+     * Position of the next message to be added.
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Position of the next message to be removed.
+     */
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * What to do when the queue is full.
+     */
+    private final OverflowPolicy policy;
+
+    /**
+     * Function that appends a message to the ones that did not fit in the ring buffer.
+     */
+    private final BinaryOperator<String> coalescer;
+
+    /**
+     * Messages that did not fit in the ring buffer, merged into a single one, or {@code null} if there are none
+     * (used only by {@link OverflowPolicy#COALESCE}).
+     * It is removed after the messages in the ring buffer, and new messages are appended to it while it exists,
+     * so that the order of the messages is preserved.
+     */
+    private final AtomicReference<String> overflow = new AtomicReference<>();
+
+    /**
+     * Metrics shared by the queues of the same kind (possibly of many conversations).
+     */
+    private final QueueMetrics metrics;
+
+    /**
+     * Highest number of messages observed in this queue.
+     */
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * Number of messages discarded because this queue was full.
+     */
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    /**
+     * Number of messages merged into other messages because this queue was full.
+     */
+    private final AtomicLong coalescedMessages = new AtomicLong();
+
+    /**
+     * Initializes an empty queue.
+     *
+     * @param capacity  maximum number of messages (rounded up to a power of two)
+     * @param policy    what to do when the queue is full
+     * @param separator separator placed between messages that are coalesced
+     * @param metrics   metrics shared by the queues of the same kind
+     */
+    MessageQueue(int capacity, OverflowPolicy policy, String separator, QueueMetrics metrics) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("Invalid queue capacity: " + capacity);
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.messages = new AtomicReferenceArray<>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+        this.mask = size - 1;
+        this.policy = policy;
+        this.coalescer = (queued, message) -> queued == null ? message : queued + separator + message;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a message, applying the overflow policy if the queue is full.
+     *
+     * @param message the message
+     * @return {@code false} if the message was discarded, {@code true} if it was added (possibly merged with the
+     * queued messages)
+     */
+    boolean add(String message) {
+        if (policy == OverflowPolicy.COALESCE && overflow.get() != null)
+            return coalesce(message);
+        if (offer(message))
+            return true;
+        switch (policy) {
+            case DROP_NEWEST -> {
+                dropped();
+                return false;
+            }
+            case DROP_OLDEST -> {
+                do {
+                    if (pollRing() != null)
+                        dropped();
+                } while (!offer(message));
+                return true;
+            }
+            default -> {
+                return coalesce(message);
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest message.
+     * <p>
+     * This method must not be called by more than one thread at the same time. It may return {@code null} while
+     * another thread is adding a message; that thread is expected to notify the consumer afterwards.
+     *
+     * @return the message, or {@code null} if the queue is empty
+     */
+    String poll() {
+        String message = pollRing();
+        // a slot claimed by a producer that has not written its message yet hides the messages after it
+        if (message != null || policy != OverflowPolicy.COALESCE || overflow.get() == null || tail.get() != head.get())
+            return message;
+        message = overflow.getAndSet(null);
+        if (message != null)
+            metrics.addDepth(-1);
+        return message;
+    }
+
+    /**
+     * Removes the oldest message from the ring buffer.
+     *
+     * @return the message, or {@code null} if the ring buffer is empty
+     */
+    private String pollRing() {
+        long position = head.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - (position + 1);
+            if (difference == 0) {
+                if (head.compareAndSet(position, position + 1)) {
+                    String message = messages.getPlain(index);
+                    messages.setPlain(index, null);
+                    sequences.set(index, position + mask + 1);
+                    metrics.addDepth(-1);
+                    return message;
+                }
+                position = head.get();
+            } else if (difference < 0) {
+                return null;
+            } else {
+                position = head.get();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of messages in the queue.
+     * The value may be outdated if other threads are adding or removing messages.
+     *
+     * @return the number of messages
+     */
+    int size() {
+        long h = head.get();
+        int size = (int) Math.max(0, Math.min(tail.get() - h, mask + 1));
+        return overflow.get() != null ? size + 1 : size;
+    }
+
+    /**
+     * Returns the depth, the high-water mark and the overflows of this queue.
+     * The values may be outdated if other threads are adding or removing messages.
+     *
+     * @param name name of the queue in the snapshot
+     * @return the snapshot
+     */
+    QueueStats stats(String name) {
+        return new QueueStats(name, size(), highWaterMark.get(), droppedMessages.get(), coalescedMessages.get());
+    }
+
+    /**
+     * Adds a message if there is a free slot.
+     *
+     * @param message the message
+     * @return whether the message was added
+     */
+    private boolean offer(String message) {
+        long position = tail.get();
+        while (true) {
+            int index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    messages.setPlain(index, message);
+                    sequences.set(index, position + 1);
+                    metrics.addDepth(1);
+                    updateHighWaterMark(position + 1 - head.get());
+                    return true;
+                }
+                position = tail.get();
+            } else if (difference < 0) {
+                return false;
+            } else {
+                position = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Appends a message to the ones that did not fit in the ring buffer.
+     *
+     * @param message the new message
+     * @return {@code true}
+     */
+    private boolean coalesce(String message) {
+        if (overflow.getAndAccumulate(message, coalescer) == null) {
+            metrics.addDepth(1);
+            updateHighWaterMark(mask + 2);
+        } else {
+            coalescedMessages.incrementAndGet();
+            metrics.messagesCoalesced(1);
+        }
+        return true;
+    }
+
+    /**
+     * Updates the high-water marks of this queue and of the queues of the same kind with the current size.
+     *
+     * @param size number of messages in the queue
+     */
+    private void updateHighWaterMark(long size) {
+        if (size > highWaterMark.get()) {
+            highWaterMark.accumulateAndGet(size, Math::max);
+            metrics.updateHighWaterMark(size);
+        }
+    }
+
+    /**
+     * Counts a discarded message.
+     */
+    private void dropped() {
+        droppedMessages.incrementAndGet();
+        metrics.messageDropped();
+    }
+
+    /**
+     * Determines what happens when a message is added to a full queue.
+     */
+    enum OverflowPolicy {
+        /**
+         * The oldest queued message is discarded.
+         */
+        DROP_OLDEST,
+
+        /**
+         * The new message is discarded.
+         */
+        DROP_NEWEST,
+
+        /**
+         * The new message is appended to a single message that holds all the messages that did not fit, which is
+         * removed after the ones in the queue.
+         */
+        COALESCE;
+
+        /**
+         * Returns the policy with a given name.
+         *
+         * @param name the name, in any case (e.g. "drop_oldest")
+         * @return the policy
+         * @throws IllegalArgumentException if there is no policy with that name
+         */
+        static OverflowPolicy parse(String name) {
+            return valueOf(name.strip().toUpperCase(Locale.ROOT));
+        }
+    }
+}
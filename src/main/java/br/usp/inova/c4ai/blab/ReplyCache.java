@@ -0,0 +1,131 @@
+package br.usp.inova.c4ai.blab;
+
+import java.text.Normalizer;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Bounded cache of bot replies, indexed by the normalized user message and the set of bots in the conversation.
+ * <p>
+ * The least recently used entry is evicted when the cache is full, and entries expire after a fixed time.
+ * Instances are thread-safe and can be shared by many conversations.
+ */
+class ReplyCache {
+
+    /**
+     * Maximum number of entries.
+     */
+    private final int capacity;
+
+    /**
+     * How long an entry is valid, in nanoseconds.
+     */
+    private final long ttlNanos;
+
+    /**
+     * Cached entries, from the least recently used to the most recently used.
+     */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /**
+     * Initializes an empty cache.
+     *
+     * @param capacity maximum number of entries
+     * @param ttl      how long an entry is valid, in milliseconds
+     */
+    ReplyCache(int capacity, long ttl) {
+        this.capacity = capacity;
+        this.ttlNanos = ttl * 1_000_000;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > ReplyCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Creates the key of a user message.
+     * <p>
+     * Messages that only differ in case, accents, punctuation or spacing have the same key.
+     *
+     * @param bots     names of the bots in the conversation
+     * @param userText the user message
+     * @return the key
+     */
+    static Key key(Collection<String> bots, String userText) {
+        return new Key(String.join("\n", new TreeSet<>(bots)), normalize(userText));
+    }
+
+    /**
+     * Normalizes a user message.
+     *
+     * @param text the message
+     * @return the message in lower case, without diacritics and punctuation, with single spaces between words
+     */
+    static String normalize(String text) {
+        String decomposed = Normalizer.normalize(text, Normalizer.Form.NFKD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < decomposed.length(); i++) {
+            char c = decomposed.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                if (pendingSpace && !sb.isEmpty())
+                    sb.append(' ');
+                pendingSpace = false;
+                sb.append(c);
+            } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+                pendingSpace = true;
+            }
+        }
+        return sb.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Returns the cached reply to a message.
+     *
+     * @param key the key of the message
+     * @return the reply, or {@code null} if it is not cached or has expired
+     */
+    synchronized String get(Key key) {
+        Entry entry = entries.get(key);
+        if (entry == null)
+            return null;
+        if (System.nanoTime() - entry.createdAt() > ttlNanos) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.reply();
+    }
+
+    /**
+     * Stores the reply to a message.
+     *
+     * @param key   the key of the message
+     * @param reply the reply
+     */
+    synchronized void put(Key key, String reply) {
+        entries.put(key, new Entry(reply, System.nanoTime()));
+    }
+
+    /**
+     * Identifies a user message.
+     *
+     * @param bots the sorted bot names, separated by newline characters
+     * @param text the normalized user message
+     */
+    record Key(String bots, String text) {
+    }
+
+    /**
+     * Represents a cached reply.
+     *
+     * @param reply     the reply
+     * @param createdAt when the reply was stored ({@link System#nanoTime()})
+     */
+    private record Entry(String reply, long createdAt) {
+    }
+}
@@ -0,0 +1,370 @@
+package br.usp.inova.c4ai.blab;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides when the reply of the bots to a user message is complete.
+ * <p>
+ * The messages of each bot are counted as they arrive. The reply is complete as soon as every bot has sent as many
+ * messages as it usually sends in a reply (learned from the previous turns). Otherwise, the reply is considered
+ * complete when a bot that has not finished does not send a message within a deadline learned from the
+ * previous turns:
+ * <ul>
+ *     <li>for a bot that has not replied yet, how long after the first message of the turn it usually starts to
+ *     reply;</li>
+ *     <li>for a bot that has replied partially (or whose usual number of messages is not known yet), the usual
+ *     gap between two of its messages.</li>
+ * </ul>
+ * Each deadline is an estimate of the mean plus four times the mean deviation (as in TCP retransmission timeouts),
+ * and is never shorter than the initial gap. Messages whose sender is unknown (e.g. if BLAB Controller does not
+ * identify it) are handled as before: the reply is complete when no message arrives within the initial gap.
+ * <p>
+ * Messages that arrive after the reply was considered complete, but before the next user message is sent, are
+ * still taken into account to learn the deadlines, so that slow bots are not cut off again.
+ * <p>
+ * The replies that are abandoned (because the user message was answered from the cache, or because the user
+ * interrupted them) are not learned from, but their messages are counted apart, so that the same deadlines tell
+ * when the rest of such a reply can no longer arrive and the following messages belong to the next reply.
+ * <p>
+ * Instances are thread-safe: messages are counted as they arrive, while the conversation state machine asks whether
+ * the reply is complete.
+ */
+final class ReplyTracker {
+
+    /**
+     * Weight of a new sample in the estimates of the mean.
+     */
+    private static final double MEAN_WEIGHT = 0.125;
+
+    /**
+     * Weight of a new sample in the estimates of the deviation.
+     */
+    private static final double DEVIATION_WEIGHT = 0.25;
+
+    /**
+     * Shortest deadline, in nanoseconds, used while the usual gaps are unknown.
+     */
+    private final long initialGap;
+
+    /**
+     * Longest gap between messages of the same bot, in nanoseconds.
+     */
+    private final long maxGap;
+
+    /**
+     * Longest time after the user message until the bots start to reply, in nanoseconds.
+     */
+    private final long maxLag;
+
+    /**
+     * Statistics of each bot, indexed by name.
+     */
+    private final Map<String, BotStats> bots = new LinkedHashMap<>();
+
+    /**
+     * Messages of the current turn, or {@code null} if no user message has been sent since the last turn was
+     * abandoned (messages that arrive before the first user message, such as welcome messages, are ignored).
+     */
+    private Turn turn;
+
+    /**
+     * Messages of the abandoned reply that is being discarded, or {@code null} if none is.
+     */
+    private Turn discarded;
+
+    /**
+     * When the user messages of the further abandoned replies were sent (from {@link System#nanoTime()}), in the
+     * order they were abandoned.
+     */
+    private final Deque<Long> abandoned = new ArrayDeque<>();
+
+    /**
+     * Initializes an instance.
+     *
+     * @param botNames   names of the bots in the conversation
+     * @param initialGap shortest deadline, used while the usual gaps are unknown, in milliseconds
+     * @param maxGap     longest gap between messages of the same bot, in milliseconds
+     * @param maxLag     longest time after the user message until the bots start to reply, in milliseconds
+     */
+    ReplyTracker(Collection<String> botNames, long initialGap, long maxGap, long maxLag) {
+        this.initialGap = initialGap * 1_000_000;
+        this.maxGap = Math.max(initialGap, maxGap) * 1_000_000;
+        this.maxLag = Math.max(initialGap, maxLag) * 1_000_000;
+        for (String name : botNames)
+            bots.put(name, new BotStats(bots.size()));
+    }
+
+    /**
+     * Starts a new turn, after learning from the messages of the previous one.
+     *
+     * @param now when the user message was sent (from {@link System#nanoTime()})
+     */
+    synchronized void startTurn(long now) {
+        if (turn != null && turn.firstMessageAt >= 0) {
+            for (BotStats stats : bots.values()) {
+                if (turn.counts[stats.index] > 0) {
+                    stats.messages.add(turn.counts[stats.index]);
+                    stats.lag.add(turn.firstAt[stats.index] - turn.firstMessageAt);
+                }
+            }
+        }
+        turn = new Turn(now);
+    }
+
+    /**
+     * Abandons the reply of the current turn (because it was answered from the cache or interrupted by the user),
+     * without learning from it. Its messages, including the ones counted so far, are counted apart until
+     * {@link #finishDiscarding()} is called; if another abandoned reply is still being discarded, they are counted
+     * after it is finished.
+     */
+    synchronized void abandonTurn() {
+        if (turn == null)
+            return;
+        if (discarded == null)
+            discarded = turn;
+        else
+            abandoned.add(turn.startedAt);
+        turn = null;
+    }
+
+    /**
+     * Counts a bot message.
+     * While an abandoned reply is being discarded, the message is counted as part of it.
+     *
+     * @param bot name of the bot, or {@code null} if unknown
+     * @param now when the message arrived (from {@link System#nanoTime()})
+     */
+    synchronized void messageReceived(String bot, long now) {
+        BotStats stats = bot != null ? bots.get(bot) : null;
+        if (discarded != null) {
+            discarded.add(stats, now);
+            return;
+        }
+        if (turn == null)
+            return;
+        if (stats != null && turn.counts[stats.index] > 0)
+            stats.gap.add(now - turn.lastAt[stats.index]);
+        turn.add(stats, now);
+    }
+
+    /**
+     * Returns how long to wait for further messages of the current turn.
+     *
+     * @param now the current time (from {@link System#nanoTime()})
+     * @return the time to wait in nanoseconds, or a value that is not positive if the reply is complete
+     */
+    synchronized long remainingWait(long now) {
+        return turn != null ? turn.remainingWait(now) : initialGap;
+    }
+
+    /**
+     * Returns how long to wait for further messages of the abandoned reply that is being discarded.
+     *
+     * @param now the current time (from {@link System#nanoTime()})
+     * @return the time to wait in nanoseconds, or a value that is not positive if the reply is complete (or if no
+     * reply is being discarded)
+     */
+    synchronized long discardWait(long now) {
+        return discarded != null ? discarded.remainingWait(now) : 0;
+    }
+
+    /**
+     * Stops counting the messages of the abandoned reply that is being discarded, and starts counting the ones of
+     * the next abandoned reply, if any.
+     */
+    synchronized void finishDiscarding() {
+        Long startedAt = abandoned.poll();
+        discarded = startedAt != null ? new Turn(startedAt) : null;
+    }
+
+    /**
+     * Messages received in reply to a user message.
+     */
+    private final class Turn {
+
+        /**
+         * When the user message was sent (from {@link System#nanoTime()}).
+         */
+        private final long startedAt;
+
+        /**
+         * Number of messages of each bot, by {@link BotStats#index}.
+         */
+        private final int[] counts = new int[bots.size()];
+
+        /**
+         * When the first message of each bot arrived, by {@link BotStats#index}.
+         */
+        private final long[] firstAt = new long[bots.size()];
+
+        /**
+         * When the last message of each bot arrived, by {@link BotStats#index}.
+         */
+        private final long[] lastAt = new long[bots.size()];
+
+        /**
+         * When the first message arrived (from {@link System#nanoTime()}), or -1 if no message has arrived.
+         */
+        private long firstMessageAt = -1;
+
+        /**
+         * When the last message arrived (from {@link System#nanoTime()}).
+         */
+        private long lastMessageAt;
+
+        /**
+         * Whether a message of an unknown sender arrived.
+         */
+        private boolean unknownSender;
+
+        /**
+         * Initializes a turn without messages.
+         *
+         * @param startedAt when the user message was sent (from {@link System#nanoTime()})
+         */
+        Turn(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Counts a message.
+         *
+         * @param stats statistics of the bot that sent it, or {@code null} if the sender is unknown
+         * @param now   when the message arrived (from {@link System#nanoTime()})
+         */
+        void add(BotStats stats, long now) {
+            if (firstMessageAt < 0)
+                firstMessageAt = now;
+            lastMessageAt = now;
+            if (stats == null) {
+                unknownSender = true;
+                return;
+            }
+            if (counts[stats.index]++ == 0)
+                firstAt[stats.index] = now;
+            lastAt[stats.index] = now;
+        }
+
+        /**
+         * Returns how long to wait for further messages.
+         *
+         * @param now the current time (from {@link System#nanoTime()})
+         * @return the time to wait in nanoseconds, or a value that is not positive if the reply is complete
+         */
+        long remainingWait(long now) {
+            // messages consumed before any message of this turn arrived belong to the previous reply
+            if (firstMessageAt < 0)
+                return startedAt + maxLag - now;
+            long deadline = unknownSender ? lastMessageAt + initialGap : Long.MIN_VALUE;
+            for (BotStats stats : bots.values()) {
+                int count = counts[stats.index];
+                if (count == 0)
+                    deadline = Math.max(deadline, firstMessageAt + stats.lag.deadline(initialGap, maxLag));
+                else if (!stats.messages.known() || count < stats.messages.expectedCount())
+                    deadline = Math.max(deadline, lastAt[stats.index] + stats.gap.deadline(initialGap, maxGap));
+            }
+            return deadline == Long.MIN_VALUE ? 0 : deadline - now;
+        }
+    }
+
+    /**
+     * What is known about the replies of a bot.
+     */
+    private static final class BotStats {
+
+        /**
+         * Number of messages in a reply.
+         */
+        private final Estimate messages = new Estimate();
+
+        /**
+         * Time between the first message of a turn and the first message of this bot, in nanoseconds.
+         */
+        private final Estimate lag = new Estimate();
+
+        /**
+         * Time between consecutive messages of this bot, in nanoseconds.
+         */
+        private final Estimate gap = new Estimate();
+
+        /**
+         * Position of the bot in the per-bot arrays of a {@link Turn}.
+         */
+        private final int index;
+
+        /**
+         * Initializes the statistics of a bot.
+         *
+         * @param index position of the bot in the per-bot arrays of a {@link Turn}
+         */
+        BotStats(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Exponentially weighted moving averages of a value and of its deviation.
+     */
+    private static final class Estimate {
+
+        /**
+         * Estimate of the mean, or {@link Double#NaN} if there are no samples yet.
+         */
+        private double mean = Double.NaN;
+
+        /**
+         * Estimate of the mean deviation.
+         */
+        private double deviation;
+
+        /**
+         * Adds a sample.
+         *
+         * @param sample the sample
+         */
+        void add(double sample) {
+            if (Double.isNaN(mean)) {
+                mean = sample;
+                deviation = sample / 2;
+            } else {
+                deviation += DEVIATION_WEIGHT * (Math.abs(sample - mean) - deviation);
+                mean += MEAN_WEIGHT * (sample - mean);
+            }
+        }
+
+        /**
+         * Returns the time after which a sample is unlikely.
+         *
+         * @param min value returned while there are no samples, and minimum value
+         * @param max maximum value
+         * @return the mean plus four times the deviation, limited to the given range
+         */
+        long deadline(long min, long max) {
+            if (Double.isNaN(mean))
+                return min;
+            return Math.min(max, Math.max(min, (long) (mean + 4 * deviation)));
+        }
+
+        /**
+         * Returns whether there are samples.
+         *
+         * @return {@code true} if at least one sample has been added
+         */
+        boolean known() {
+            return !Double.isNaN(mean);
+        }
+
+        /**
+         * Returns the rounded mean, as a number of messages.
+         *
+         * @return the expected number of messages (at least one)
+         */
+        int expectedCount() {
+            return Double.isNaN(mean) ? 1 : Math.max(1, (int) Math.round(mean));
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package br.usp.inova.c4ai.blab;
+
+import br.usp.inova.c4ai.blab.blab.BLABCodecs;
+import br.usp.inova.c4ai.blab.blab.ConversationPools;
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import br.usp.inova.c4ai.blab.internal.network.CallTimings;
+import br.usp.inova.c4ai.blab.internal.network.Network;
+import br.usp.inova.c4ai.blab.internal.network.NetworkSettings;
+import br.usp.inova.c4ai.blab.metrics.ConversationMetrics;
+import br.usp.inova.c4ai.blab.metrics.HttpPhase;
+import br.usp.inova.c4ai.blab.metrics.MetricsExporter;
+import br.usp.inova.c4ai.blab.transcript.TranscriptWriter;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Resources that can be shared by many conversations in the same process.
+ *
+ * @param network           HTTP and WebSocket handler
+ * @param json              JSON parser and serializer
+ * @param scheduler         scheduler that runs the state transitions and the timeouts
+ * @param robotExecutor     executor that runs requests to the robots (which may block, see
+ *                          {@link BLABHumanRoboticsClient})
+ * @param metrics           latency histograms and counters
+ * @param replyCache        cache of bot replies, or {@code null} if replies are not cached
+ * @param transcript        writer of the transcripts, or {@code null} if transcripts are not recorded
+ * @param conversationPools pools of conversations created in advance, or {@code null} if conversations are
+ *                          always created on demand
+ * @param leakDetector      reports sessions that were never closed
+ * @param metricsExport     where the metrics are exported (closed when the resources are shut down)
+ */
+record SessionResources(Network network, JSONFormat json, ScheduledExecutorService scheduler,
+                        ExecutorService robotExecutor, ConversationMetrics metrics, ReplyCache replyCache,
+                        TranscriptWriter transcript, ConversationPools conversationPools,
+                        LeakDetector leakDetector, MetricsExporter.Export metricsExport) {
+
+    /**
+     * Creates the resources according to process-wide settings.
+     *
+     * @param settings      process-wide settings (see *README.md* for details)
+     * @param scheduler     scheduler that runs the state transitions and the timeouts
+     * @param robotExecutor executor that runs requests to the robots
+     * @return the resources
+     */
+    static SessionResources create(Properties settings, ScheduledExecutorService scheduler, ExecutorService robotExecutor) {
+        ConversationMetrics metrics = new ConversationMetrics();
+        Network network = new Network(networkSettings(settings), timings -> recordCallTimings(metrics, timings));
+        metrics.addGauge("http_connections", "Connections in the HTTP connection pool.", () -> network.stats().connections());
+        metrics.addGauge("http_idle_connections", "Idle connections in the HTTP connection pool.", () -> network.stats().idleConnections());
+        metrics.addGauge("http_running_calls", "HTTP calls in progress, including open WebSockets.", () -> network.stats().runningCalls());
+        metrics.addGauge("http_queued_calls", "HTTP calls waiting for the limits of simultaneous calls.", () -> network.stats().queuedCalls());
+        TranscriptWriter transcript = transcriptWriter(settings);
+        if (transcript != null) {
+            metrics.addGauge("transcript_queued_records", "Transcript records waiting to be written.", transcript::queuedRecords);
+            metrics.addCounter("transcript_written_records", "Transcript records written since the process started.", transcript::writtenRecords);
+            metrics.addCounter("transcript_dropped_records", "Transcript records dropped because the queue was full or could not be written.", transcript::droppedRecords);
+        }
+        JSONFormat json = new JSONFormat(BLABCodecs.FACTORY);
+        int poolSize = Integer.parseInt(settings.getProperty("CONVERSATION_POOL_SIZE", "0"));
+        ConversationPools conversationPools = poolSize > 0 ? new ConversationPools(network, json, poolSize,
+                Long.parseLong(settings.getProperty("CONVERSATION_POOL_MAX_IDLE", "300000")), scheduler) : null;
+        if (conversationPools != null) {
+            metrics.addGauge("conversation_pool_ready", "Conversations created in advance and ready to be taken.", conversationPools::readyConversations);
+            metrics.addCounter("conversation_pool_hits", "Sessions that took a conversation created in advance.", conversationPools::hits);
+            metrics.addCounter("conversation_pool_misses", "Sessions that found no conversation ready in the pool.", conversationPools::misses);
+        }
+        LeakDetector leakDetector = new LeakDetector(LeakDetector.Mode.parse(settings.getProperty("LEAK_DETECTION", "simple")));
+        metrics.addCounter("leaked_sessions", "Sessions that were garbage-collected without being closed.", leakDetector::leaks);
+        MetricsExporter.Export metricsExport = MetricsExporter.export(metrics, settings);
+        int replyCacheSize = Integer.parseInt(settings.getProperty("REPLY_CACHE_SIZE", "0"));
+        return new SessionResources(
+                network,
+                json,
+                scheduler,
+                robotExecutor,
+                metrics,
+                replyCacheSize > 0 ? new ReplyCache(replyCacheSize, Long.parseLong(settings.getProperty("REPLY_CACHE_TTL", "3600000"))) : null,
+                transcript,
+                conversationPools,
+                leakDetector,
+                metricsExport
+        );
+    }
+
+    /**
+     * Creates the writer of the transcripts, if they are enabled.
+     *
+     * @param settings process-wide settings (see *README.md* for details)
+     * @return the writer, or {@code null} if {@code TRANSCRIPT_DIR} is not set
+     */
+    private static TranscriptWriter transcriptWriter(Properties settings) {
+        String directory = settings.getProperty("TRANSCRIPT_DIR", "");
+        if (directory.isBlank())
+            return null;
+        try {
+            return new TranscriptWriter(
+                    Path.of(directory.strip()),
+                    Integer.parseInt(settings.getProperty("TRANSCRIPT_SEGMENT_SIZE", "16777216")),
+                    Long.parseLong(settings.getProperty("TRANSCRIPT_RETENTION", "2592000000")),
+                    Long.parseLong(settings.getProperty("TRANSCRIPT_MAX_SIZE", "0")),
+                    Integer.parseInt(settings.getProperty("TRANSCRIPT_QUEUE_SIZE", "4096")));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create the transcript directory " + directory, e);
+        }
+    }
+
+    /**
+     * Reads the network settings.
+     *
+     * @param settings process-wide settings (see *README.md* for details)
+     * @return the network settings
+     */
+    static NetworkSettings networkSettings(Properties settings) {
+        int maxRequests = Integer.parseInt(settings.getProperty("HTTP_MAX_REQUESTS", "0"));
+        int maxRequestsPerHost = Integer.parseInt(settings.getProperty("HTTP_MAX_REQUESTS_PER_HOST", "0"));
+        return new NetworkSettings(
+                Integer.parseInt(settings.getProperty("HTTP_MAX_IDLE_CONNECTIONS", "5")),
+                Long.parseLong(settings.getProperty("HTTP_KEEP_ALIVE", "300000")),
+                maxRequests > 0 ? maxRequests : Integer.MAX_VALUE,
+                maxRequestsPerHost > 0 ? maxRequestsPerHost : Integer.MAX_VALUE,
+                Long.parseLong(settings.getProperty("HTTP_CONNECT_TIMEOUT", "10000")),
+                Long.parseLong(settings.getProperty("HTTP_READ_TIMEOUT", "10000")),
+                Long.parseLong(settings.getProperty("HTTP_WRITE_TIMEOUT", "10000")),
+                Set.of("true", "yes", "1").contains(settings.getProperty("HTTP2", "true").strip().toLowerCase(Locale.ROOT)),
+                Long.parseLong(settings.getProperty("BLAB_WS_PING_INTERVAL", "10000")),
+                Long.parseLong(settings.getProperty("BLAB_WS_COMPRESSION_THRESHOLD", "1024"))
+        );
+    }
+
+    /**
+     * Records the durations of the phases of an HTTP call.
+     *
+     * @param metrics the metrics
+     * @param timings the durations
+     */
+    private static void recordCallTimings(ConversationMetrics metrics, CallTimings timings) {
+        if (timings.failed())
+            metrics.failedHttpCall();
+        if (timings.dns() >= 0)
+            metrics.record(HttpPhase.DNS, timings.dns());
+        if (timings.connect() >= 0)
+            metrics.record(HttpPhase.CONNECT, timings.connect());
+        if (timings.tls() >= 0)
+            metrics.record(HttpPhase.TLS, timings.tls());
+        if (timings.timeToFirstByte() >= 0)
+            metrics.record(HttpPhase.TIME_TO_FIRST_BYTE, timings.timeToFirstByte());
+        metrics.record(HttpPhase.CALL, timings.total());
+    }
+
+    /**
+     * Closes the pooled conversations, shuts down the executors (letting the pending tasks run), writes the pending
+     * transcript records, closes the network handler and stops exporting the metrics.
+     */
+    void shutdown() {
+        if (conversationPools != null)
+            conversationPools.close();
+        scheduler.shutdown();
+        robotExecutor.shutdown();
+        if (transcript != null)
+            transcript.close();
+        network.close();
+        metricsExport.close();
+    }
+
+    /**
+     * Closes the pooled conversations, shuts down the executors (interrupting the running tasks and discarding the
+     * pending ones), writes the pending transcript records, closes the network handler and stops exporting the
+     * metrics.
+     */
+    void shutdownNow() {
+        if (conversationPools != null)
+            conversationPools.close();
+        scheduler.shutdownNow();
+        robotExecutor.shutdownNow();
+        if (transcript != null)
+            transcript.close();
+        network.close();
+        metricsExport.close();
+    }
+}
@@ -0,0 +1,161 @@
+package br.usp.inova.c4ai.blab;
+
+import br.usp.inova.c4ai.blab.hr.RobotControl;
+import org.apache.logging.log4j.Level;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.core.config.Configurator;
+
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Runs the startup path and a whole turn of a session against a local stand-in of BLAB Controller, so that the
+ * classes it needs can be recorded in a class data sharing (AppCDS) archive.
+ * <p>
+ * A session is started against a {@link TrainingServer}, with a robot that answers the greeting with a user message
+ * and records the reply. This loads the settings, the HTTP and WebSocket clients, the JSON codecs and frame decoder,
+ * the logging framework and the states of the conversation from the greeting to the spoken reply. The Robios control
+ * is created (without connecting), so that its classes and the Robios API are loaded too. The archive is created by
+ * running this class with {@code -XX:ArchiveClassesAtExit} (see the {@code appcds} Maven profile and *README.md*).
+ */
+public final class StartupTraining {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Longest time to wait for the turn to finish, in milliseconds.
+     */
+    private static final long TIMEOUT = 30_000;
+
+    /**
+     * Classes of the Robios API used by the Robios control, loaded (without initialization) since no robot is
+     * available.
+     */
+    private static final String[] ROBIOS_CLASSES = {
+            "io.humanrobotics.api.Robios",
+            "io.humanrobotics.api.RobiosApi",
+            "io.humanrobotics.api.RobiosConfig",
+            "io.humanrobotics.api.exception.RobiosException"
+    };
+
+    private StartupTraining() {
+    }
+
+    /**
+     * Runs a session until the reply to the first user message has been spoken.
+     *
+     * @param args unused
+     * @throws Exception if the session cannot be run
+     */
+    public static void main(String[] args) throws Exception {
+        Configurator.setLevel(LogManager.getRootLogger(), Level.INFO);
+        try (TrainingServer server = new TrainingServer("Training", "Hello! How can I help you?")) {
+            logger.info("Running a session against a local stand-in of BLAB Controller at {}", server.serverURL());
+            Properties config = new Properties();
+            config.setProperty("BLAB_CHAT_SERVER_URL", server.serverURL());
+            config.setProperty("BLAB_CHAT_WS_SERVER_URL", server.wsServerURL());
+            config.setProperty("BLAB_CHAT_BOTS", "Training");
+            config.setProperty("USER_MESSAGE_TIMEOUT", Long.toString(TIMEOUT));
+            config.setProperty("BOT_MESSAGE_TIMEOUT", Long.toString(TIMEOUT));
+            loadRobiosControl(config);
+            SessionResources resources = SessionResources.create(config, Executors.newSingleThreadScheduledExecutor(),
+                    Executors.newCachedThreadPool());
+            CompletableFuture<String> replied = new CompletableFuture<>();
+            BLABHumanRoboticsClient client = new BLABHumanRoboticsClient("startup-training", config, resources,
+                    callback -> new TrainingRobot(callback, replied));
+            try {
+                client.start();
+                logger.info("Reply spoken: \"{}\"", replied.get(TIMEOUT, TimeUnit.MILLISECONDS));
+                client.close();
+                client.whenEnded().get(TIMEOUT, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException | ExecutionException e) {
+                logger.error("Training session did not finish its turn", e);
+                client.stop();
+            } finally {
+                resources.shutdownNow();
+            }
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Creates (and closes) a Robios control without connecting it, and loads the Robios API classes it uses.
+     *
+     * @param config configuration of the session
+     */
+    private static void loadRobiosControl(Properties config) {
+        BLABHumanRoboticsClient.humanRoboticsControl(config).apply(text -> {
+        }).close();
+        for (String name : ROBIOS_CLASSES) {
+            try {
+                Class.forName(name, false, StartupTraining.class.getClassLoader());
+            } catch (ClassNotFoundException | LinkageError e) {
+                logger.warn("Could not load {}", name);
+            }
+        }
+    }
+
+    /**
+     * A robot that connects immediately, answers the greeting with a user message and records the reply.
+     */
+    private static final class TrainingRobot implements RobotControl {
+
+        /**
+         * Function that is called whenever the user says something to the robot.
+         */
+        private final Consumer<String> callback;
+
+        /**
+         * Completed with the first sentence spoken after the greeting.
+         */
+        private final CompletableFuture<String> replied;
+
+        /**
+         * Whether the greeting has been spoken.
+         */
+        private boolean greeted;
+
+        private TrainingRobot(Consumer<String> callback, CompletableFuture<String> replied) {
+            this.callback = callback;
+            this.replied = replied;
+        }
+
+        @Override
+        public void connect() {
+        }
+
+        @Override
+        public synchronized boolean sayAndListen(String text) {
+            if (greeted) {
+                replied.complete(text);
+            } else {
+                greeted = true;
+                callback.accept("Hello");
+            }
+            return true;
+        }
+
+        @Override
+        public boolean say(String text) {
+            return true;
+        }
+
+        @Override
+        public boolean listen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,334 @@
+package br.usp.inova.c4ai.blab;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Minimal local stand-in for BLAB Controller, used by {@link StartupTraining} so that a whole turn runs while the
+ * class data sharing archive is recorded.
+ * <p>
+ * It only implements what a single session needs, over plain sockets (so that it runs from the fat JAR, without
+ * test libraries): {@code POST <api>/conversations/} creates a conversation and sets the {@code sessionid} cookie,
+ * a WebSocket upgrade on any other path opens the conversation (the participants are sent at once), and each text
+ * message from the user is echoed and answered by a single bot message. Other requests are answered with 404.
+ */
+final class TrainingServer implements Closeable {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Value appended to the key of a WebSocket handshake before it is hashed (see RFC 6455).
+     */
+    private static final String WEBSOCKET_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    /**
+     * ID of the conversation.
+     */
+    private static final String CONVERSATION_ID = "startup-training";
+
+    /**
+     * Participant ID of the user.
+     */
+    private static final String USER_ID = "training-user";
+
+    /**
+     * Participant ID of the bot.
+     */
+    private static final String BOT_ID = "training-bot";
+
+    /**
+     * Listening socket, bound to the loopback address.
+     */
+    private final ServerSocket serverSocket;
+
+    /**
+     * Runs the accept loop and one task per connection.
+     */
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "training-server");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Name of the bot.
+     */
+    private final String botName;
+
+    /**
+     * Text of the bot reply.
+     */
+    private final String reply;
+
+    /**
+     * Starts a server on a free local port.
+     *
+     * @param botName name of the bot
+     * @param reply   text of the bot reply
+     * @throws IOException if the server cannot be started
+     */
+    TrainingServer(String botName, String reply) throws IOException {
+        this.botName = botName;
+        this.reply = reply;
+        this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::accept);
+    }
+
+    /**
+     * Returns the URL of the HTTP chat API (the value of {@code BLAB_CHAT_SERVER_URL}).
+     *
+     * @return the URL
+     */
+    String serverURL() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/api/chat";
+    }
+
+    /**
+     * Returns the URL of the WebSocket endpoint (the value of {@code BLAB_CHAT_WS_SERVER_URL}).
+     *
+     * @return the URL
+     */
+    String wsServerURL() {
+        return "ws://127.0.0.1:" + serverSocket.getLocalPort() + "/ws/chat";
+    }
+
+    /**
+     * Accepts connections until the server is closed.
+     */
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                executor.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (!serverSocket.isClosed())
+                    logger.warn("Training server could not accept a connection", e);
+            }
+        }
+    }
+
+    /**
+     * Serves the requests of a connection (kept alive between requests).
+     *
+     * @param socket the connection
+     */
+    private void serve(Socket socket) {
+        try (socket) {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            String requestLine;
+            while ((requestLine = readLine(in)) != null) {
+                String[] request = requestLine.split(" ");
+                Map<String, String> headers = new HashMap<>();
+                String line;
+                while ((line = readLine(in)) != null && !line.isEmpty()) {
+                    int colon = line.indexOf(':');
+                    if (colon > 0)
+                        headers.put(line.substring(0, colon).strip().toLowerCase(Locale.ROOT), line.substring(colon + 1).strip());
+                }
+                in.readNBytes(Integer.parseInt(headers.getOrDefault("content-length", "0")));
+                if ("websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                    webSocket(in, out, headers.get("sec-websocket-key"));
+                    return;
+                }
+                if (request.length > 1 && "POST".equals(request[0]) && request[1].endsWith("/conversations/")) {
+                    byte[] body = ("{\"id\":\"" + CONVERSATION_ID + "\",\"name\":\"" + CONVERSATION_ID
+                            + "\",\"my_participant_id\":\"" + USER_ID + "\",\"participants\":[]}").getBytes(StandardCharsets.UTF_8);
+                    write(out, "HTTP/1.1 200 OK\r\nContent-Type: application/json\r\nSet-Cookie: sessionid=training; Path=/; HttpOnly\r\n"
+                            + "Content-Length: " + body.length + "\r\n\r\n");
+                    out.write(body);
+                } else {
+                    write(out, "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n");
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.debug("Training connection closed", e);
+        }
+    }
+
+    /**
+     * Completes a WebSocket handshake and runs the conversation until the client closes it.
+     *
+     * @param in  input of the connection
+     * @param out output of the connection
+     * @param key value of the {@code Sec-WebSocket-Key} header
+     * @throws IOException if the connection fails
+     */
+    private void webSocket(InputStream in, OutputStream out, String key) throws IOException {
+        String accept;
+        try {
+            accept = Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-1")
+                    .digest((key + WEBSOCKET_GUID).getBytes(StandardCharsets.ISO_8859_1)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        write(out, "HTTP/1.1 101 Switching Protocols\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + accept + "\r\n\r\n");
+        sendText(out, "{\"state\":{\"participants\":[{\"id\":\"" + USER_ID + "\",\"name\":\"user\",\"type\":\"H\"},"
+                + "{\"id\":\"" + BOT_ID + "\",\"name\":\"" + botName + "\",\"type\":\"B\"}]}}");
+        while (true) {
+            int first = in.read();
+            if (first < 0)
+                return;
+            int opcode = first & 0x0f;
+            int second = readByte(in);
+            long length = second & 0x7f;
+            if (length == 126)
+                length = (long) readByte(in) << 8 | readByte(in);
+            else if (length == 127)
+                length = new BigInteger(1, in.readNBytes(8)).longValueExact();
+            byte[] mask = (second & 0x80) != 0 ? in.readNBytes(4) : null;
+            byte[] payload = in.readNBytes((int) length);
+            if (mask != null)
+                for (int i = 0; i < payload.length; i++)
+                    payload[i] ^= mask[i & 3];
+            switch (opcode) {
+                case 0x1, 0x2 -> {
+                    sendText(out, messageFrame("(echo)", USER_ID, true));
+                    sendText(out, messageFrame(reply, BOT_ID, false));
+                }
+                case 0x8 -> {
+                    sendFrame(out, 0x8, payload);
+                    return;
+                }
+                case 0x9 -> sendFrame(out, 0xa, payload);
+                default -> {
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates a message frame in the format sent by BLAB Controller.
+     *
+     * @param text        message text
+     * @param senderId    participant ID of the sender
+     * @param sentByHuman whether the message was sent by the user
+     * @return the JSON representation of the frame
+     */
+    private static String messageFrame(String text, String senderId, boolean sentByHuman) {
+        return "{\"message\":{\"type\":\"T\",\"time\":\"" + Instant.now() + "\",\"id\":\"" + System.nanoTime()
+                + "\",\"sender_id\":\"" + senderId + "\",\"text\":\"" + text + "\",\"sent_by_human\":" + sentByHuman
+                + ",\"options\":[]}}";
+    }
+
+    /**
+     * Sends a text frame.
+     *
+     * @param out  output of the connection
+     * @param text the text
+     * @throws IOException if the connection fails
+     */
+    private static void sendText(OutputStream out, String text) throws IOException {
+        sendFrame(out, 0x1, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Sends an unmasked frame, with the final fragment bit set.
+     *
+     * @param out     output of the connection
+     * @param opcode  type of the frame
+     * @param payload contents of the frame
+     * @throws IOException if the connection fails
+     */
+    private static void sendFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(payload.length);
+        } else if (payload.length < 65536) {
+            out.write(126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xff);
+        } else {
+            out.write(127);
+            for (int shift = 56; shift >= 0; shift -= 8)
+                out.write((int) ((long) payload.length >>> shift) & 0xff);
+        }
+        out.write(payload);
+        out.flush();
+    }
+
+    /**
+     * Writes the head of an HTTP response.
+     *
+     * @param out  output of the connection
+     * @param head status line and headers, ending with an empty line
+     * @throws IOException if the connection fails
+     */
+    private static void write(OutputStream out, String head) throws IOException {
+        out.write(head.getBytes(StandardCharsets.ISO_8859_1));
+        out.flush();
+    }
+
+    /**
+     * Reads a byte that must be present.
+     *
+     * @param in the input
+     * @return the byte (from 0 to 255)
+     * @throws IOException if the input ends or fails
+     */
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+
+    /**
+     * Reads a line of an HTTP request head.
+     *
+     * @param in the input
+     * @return the line, without the line terminator, or {@code null} if the input has ended
+     * @throws IOException if the input fails
+     */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) >= 0 && b != '\n') {
+            if (b != '\r')
+                line.write(b);
+        }
+        if (b < 0 && line.size() == 0)
+            return null;
+        return line.toString(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Stops the server and closes its connections.
+     */
+    @Override
+    public void close() {
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        executor.shutdownNow();
+    }
+}
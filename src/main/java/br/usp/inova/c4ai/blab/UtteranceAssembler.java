@@ -0,0 +1,130 @@
+package br.usp.inova.c4ai.blab;
+
+import br.usp.inova.c4ai.blab.metrics.ConversationMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins the voice recognitions of a user turn into a single utterance.
+ * <p>
+ * Speech recognizers often split what the user says into several results (e.g. when the user pauses in the middle
+ * of a sentence), and sometimes deliver the same result twice. Instead of sending each result to BLAB Controller
+ * as a separate message, the recognitions are collected until the user has been quiet for a while (the quiet
+ * period), and then sent as a single message, in the order in which they were recognized. Blank recognitions and
+ * recognitions equal to one already in the utterance are dropped.
+ * <p>
+ * The utterance is complete when no recognition has arrived within the quiet period since the last one, or when the
+ * maximum delay since the first one has elapsed (so that a user who keeps talking is eventually answered).
+ * <p>
+ * Instances are not thread-safe: they are used only by the state machine of a conversation.
+ */
+final class UtteranceAssembler {
+
+    /**
+     * How long the user must be quiet before the utterance is complete, in nanoseconds.
+     */
+    private final long quietPeriod;
+
+    /**
+     * Longest time after the first recognition until the utterance is complete, in nanoseconds.
+     */
+    private final long maxDelay;
+
+    /**
+     * Metrics (possibly shared with other conversations).
+     */
+    private final ConversationMetrics metrics;
+
+    /**
+     * Recognitions of the current utterance, in order.
+     */
+    private final List<String> fragments = new ArrayList<>();
+
+    /**
+     * When the first recognition of the current utterance was added (from {@link System#nanoTime()}).
+     */
+    private long firstAt;
+
+    /**
+     * When the last recognition of the current utterance was added (from {@link System#nanoTime()}).
+     */
+    private long lastAt;
+
+    /**
+     * Initializes an instance.
+     *
+     * @param quietPeriod how long the user must be quiet before the utterance is complete, in milliseconds
+     *                    (0 to join only the recognitions that are already waiting)
+     * @param maxDelay    longest time after the first recognition until the utterance is complete, in milliseconds
+     * @param metrics     metrics where merged and duplicate recognitions are counted
+     */
+    UtteranceAssembler(long quietPeriod, long maxDelay, ConversationMetrics metrics) {
+        this.quietPeriod = Math.max(0, quietPeriod) * 1_000_000;
+        this.maxDelay = Math.max(quietPeriod, maxDelay) * 1_000_000;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Adds a recognition to the current utterance.
+     *
+     * @param text the recognized text
+     * @param now  when the recognition was received (from {@link System#nanoTime()})
+     * @return {@code false} if the recognition was dropped because it is blank or a duplicate
+     */
+    boolean add(String text, long now) {
+        String fragment = text.strip();
+        if (fragment.isEmpty())
+            return false;
+        if (fragments.contains(fragment)) {
+            metrics.duplicateRecognition();
+            return false;
+        }
+        if (fragments.isEmpty())
+            firstAt = now;
+        else
+            metrics.mergedRecognition();
+        fragments.add(fragment);
+        lastAt = now;
+        return true;
+    }
+
+    /**
+     * Returns whether no recognition has been added since the last utterance was taken.
+     *
+     * @return {@code true} if the current utterance is empty
+     */
+    boolean isEmpty() {
+        return fragments.isEmpty();
+    }
+
+    /**
+     * Returns how long to wait for further recognitions before the current utterance is complete.
+     *
+     * @param now the current time (from {@link System#nanoTime()})
+     * @return the time to wait in nanoseconds, or a value {@code <= 0} if the utterance is complete
+     */
+    long remainingWait(long now) {
+        return Math.min(lastAt + quietPeriod, firstAt + maxDelay) - now;
+    }
+
+    /**
+     * Removes the recognitions of the current utterance and joins them.
+     *
+     * @return the utterance, with the recognitions separated by spaces
+     */
+    String take() {
+        String utterance = String.join(" ", fragments);
+        fragments.clear();
+        return utterance;
+    }
+
+    /**
+     * Returns the number of fragments in the current utterance.
+     *
+     * @return the number of recognitions that have been added and not taken
+     */
+    int size() {
+        return fragments.size();
+    }
+}
@@ -4,33 +4,32 @@ import br.usp.inova.c4ai.blab.internal.JSONFormat;
 import br.usp.inova.c4ai.blab.internal.network.Cookie;
 import br.usp.inova.c4ai.blab.internal.network.HeaderEntry;
 import br.usp.inova.c4ai.blab.internal.network.Network;
+import br.usp.inova.c4ai.blab.internal.network.ReconnectPolicy;
 import br.usp.inova.c4ai.blab.internal.network.Response;
 import br.usp.inova.c4ai.blab.internal.network.ResponseCallback;
 import br.usp.inova.c4ai.blab.internal.network.WebSocket;
 import br.usp.inova.c4ai.blab.internal.network.WebSocketListener;
+import com.google.gson.JsonParseException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.UUID;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 
 /**
  * Handles bidirectional communication with BLAB Controller.
+ * <p>
+ * An instance must be closed when the conversation ends, so that its WebSocket connection is closed normally (and
+ * not reestablished).
  */
-public class BLABClient {
-
-    /**
-     * Pattern that matches a dash ("-"). Used to remove dashes from UUID4 strings.
-     */
-    private static final Pattern DASH = Pattern.compile("-");
+public class BLABClient implements AutoCloseable {
 
     /**
      * Class logger.
@@ -45,7 +44,7 @@ public class BLABClient {
     /**
      * Instance of a JSON parser and serializer.
      */
-    private final JSONFormat json = new JSONFormat();
+    private final JSONFormat json;
 
     /**
      * URL of the WebSocket starter provided by BLAB Controller.
@@ -53,25 +52,77 @@ public class BLABClient {
     private final String wsBaseURL;
 
     /**
-     * Function that is called whenever a message is received.
+     * Function that is called whenever a bot message is received.
      */
-    private final Consumer<String> callback;
+    private final BotMessageListener listener;
 
     /**
      * HTTP and WebSocket handler.
      */
     private final Network network;
 
+    /**
+     * Whether {@link #network} was created by this instance (and must be closed with it).
+     */
+    private final boolean ownsNetwork;
+
+    /**
+     * Buffer size and reconnection delays of the WebSocket connection.
+     */
+    private final ReconnectPolicy reconnectPolicy;
+
+    /**
+     * Encoder of the messages sent by the user.
+     */
+    private final TextMessageEncoder encoder = new TextMessageEncoder();
+
+    /**
+     * Decoder of the frames received from BLAB Controller.
+     */
+    private final WebSocketFrameDecoder decoder;
+
+    /**
+     * Pool of conversations created in advance, or {@code null} if conversations are always created on demand.
+     */
+    private final ConversationPool pool;
+
     /**
      * WebSocket connection.
      */
     private WebSocket ws;
 
+    /**
+     * Whether {@link #close()} (or {@link #disconnect(String)}) has been called.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Instance that took over the connection of this one (which was created by a pool), or {@code null} if none.
+     * The events of the connection are still received by this instance.
+     */
+    private volatile BLABClient adopter;
+
+    /**
+     * Whether the WebSocket connection has been opened at least once.
+     */
+    private boolean connected;
+
+    /**
+     * Function called when the WebSocket connection is first opened, if any.
+     */
+    private Runnable connectedAction;
+
     /**
      * ID of the session, used to authenticate requests.
      */
     private String sessionId;
 
+    /**
+     * Names of the participants of the conversation, indexed by their IDs (replaced whenever BLAB Controller
+     * notifies a new list of participants).
+     */
+    private volatile Map<String, String> participantNames = Map.of();
+
     /**
      * Initializes an instance.
      *
@@ -80,14 +131,77 @@ public class BLABClient {
      * @param callback        function that is called whenever a message is received
      */
     public BLABClient(String serverAddress, String wsServerAddress, Consumer<String> callback) {
+        this(new Network(), true, new JSONFormat(BLABCodecs.FACTORY), serverAddress, wsServerAddress,
+                (bot, text) -> callback.accept(text), ReconnectPolicy.DEFAULT, null);
+    }
+
+    /**
+     * Initializes an instance that uses the given network handler and JSON format,
+     * which may be shared with other instances.
+     *
+     * @param network         HTTP and WebSocket handler
+     * @param json            JSON parser and serializer
+     * @param serverAddress   URL of the HTTP(S) chat API provided by BLAB Controller server
+     * @param wsServerAddress URL of the WebSocket starter provided by BLAB Controller
+     * @param callback        function that is called whenever a message is received
+     */
+    public BLABClient(Network network, JSONFormat json, String serverAddress, String wsServerAddress, Consumer<String> callback) {
+        this(network, json, serverAddress, wsServerAddress, callback, ReconnectPolicy.DEFAULT);
+    }
+
+    /**
+     * Initializes an instance that uses the given network handler and JSON format,
+     * which may be shared with other instances.
+     *
+     * @param network         HTTP and WebSocket handler
+     * @param json            JSON parser and serializer
+     * @param serverAddress   URL of the HTTP(S) chat API provided by BLAB Controller server
+     * @param wsServerAddress URL of the WebSocket starter provided by BLAB Controller
+     * @param callback        function that is called whenever a message is received
+     * @param reconnectPolicy buffer size and reconnection delays of the WebSocket connection
+     */
+    public BLABClient(Network network, JSONFormat json, String serverAddress, String wsServerAddress,
+                      Consumer<String> callback, ReconnectPolicy reconnectPolicy) {
+        this(network, json, serverAddress, wsServerAddress, (bot, text) -> callback.accept(text), reconnectPolicy, null);
+    }
+
+    /**
+     * Initializes an instance that uses the given network handler and JSON format, which may be shared with other
+     * instances, and takes its conversation from a pool when possible.
+     *
+     * @param network         HTTP and WebSocket handler
+     * @param json            JSON parser and serializer
+     * @param serverAddress   URL of the HTTP(S) chat API provided by BLAB Controller server
+     * @param wsServerAddress URL of the WebSocket starter provided by BLAB Controller
+     * @param listener        function that is called with the sender and the text of each bot message
+     * @param reconnectPolicy buffer size and reconnection delays of the WebSocket connection
+     * @param pool            pool of conversations created in advance, or {@code null} to always create the
+     *                        conversation on demand
+     */
+    public BLABClient(Network network, JSONFormat json, String serverAddress, String wsServerAddress,
+                      BotMessageListener listener, ReconnectPolicy reconnectPolicy, ConversationPool pool) {
+        this(network, false, json, serverAddress, wsServerAddress, listener, reconnectPolicy, pool);
+    }
+
+    private BLABClient(Network network, boolean ownsNetwork, JSONFormat json, String serverAddress,
+                       String wsServerAddress, BotMessageListener listener, ReconnectPolicy reconnectPolicy,
+                       ConversationPool pool) {
+        this.ownsNetwork = ownsNetwork;
+        this.pool = pool;
+        this.reconnectPolicy = reconnectPolicy;
         this.baseURL = serverAddress;
         this.wsBaseURL = wsServerAddress;
-        this.callback = callback;
-        this.network = new Network();
+        this.listener = listener;
+        this.network = network;
+        this.json = json;
+        this.decoder = new WebSocketFrameDecoder(json);
     }
 
     /**
      * Creates a new conversation.
+     * <p>
+     * If there is a pool with the same bots and a conversation is ready in it, that conversation (whose WebSocket
+     * connection is already open) is taken instead, and the function is called immediately.
      *
      * @param nickname         User's nickname
      * @param bots             list of bot names to include in the conversation
@@ -96,33 +210,200 @@ public class BLABClient {
      *                         conversation starts, or {@code null} if the request fails
      */
     public void startConversation(String nickname, List<String> bots, String conversationName, Consumer<String> callbackFunction) {
+        if (pool != null && pool.bots().equals(bots)) {
+            ConversationPool.PooledConversation pooled = pool.take();
+            if (pooled != null) {
+                adopt(pooled);
+                logger.debug("Conversation {} taken from the pool", pooled.conversationId());
+                callbackFunction.accept(pooled.conversationId());
+                return;
+            }
+        }
         ConversationCreationRequestData body = new ConversationCreationRequestData(nickname, bots, conversationName);
         network.post(baseURL + "/conversations/", "application/json",
                 json.toJson(body).getBytes(StandardCharsets.UTF_8),
                 new StartConversationCallback(callbackFunction));
     }
 
+    /**
+     * Joins a conversation that already exists (e.g. one created by another process), opening its WebSocket
+     * connection with the given session cookie.
+     *
+     * @param conversationId ID of the conversation
+     * @param sessionId      value of the session cookie returned when the conversation was created
+     */
+    public void resumeConversation(String conversationId, String sessionId) {
+        synchronized (this) {
+            this.sessionId = sessionId;
+        }
+        createWebSocket(conversationId);
+    }
+
+    /**
+     * Returns the session cookie of the conversation, which allows another client to resume it.
+     *
+     * @return the value of the session cookie, or {@code null} if the conversation has not been created yet
+     */
+    public synchronized String sessionId() {
+        return sessionId;
+    }
+
+    /**
+     * Prepares a connection to the WebSocket server in the background, so that the WebSocket handshake
+     * that follows the creation of a conversation is faster.
+     */
+    public void warmUp() {
+        network.warmUp(wsBaseURL);
+    }
+
     /**
      * Create a WebSocket connection with BLAB Controller.
+     * <p>
+     * If the connection is lost, it is re-established with the same conversation ID and session cookie,
+     * and messages sent in the meantime are buffered.
      *
      * @param conversationId ID of the conversation
      */
-    private void createWebSocket(String conversationId) {
+    private synchronized void createWebSocket(String conversationId) {
+        if (closed)
+            return;
         String url = wsBaseURL + "/" + conversationId + "/";
         var header = List.of(new HeaderEntry("Cookie", "sessionid=" + sessionId));
-        ws = network.newWebSocket(url, header, new WSListener());
+        ws = network.newReconnectingWebSocket(url, header, new WSListener(), reconnectPolicy);
+    }
+
+    /**
+     * Takes over the connection of a conversation created by a pool, and receives its bot messages.
+     *
+     * @param pooled the conversation
+     */
+    private void adopt(ConversationPool.PooledConversation pooled) {
+        BLABClient owner = pooled.client();
+        synchronized (this) {
+            connected = true;
+            sessionId = owner.sessionId;
+            ws = owner.ws;
+        }
+        owner.adopter = this;
+        pooled.bind(listener);
+    }
+
+    /**
+     * Runs a function when the WebSocket connection is first opened (immediately, if it already has been).
+     * <p>
+     * The function is called without holding any lock of this instance.
+     *
+     * @param action the function
+     */
+    void whenConnected(Runnable action) {
+        synchronized (this) {
+            if (!connected) {
+                connectedAction = action;
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /**
+     * Closes the WebSocket connection normally (code 1000), if any, and stops reconnecting.
+     * Messages that have not been delivered yet are discarded.
+     * <p>
+     * If the conversation is still being created, its WebSocket connection is not opened. If the network handler
+     * was created by this instance, it is closed too. Calling this method more than once has no effect.
+     */
+    @Override
+    public void close() {
+        disconnect("Conversation finished");
+        if (ownsNetwork)
+            network.close();
+    }
+
+    /**
+     * Closes the WebSocket connection, if any, and stops reconnecting.
+     *
+     * @param reason the reason sent to BLAB Controller
+     */
+    void disconnect(String reason) {
+        WebSocket socket;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            socket = ws;
+        }
+        if (socket != null)
+            socket.close(1000, reason);
+    }
+
+    /**
+     * Returns whether the connection has been closed by this instance or by the instance that took it over.
+     *
+     * @return {@code true} if the connection was closed on purpose
+     */
+    private boolean closedLocally() {
+        BLABClient adopter = this.adopter;
+        return closed || adopter != null && adopter.closed;
+    }
+
+    /**
+     * Replaces the names of the participants.
+     *
+     * @param names names of the participants indexed by their IDs
+     */
+    private void updateParticipants(Map<String, String> names) {
+        participantNames = Map.copyOf(names);
+        logger.debug("Participants: {}", participantNames.values());
+    }
+
+    /**
+     * Returns the names of participants indexed by their IDs.
+     *
+     * @param participants the participants
+     * @return the names
+     */
+    private static Map<String, String> namesById(List<Participant> participants) {
+        return participants.stream()
+                .filter(p -> p.id() != null && p.name() != null)
+                .collect(Collectors.toMap(Participant::id, Participant::name, (a, b) -> b));
+    }
+
+    /**
+     * Calls the listener with a bot message.
+     *
+     * @param senderId participant ID of the sender, or {@code null} if unknown
+     * @param text     text of the message
+     */
+    private void botMessageReceived(String senderId, String text) {
+        listener.onBotMessage(senderId != null ? participantNames.get(senderId) : null, text);
     }
 
     /**
      * Send a message from the user to BLAB controller.
      *
      * @param text the user message
+     * @return whether the message was accepted for transmission
      */
-    public void sendMessage(String text) {
-        String localId = DASH.matcher(UUID.randomUUID().toString()).replaceAll("");
-        String contents = json.toJson(Map.of("type", "T", "local_id", localId, "text", text));
-        if (!ws.send(contents))
+    public boolean sendMessage(String text) {
+        WebSocket socket;
+        synchronized (this) {
+            socket = ws;
+        }
+        if (socket == null || !socket.send(encodeTextMessage(text))) {
             logger.error("Failed to send message: \"{}\"", text);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Encodes a text message from the user in the format expected by BLAB Controller.
+     *
+     * @param text the user message
+     * @return the JSON representation of the message, with a new random local ID
+     */
+    String encodeTextMessage(String text) {
+        return encoder.encode(text);
     }
 
     /**
@@ -155,7 +436,7 @@ public class BLABClient {
          * @return a ParticipantType instance if {@code code} is valid, throws {@link IllegalArgumentException}
          * otherwise
          */
-        public static Enum<ParticipantType> fromCode(String code) {
+        public static ParticipantType fromCode(String code) {
             return switch (code) {
                 case "H" -> HUMAN;
                 case "B" -> BOT;
@@ -172,7 +453,7 @@ public class BLABClient {
      * @param bots             list of bots to include in a conversation
      * @param conversationName name of the conversation
      */
-    private record ConversationCreationRequestData(String nickname, List<String> bots, String conversationName) {
+    record ConversationCreationRequestData(String nickname, List<String> bots, String conversationName) {
     }
 
     /**
@@ -183,7 +464,7 @@ public class BLABClient {
      * @param myParticipantId ID of the user's participant
      * @param participants    list of participants in the conversation
      */
-    private record ConversationCreationResponseData(String id, String name, String myParticipantId,
+    record ConversationCreationResponseData(String id, String name, String myParticipantId,
                                                     List<Participant> participants) {
 
 
@@ -196,7 +477,7 @@ public class BLABClient {
      * @param name participant's name
      * @param type type of the participant
      */
-    private record Participant(String id, String name, ParticipantType type) {
+    record Participant(String id, String name, ParticipantType type) {
     }
 
     /**
@@ -213,13 +494,14 @@ public class BLABClient {
          * @param type               message type ("T" for text, "S" for system; other types aren't supported)
          * @param time               when the message was sent (ISO-8601 format)
          * @param id                 message ID
+         * @param senderId           participant ID of the sender
          * @param text               message text
          * @param sentByHuman        whether the message was sent by a person
          * @param event              event type (for system messages)
          * @param additionalMetadata additional information (for system messages)
          * @param options            list of options that the user can choose (currently not supported by this client)
          */
-        protected record Message(String type, String time, String id, String text, Boolean sentByHuman, String event,
+        protected record Message(String type, String time, String id, String senderId, String text, Boolean sentByHuman, String event,
                                  Map<String, String> additionalMetadata, List<String> options) {
         }
 
@@ -256,11 +538,18 @@ public class BLABClient {
         @Override
         public void onResponse(Response response) {
             if (!response.success()) {
-                logger.error("Failed to create a conversation. Code {}. {}", response.code(), Arrays.toString(response.body()));
+                logger.error("Failed to create a conversation. Code {}. {}", response.code(), response.bodyAsString());
+                callbackFunction.accept(null);
+                return;
+            }
+            ConversationCreationResponseData responseData;
+            try {
+                responseData = json.fromJson(response.bodyReader(), ConversationCreationResponseData.class);
+            } catch (JsonParseException e) {
+                logger.error("Invalid response to the creation of a conversation", e);
                 callbackFunction.accept(null);
                 return;
             }
-            ConversationCreationResponseData responseData = json.fromJson(response.bodyAsString(), ConversationCreationResponseData.class);
             List<Cookie> cookies = response.cookies();
             Optional<Cookie> sessionCookie = cookies.stream().filter(cookie -> "sessionid".equals(cookie.name())).findFirst();
             if (sessionCookie.isEmpty()) {
@@ -269,6 +558,8 @@ public class BLABClient {
                 return;
             }
             sessionId = sessionCookie.get().value();
+            if (responseData.participants() != null)
+                updateParticipants(namesById(responseData.participants()));
             createWebSocket(responseData.id());
             callbackFunction.accept(responseData.id());
         }
@@ -280,14 +571,103 @@ public class BLABClient {
     private class WSListener extends WebSocketListener {
 
         /**
-         * Calls the callback function whenever a bot message is received.
+         * Runs the function registered with {@link #whenConnected(Runnable)}, if any.
+         */
+        @Override
+        protected void onOpen(Response response) {
+            Runnable action;
+            synchronized (BLABClient.this) {
+                connected = true;
+                action = connectedAction;
+                connectedAction = null;
+            }
+            if (action != null)
+                action.run();
+        }
+
+        /**
+         * Calls the listener whenever a bot message is received, and keeps track of the participants.
+         * <p>
+         * If debug logging is enabled, each frame is fully parsed and logged; otherwise, only the relevant fields
+         * are parsed.
          */
         protected void onMessage(String text) {
             super.onMessage(text);
-            WebSocketMessageData messageData = json.fromJson(text, WebSocketMessageData.class);
+            if (logger.isDebugEnabled()) {
+                onMessageData(json.fromJson(text, WebSocketMessageData.class));
+                return;
+            }
+            try {
+                onFrame(decoder.decode(text));
+            } catch (IOException e) {
+                logger.error("Invalid message received from BLAB Controller: {}", text, e);
+            }
+        }
+
+        /**
+         * Calls the listener whenever a bot message is received in a binary frame (which contains the same UTF-8
+         * encoded JSON as a text frame), and keeps track of the participants.
+         * <p>
+         * The frame is decoded as it is parsed, without creating an intermediate string.
+         */
+        @Override
+        protected void onMessage(ByteBuffer bytes) {
+            super.onMessage(bytes);
+            if (logger.isDebugEnabled()) {
+                onMessageData(json.fromJson(bytes, WebSocketMessageData.class));
+                return;
+            }
+            try {
+                onFrame(decoder.decode(bytes));
+            } catch (IOException e) {
+                logger.error("Invalid binary message received from BLAB Controller: {}",
+                        StandardCharsets.UTF_8.decode(bytes.duplicate()), e);
+            }
+        }
+
+        /**
+         * Handles the relevant contents of a frame.
+         *
+         * @param frame the contents, or {@code null} if there are none
+         */
+        private void onFrame(WebSocketFrameDecoder.DecodedFrame frame) {
+            if (frame == null)
+                return;
+            if (frame.participants() != null)
+                updateParticipants(frame.participants());
+            if (frame.text() != null)
+                botMessageReceived(frame.senderId(), frame.text());
+        }
+
+        /**
+         * Logs a fully parsed frame, keeps track of the participants and calls the listener if the frame contains
+         * a bot message.
+         *
+         * @param messageData the frame
+         */
+        private void onMessageData(WebSocketMessageData messageData) {
             logger.debug("Message received from BLAB Controller: {}", messageData);
-            if (messageData.message() != null && "T".equals(messageData.message().type) && !messageData.message().sentByHuman())
-                callback.accept(messageData.message().text());
+            if (messageData.state() != null && messageData.state().participants() != null)
+                updateParticipants(namesById(messageData.state().participants()));
+            WebSocketMessageData.Message message = messageData.message();
+            if (message != null && "T".equals(message.type) && !Boolean.TRUE.equals(message.sentByHuman()) && message.text() != null)
+                botMessageReceived(message.senderId(), message.text());
+        }
+
+        @Override
+        protected void onClosed(int code, String reason) {
+            if (closedLocally())
+                logger.debug("WebSocket connection closed. Code {}. {}", code, reason);
+            else
+                logger.warn("WebSocket connection closed by BLAB Controller. Code {}. {}", code, reason);
+        }
+
+        @Override
+        protected void onFailure(Throwable t, Response response) {
+            if (closedLocally())
+                logger.debug("WebSocket connection with BLAB Controller failed after it was closed", t);
+            else
+                logger.warn("WebSocket connection with BLAB Controller failed", t);
         }
     }
 }
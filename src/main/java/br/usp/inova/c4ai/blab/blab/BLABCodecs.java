@@ -0,0 +1,455 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written JSON codecs of the data exchanged with BLAB Controller.
+ * <p>
+ * By default, Gson converts records by reflection: the first time it meets a class, it inspects its components and
+ * constructors, which takes a noticeable part of the time until the first message of a conversation is handled,
+ * and it cannot map participant type codes ("B", "H") to {@link BLABClient.ParticipantType} constants. These codecs
+ * read and write the fields explicitly (with the same names that {@link br.usp.inova.c4ai.blab.internal.JSONFormat}
+ * derives from the record components) and skip unknown fields, so they accept the same documents.
+ * <p>
+ * They are enabled by passing {@link #FACTORY} to {@link br.usp.inova.c4ai.blab.internal.JSONFormat}.
+ */
+public final class BLABCodecs {
+
+    private BLABCodecs() {
+    }
+
+    /**
+     * Converts participant types to and from their codes; unknown codes are read as {@code null}.
+     */
+    private static final TypeAdapter<BLABClient.ParticipantType> PARTICIPANT_TYPE =
+            new TypeAdapter<BLABClient.ParticipantType>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.ParticipantType value) throws IOException {
+                    out.value(value.code);
+                }
+
+                @Override
+                public BLABClient.ParticipantType read(JsonReader in) throws IOException {
+                    String code = in.nextString();
+                    try {
+                        return BLABClient.ParticipantType.fromCode(code);
+                    } catch (IllegalArgumentException e) {
+                        return null;
+                    }
+                }
+            }.nullSafe();
+
+    /**
+     * Converts participants.
+     */
+    private static final TypeAdapter<BLABClient.Participant> PARTICIPANT = new TypeAdapter<BLABClient.Participant>() {
+        @Override
+        public void write(JsonWriter out, BLABClient.Participant value) throws IOException {
+            out.beginObject();
+            out.name("id").value(value.id());
+            out.name("name").value(value.name());
+            out.name("type");
+            PARTICIPANT_TYPE.write(out, value.type());
+            out.endObject();
+        }
+
+        @Override
+        public BLABClient.Participant read(JsonReader in) throws IOException {
+            String id = null;
+            String name = null;
+            BLABClient.ParticipantType type = null;
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id" -> id = readString(in);
+                    case "name" -> name = readString(in);
+                    case "type" -> type = PARTICIPANT_TYPE.read(in);
+                    default -> in.skipValue();
+                }
+            }
+            in.endObject();
+            return new BLABClient.Participant(id, name, type);
+        }
+    }.nullSafe();
+
+    /**
+     * Converts requests to create a conversation.
+     */
+    private static final TypeAdapter<BLABClient.ConversationCreationRequestData> CREATION_REQUEST =
+            new TypeAdapter<BLABClient.ConversationCreationRequestData>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.ConversationCreationRequestData value)
+                        throws IOException {
+                    out.beginObject();
+                    out.name("nickname").value(value.nickname());
+                    out.name("bots");
+                    writeStrings(out, value.bots());
+                    out.name("conversation_name").value(value.conversationName());
+                    out.endObject();
+                }
+
+                @Override
+                public BLABClient.ConversationCreationRequestData read(JsonReader in) throws IOException {
+                    String nickname = null;
+                    List<String> bots = null;
+                    String conversationName = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "nickname" -> nickname = readString(in);
+                            case "bots" -> bots = readStrings(in);
+                            case "conversation_name" -> conversationName = readString(in);
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    return new BLABClient.ConversationCreationRequestData(nickname, bots, conversationName);
+                }
+            }.nullSafe();
+
+    /**
+     * Converts the data of created conversations.
+     */
+    private static final TypeAdapter<BLABClient.ConversationCreationResponseData> CREATION_RESPONSE =
+            new TypeAdapter<BLABClient.ConversationCreationResponseData>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.ConversationCreationResponseData value)
+                        throws IOException {
+                    out.beginObject();
+                    out.name("id").value(value.id());
+                    out.name("name").value(value.name());
+                    out.name("my_participant_id").value(value.myParticipantId());
+                    out.name("participants");
+                    writeParticipants(out, value.participants());
+                    out.endObject();
+                }
+
+                @Override
+                public BLABClient.ConversationCreationResponseData read(JsonReader in) throws IOException {
+                    String id = null;
+                    String name = null;
+                    String myParticipantId = null;
+                    List<BLABClient.Participant> participants = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "id" -> id = readString(in);
+                            case "name" -> name = readString(in);
+                            case "my_participant_id" -> myParticipantId = readString(in);
+                            case "participants" -> participants = readParticipants(in);
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    return new BLABClient.ConversationCreationResponseData(id, name, myParticipantId, participants);
+                }
+            }.nullSafe();
+
+    /**
+     * Converts messages received via WebSocket.
+     */
+    private static final TypeAdapter<BLABClient.WebSocketMessageData.Message> MESSAGE =
+            new TypeAdapter<BLABClient.WebSocketMessageData.Message>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.WebSocketMessageData.Message value) throws IOException {
+                    out.beginObject();
+                    out.name("type").value(value.type());
+                    out.name("time").value(value.time());
+                    out.name("id").value(value.id());
+                    out.name("sender_id").value(value.senderId());
+                    out.name("text").value(value.text());
+                    out.name("sent_by_human").value(value.sentByHuman());
+                    out.name("event").value(value.event());
+                    out.name("additional_metadata");
+                    if (value.additionalMetadata() == null) {
+                        out.nullValue();
+                    } else {
+                        out.beginObject();
+                        for (Map.Entry<String, String> entry : value.additionalMetadata().entrySet())
+                            out.name(entry.getKey()).value(entry.getValue());
+                        out.endObject();
+                    }
+                    out.name("options");
+                    writeStrings(out, value.options());
+                    out.endObject();
+                }
+
+                @Override
+                public BLABClient.WebSocketMessageData.Message read(JsonReader in) throws IOException {
+                    String type = null;
+                    String time = null;
+                    String id = null;
+                    String senderId = null;
+                    String text = null;
+                    Boolean sentByHuman = null;
+                    String event = null;
+                    Map<String, String> additionalMetadata = null;
+                    List<String> options = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "type" -> type = readString(in);
+                            case "time" -> time = readString(in);
+                            case "id" -> id = readString(in);
+                            case "sender_id" -> senderId = readString(in);
+                            case "text" -> text = readString(in);
+                            case "sent_by_human" -> sentByHuman = readBoolean(in);
+                            case "event" -> event = readString(in);
+                            case "additional_metadata" -> additionalMetadata = readMetadata(in);
+                            case "options" -> options = readStrings(in);
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    return new BLABClient.WebSocketMessageData.Message(type, time, id, senderId, text, sentByHuman,
+                            event, additionalMetadata, options);
+                }
+            }.nullSafe();
+
+    /**
+     * Converts status notifications received via WebSocket.
+     */
+    private static final TypeAdapter<BLABClient.WebSocketMessageData.State> STATE =
+            new TypeAdapter<BLABClient.WebSocketMessageData.State>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.WebSocketMessageData.State value) throws IOException {
+                    out.beginObject();
+                    out.name("participants");
+                    writeParticipants(out, value.participants());
+                    out.endObject();
+                }
+
+                @Override
+                public BLABClient.WebSocketMessageData.State read(JsonReader in) throws IOException {
+                    List<BLABClient.Participant> participants = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        if (in.nextName().equals("participants"))
+                            participants = readParticipants(in);
+                        else
+                            in.skipValue();
+                    }
+                    in.endObject();
+                    return new BLABClient.WebSocketMessageData.State(participants);
+                }
+            }.nullSafe();
+
+    /**
+     * Converts frames received via WebSocket.
+     */
+    private static final TypeAdapter<BLABClient.WebSocketMessageData> WEB_SOCKET_MESSAGE =
+            new TypeAdapter<BLABClient.WebSocketMessageData>() {
+                @Override
+                public void write(JsonWriter out, BLABClient.WebSocketMessageData value) throws IOException {
+                    out.beginObject();
+                    out.name("message");
+                    MESSAGE.write(out, value.message());
+                    out.name("state");
+                    STATE.write(out, value.state());
+                    out.endObject();
+                }
+
+                @Override
+                public BLABClient.WebSocketMessageData read(JsonReader in) throws IOException {
+                    BLABClient.WebSocketMessageData.Message message = null;
+                    BLABClient.WebSocketMessageData.State state = null;
+                    in.beginObject();
+                    while (in.hasNext()) {
+                        switch (in.nextName()) {
+                            case "message" -> message = MESSAGE.read(in);
+                            case "state" -> state = STATE.read(in);
+                            default -> in.skipValue();
+                        }
+                    }
+                    in.endObject();
+                    return new BLABClient.WebSocketMessageData(message, state);
+                }
+            }.nullSafe();
+
+    /**
+     * Factory of the codecs, to be registered with Gson (declared after the codecs, which it references).
+     */
+    public static final TypeAdapterFactory FACTORY = new CodecFactory();
+
+    /**
+     * Reads a string, or {@code null}. Numbers and booleans are read as strings, like Gson does.
+     *
+     * @param in the reader
+     * @return the value
+     * @throws IOException if the value cannot be read or is not a string
+     */
+    private static String readString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case NULL -> {
+                in.nextNull();
+                return null;
+            }
+            case BOOLEAN -> {
+                return Boolean.toString(in.nextBoolean());
+            }
+            default -> {
+                return in.nextString();
+            }
+        }
+    }
+
+    /**
+     * Reads a boolean, or {@code null}.
+     *
+     * @param in the reader
+     * @return the value
+     * @throws IOException if the value cannot be read or is not a boolean
+     */
+    private static Boolean readBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextBoolean();
+    }
+
+    /**
+     * Reads an array of strings, or {@code null}. Elements that are not strings (such as structured options) are
+     * skipped.
+     *
+     * @param in the reader
+     * @return the strings
+     * @throws IOException if the value cannot be read or is not an array
+     */
+    private static List<String> readStrings(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<String> strings = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            JsonToken token = in.peek();
+            if (token == JsonToken.STRING || token == JsonToken.NUMBER)
+                strings.add(in.nextString());
+            else
+                in.skipValue();
+        }
+        in.endArray();
+        return strings;
+    }
+
+    /**
+     * Reads an object whose values are strings, or {@code null}. Values that are objects or arrays are skipped.
+     *
+     * @param in the reader
+     * @return the entries, in the order they were read
+     * @throws IOException if the value cannot be read or is not an object
+     */
+    private static Map<String, String> readMetadata(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, String> metadata = new LinkedHashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            JsonToken token = in.peek();
+            if (token == JsonToken.BEGIN_OBJECT || token == JsonToken.BEGIN_ARRAY)
+                in.skipValue();
+            else
+                metadata.put(name, readString(in));
+        }
+        in.endObject();
+        return metadata;
+    }
+
+    /**
+     * Reads an array of participants, or {@code null}.
+     *
+     * @param in the reader
+     * @return the participants
+     * @throws IOException if the value cannot be read or is not an array
+     */
+    private static List<BLABClient.Participant> readParticipants(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<BLABClient.Participant> participants = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext())
+            participants.add(PARTICIPANT.read(in));
+        in.endArray();
+        return participants;
+    }
+
+    /**
+     * Writes an array of strings, or {@code null}.
+     *
+     * @param out     the writer
+     * @param strings the strings
+     * @throws IOException if the value cannot be written
+     */
+    private static void writeStrings(JsonWriter out, List<String> strings) throws IOException {
+        if (strings == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (String string : strings)
+            out.value(string);
+        out.endArray();
+    }
+
+    /**
+     * Writes an array of participants, or {@code null}.
+     *
+     * @param out          the writer
+     * @param participants the participants
+     * @throws IOException if the value cannot be written
+     */
+    private static void writeParticipants(JsonWriter out, List<BLABClient.Participant> participants)
+            throws IOException {
+        if (participants == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginArray();
+        for (BLABClient.Participant participant : participants)
+            PARTICIPANT.write(out, participant);
+        out.endArray();
+    }
+
+    /**
+     * Returns the codec of each supported class.
+     */
+    private static final class CodecFactory implements TypeAdapterFactory {
+
+        /**
+         * Codecs, indexed by the class they convert.
+         */
+        private final Map<Class<?>, TypeAdapter<?>> codecs = Map.of(
+                BLABClient.ParticipantType.class, PARTICIPANT_TYPE,
+                BLABClient.Participant.class, PARTICIPANT,
+                BLABClient.ConversationCreationRequestData.class, CREATION_REQUEST,
+                BLABClient.ConversationCreationResponseData.class, CREATION_RESPONSE,
+                BLABClient.WebSocketMessageData.class, WEB_SOCKET_MESSAGE,
+                BLABClient.WebSocketMessageData.Message.class, MESSAGE,
+                BLABClient.WebSocketMessageData.State.class, STATE);
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            return (TypeAdapter<T>) codecs.get(type.getRawType());
+        }
+    }
+}
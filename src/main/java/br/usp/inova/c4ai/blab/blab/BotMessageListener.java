@@ -0,0 +1,17 @@
+package br.usp.inova.c4ai.blab.blab;
+
+/**
+ * Receives the messages sent by the bots of a conversation.
+ */
+@FunctionalInterface
+public interface BotMessageListener {
+
+    /**
+     * Called whenever a bot message is received.
+     *
+     * @param bot  name of the bot that sent the message, or {@code null} if it is unknown (e.g. if BLAB Controller
+     *             does not identify the sender)
+     * @param text text of the message
+     */
+    void onBotMessage(String bot, String text);
+}
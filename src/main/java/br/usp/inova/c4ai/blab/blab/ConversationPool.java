@@ -0,0 +1,417 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import br.usp.inova.c4ai.blab.internal.network.Network;
+import br.usp.inova.c4ai.blab.internal.network.ReconnectPolicy;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps conversations with a given set of bots created in advance, with their WebSocket connections open, so that
+ * a new session can start talking without waiting for the creation of a conversation and the WebSocket handshake.
+ * <p>
+ * A conversation is ready when its WebSocket connection is open. Whenever a ready conversation is taken, another one
+ * is created in the background. Conversations that are not taken within a time limit (including those whose
+ * connection could not be opened) are closed and replaced, so that idle conversations do not go stale.
+ * Bot messages received while a conversation is in the pool are delivered to the session that takes it.
+ */
+public class ConversationPool {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * How long to wait before trying again after a conversation could not be created, in milliseconds.
+     */
+    private static final long RETRY_DELAY = 5000;
+
+    /**
+     * Maximum number of bot messages kept for a conversation until it is taken.
+     */
+    private static final int MAX_EARLY_MESSAGES = 16;
+
+    /**
+     * HTTP and WebSocket handler.
+     */
+    private final Network network;
+
+    /**
+     * JSON parser and serializer.
+     */
+    private final JSONFormat json;
+
+    /**
+     * URL of the HTTP(S) chat API provided by BLAB Controller server.
+     */
+    private final String serverAddress;
+
+    /**
+     * URL of the WebSocket starter provided by BLAB Controller.
+     */
+    private final String wsServerAddress;
+
+    /**
+     * Bots included in the conversations.
+     */
+    private final List<String> bots;
+
+    /**
+     * Buffer size and reconnection delays of the WebSocket connections.
+     */
+    private final ReconnectPolicy reconnectPolicy;
+
+    /**
+     * Number of conversations kept ready.
+     */
+    private final int size;
+
+    /**
+     * How long a conversation can stay in the pool, in milliseconds.
+     */
+    private final long maxIdle;
+
+    /**
+     * Schedules the expiration of conversations and the retries.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Conversations whose connections are open, oldest first.
+     */
+    private final Deque<PooledConversation> ready = new ArrayDeque<>();
+
+    /**
+     * Conversations that are being created or whose connections are not open yet.
+     */
+    private final Set<PooledConversation> pending = new HashSet<>();
+
+    /**
+     * Number of conversation creations waiting to be retried.
+     */
+    private int retries;
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private boolean closed;
+
+    /**
+     * Number of times a ready conversation was taken.
+     */
+    private final LongAdder hits = new LongAdder();
+
+    /**
+     * Number of times no conversation was ready.
+     */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Initializes a pool and starts creating its conversations.
+     *
+     * @param network         HTTP and WebSocket handler
+     * @param json            JSON parser and serializer
+     * @param serverAddress   URL of the HTTP(S) chat API provided by BLAB Controller server
+     * @param wsServerAddress URL of the WebSocket starter provided by BLAB Controller
+     * @param bots            bots included in the conversations
+     * @param reconnectPolicy buffer size and reconnection delays of the WebSocket connections
+     * @param size            number of conversations kept ready
+     * @param maxIdle         how long a conversation can stay in the pool, in milliseconds
+     * @param scheduler       schedules the expiration of conversations and the retries
+     */
+    public ConversationPool(Network network, JSONFormat json, String serverAddress, String wsServerAddress,
+                            List<String> bots, ReconnectPolicy reconnectPolicy, int size, long maxIdle,
+                            ScheduledExecutorService scheduler) {
+        this.network = network;
+        this.json = json;
+        this.serverAddress = serverAddress;
+        this.wsServerAddress = wsServerAddress;
+        this.bots = List.copyOf(bots);
+        this.reconnectPolicy = reconnectPolicy;
+        this.size = size;
+        this.maxIdle = maxIdle;
+        this.scheduler = scheduler;
+        synchronized (this) {
+            replenish();
+        }
+    }
+
+    /**
+     * Returns the bots included in the conversations.
+     *
+     * @return the bot names
+     */
+    public List<String> bots() {
+        return bots;
+    }
+
+    /**
+     * Takes a ready conversation, if any, and starts creating a replacement.
+     *
+     * @return the conversation, or {@code null} if no conversation is ready
+     */
+    synchronized PooledConversation take() {
+        PooledConversation conversation = ready.pollFirst();
+        (conversation != null ? hits : misses).increment();
+        replenish();
+        return conversation;
+    }
+
+    /**
+     * Returns the number of conversations ready to be taken.
+     *
+     * @return the number of ready conversations
+     */
+    public synchronized int readyConversations() {
+        return ready.size();
+    }
+
+    /**
+     * Returns the number of times a ready conversation was taken.
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return hits.sum();
+    }
+
+    /**
+     * Returns the number of times no conversation was ready.
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    /**
+     * Closes the conversations that have not been taken and stops creating new ones.
+     */
+    public void close() {
+        List<PooledConversation> conversations;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            conversations = new ArrayList<>(ready);
+            conversations.addAll(pending);
+            ready.clear();
+            pending.clear();
+        }
+        for (PooledConversation conversation : conversations)
+            conversation.client().disconnect("Pool closed");
+    }
+
+    /**
+     * Starts creating conversations until the number of ready and pending ones reaches the size of the pool.
+     */
+    private void replenish() {
+        while (!closed && ready.size() + pending.size() + retries < size)
+            create();
+    }
+
+    /**
+     * Starts creating a conversation.
+     */
+    private void create() {
+        MessageRelay relay = new MessageRelay();
+        BLABClient client = new BLABClient(network, json, serverAddress, wsServerAddress, relay, reconnectPolicy, null);
+        PooledConversation conversation = new PooledConversation(client, relay);
+        pending.add(conversation);
+        client.startConversation("", bots, " ", conversationId -> onCreated(conversation, conversationId));
+    }
+
+    /**
+     * Handles the result of the creation of a conversation.
+     *
+     * @param conversation   the conversation
+     * @param conversationId ID of the conversation, or {@code null} if it could not be created
+     */
+    private synchronized void onCreated(PooledConversation conversation, String conversationId) {
+        if (!pending.contains(conversation)) {
+            // the pool was closed while the conversation was being created
+            if (conversationId != null)
+                conversation.client().disconnect("Pool closed");
+            return;
+        }
+        if (conversationId == null) {
+            pending.remove(conversation);
+            retries++;
+            if (!schedule(this::retry, RETRY_DELAY))
+                retries--;
+            return;
+        }
+        conversation.conversationId = conversationId;
+        schedule(() -> expire(conversation), maxIdle);
+        conversation.client().whenConnected(() -> onConnected(conversation));
+    }
+
+    /**
+     * Makes a conversation available when its connection is open.
+     *
+     * @param conversation the conversation
+     */
+    private synchronized void onConnected(PooledConversation conversation) {
+        if (pending.remove(conversation)) {
+            ready.addLast(conversation);
+            logger.debug("Conversation {} is ready", conversation.conversationId());
+        }
+    }
+
+    /**
+     * Tries again to create a conversation after a failure.
+     */
+    private synchronized void retry() {
+        retries--;
+        replenish();
+    }
+
+    /**
+     * Closes and replaces a conversation that has not been taken in time.
+     *
+     * @param conversation the conversation
+     */
+    private void expire(PooledConversation conversation) {
+        synchronized (this) {
+            if (!ready.remove(conversation) && !pending.remove(conversation))
+                return;
+            replenish();
+        }
+        logger.debug("Conversation {} expired in the pool", conversation.conversationId());
+        conversation.client().disconnect("Expired");
+    }
+
+    /**
+     * Schedules a task, unless the scheduler has been shut down.
+     *
+     * @param task  the task
+     * @param delay time until the task runs, in milliseconds
+     * @return whether the task was scheduled
+     */
+    private boolean schedule(Runnable task, long delay) {
+        try {
+            scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    /**
+     * A conversation created by the pool.
+     */
+    static final class PooledConversation {
+
+        /**
+         * Client that created the conversation and holds its connection.
+         */
+        private final BLABClient client;
+
+        /**
+         * Delivers the bot messages to the session that takes the conversation.
+         */
+        private final MessageRelay relay;
+
+        /**
+         * ID of the conversation, or {@code null} if it has not been created yet.
+         */
+        private volatile String conversationId;
+
+        private PooledConversation(BLABClient client, MessageRelay relay) {
+            this.client = client;
+            this.relay = relay;
+        }
+
+        /**
+         * Returns the client that created the conversation and holds its connection.
+         *
+         * @return the client
+         */
+        BLABClient client() {
+            return client;
+        }
+
+        /**
+         * Returns the ID of the conversation.
+         *
+         * @return the ID
+         */
+        String conversationId() {
+            return conversationId;
+        }
+
+        /**
+         * Delivers the bot messages received so far, and all the following ones, to a function.
+         *
+         * @param listener the function
+         */
+        void bind(BotMessageListener listener) {
+            relay.bind(listener);
+        }
+    }
+
+    /**
+     * Keeps the bot messages of a conversation until it is taken, and then forwards them to the session.
+     */
+    private static final class MessageRelay implements BotMessageListener {
+
+        /**
+         * Senders and texts of the messages received before the conversation was taken.
+         */
+        private final List<EarlyMessage> earlyMessages = new ArrayList<>();
+
+        /**
+         * Function that receives the messages, or {@code null} if the conversation has not been taken.
+         */
+        private volatile BotMessageListener target;
+
+        @Override
+        public void onBotMessage(String bot, String text) {
+            BotMessageListener t = target;
+            if (t == null) {
+                synchronized (this) {
+                    t = target;
+                    if (t == null) {
+                        if (earlyMessages.size() < MAX_EARLY_MESSAGES)
+                            earlyMessages.add(new EarlyMessage(bot, text));
+                        return;
+                    }
+                }
+            }
+            t.onBotMessage(bot, text);
+        }
+
+        /**
+         * Delivers the messages received so far, and all the following ones, to a function.
+         *
+         * @param listener the function
+         */
+        synchronized void bind(BotMessageListener listener) {
+            for (EarlyMessage message : earlyMessages)
+                listener.onBotMessage(message.bot(), message.text());
+            earlyMessages.clear();
+            target = listener;
+        }
+
+        /**
+         * A message received before the conversation was taken.
+         *
+         * @param bot  name of the bot that sent the message, or {@code null} if unknown
+         * @param text text of the message
+         */
+        private record EarlyMessage(String bot, String text) {
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import br.usp.inova.c4ai.blab.internal.network.Network;
+import br.usp.inova.c4ai.blab.internal.network.ReconnectPolicy;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * The {@link ConversationPool}s of a process, one for each combination of BLAB Controller URLs and bots.
+ * <p>
+ * A pool is created when it is first requested, either in advance (when the settings of the sessions are known) or
+ * by the first session with a given set of bots, which then creates its conversation as usual.
+ */
+public class ConversationPools {
+
+    /**
+     * HTTP and WebSocket handler.
+     */
+    private final Network network;
+
+    /**
+     * JSON parser and serializer.
+     */
+    private final JSONFormat json;
+
+    /**
+     * Number of conversations kept ready in each pool.
+     */
+    private final int size;
+
+    /**
+     * How long a conversation can stay in a pool, in milliseconds.
+     */
+    private final long maxIdle;
+
+    /**
+     * Schedules the expiration of conversations and the retries.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Pools created so far.
+     */
+    private final Map<Key, ConversationPool> pools = new ConcurrentHashMap<>();
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Initializes an instance without pools.
+     *
+     * @param network   HTTP and WebSocket handler
+     * @param json      JSON parser and serializer
+     * @param size      number of conversations kept ready in each pool
+     * @param maxIdle   how long a conversation can stay in a pool, in milliseconds
+     * @param scheduler schedules the expiration of conversations and the retries
+     */
+    public ConversationPools(Network network, JSONFormat json, int size, long maxIdle, ScheduledExecutorService scheduler) {
+        this.network = network;
+        this.json = json;
+        this.size = size;
+        this.maxIdle = maxIdle;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Returns the pool of conversations with the given server and bots, creating it if needed.
+     *
+     * @param serverAddress   URL of the HTTP(S) chat API provided by BLAB Controller server
+     * @param wsServerAddress URL of the WebSocket starter provided by BLAB Controller
+     * @param bots            bots included in the conversations
+     * @param reconnectPolicy buffer size and reconnection delays of the WebSocket connections
+     *                        (used only if the pool is created)
+     * @return the pool, or {@code null} if this instance has been closed
+     */
+    public ConversationPool pool(String serverAddress, String wsServerAddress, List<String> bots, ReconnectPolicy reconnectPolicy) {
+        if (closed)
+            return null;
+        ConversationPool pool = pools.computeIfAbsent(new Key(serverAddress, wsServerAddress, List.copyOf(bots)),
+                key -> new ConversationPool(network, json, serverAddress, wsServerAddress, bots, reconnectPolicy,
+                        size, maxIdle, scheduler));
+        if (closed)
+            pool.close();
+        return pool;
+    }
+
+    /**
+     * Returns the number of conversations ready to be taken in all pools.
+     *
+     * @return the number of ready conversations
+     */
+    public long readyConversations() {
+        return pools.values().stream().mapToLong(ConversationPool::readyConversations).sum();
+    }
+
+    /**
+     * Returns the number of times a ready conversation was taken from any pool.
+     *
+     * @return the number of hits
+     */
+    public long hits() {
+        return pools.values().stream().mapToLong(ConversationPool::hits).sum();
+    }
+
+    /**
+     * Returns the number of times no conversation was ready in a pool.
+     *
+     * @return the number of misses
+     */
+    public long misses() {
+        return pools.values().stream().mapToLong(ConversationPool::misses).sum();
+    }
+
+    /**
+     * Closes all pools.
+     */
+    public void close() {
+        closed = true;
+        pools.values().forEach(ConversationPool::close);
+    }
+
+    /**
+     * Identifies a pool.
+     *
+     * @param serverAddress   URL of the HTTP(S) chat API
+     * @param wsServerAddress URL of the WebSocket starter
+     * @param bots            bots included in the conversations
+     */
+    private record Key(String serverAddress, String wsServerAddress, List<String> bots) {
+    }
+}
@@ -0,0 +1,109 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Encodes text messages sent by the user to BLAB Controller.
+ * <p>
+ * The JSON object {@code {"type":"T","local_id":"...","text":"..."}} is written directly into a buffer that is reused
+ * across messages, and local IDs are generated with a non-cryptographic random number generator (they only need to
+ * be unique within a conversation).
+ * <p>
+ * Instances are thread-safe, but they are intended to be used by a single conversation.
+ */
+final class TextMessageEncoder {
+
+    /**
+     * Hexadecimal digits.
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Initial capacity of the buffer.
+     */
+    private static final int INITIAL_CAPACITY = 256;
+
+    /**
+     * Maximum capacity that the buffer keeps between messages; larger buffers are discarded after use.
+     */
+    private static final int MAX_RETAINED_CAPACITY = 8 * 1024;
+
+    /**
+     * Buffer in which messages are written.
+     */
+    private StringBuilder buffer = new StringBuilder(INITIAL_CAPACITY);
+
+    /**
+     * Encodes a text message with a new random local ID.
+     *
+     * @param text the message text
+     * @return the JSON representation of the message
+     */
+    synchronized String encode(String text) {
+        StringBuilder sb = buffer;
+        sb.setLength(0);
+        sb.append("{\"type\":\"T\",\"local_id\":\"");
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        appendHex(sb, random.nextLong());
+        appendHex(sb, random.nextLong());
+        sb.append("\",\"text\":\"");
+        appendEscaped(sb, text);
+        sb.append("\"}");
+        String result = sb.toString();
+        if (sb.capacity() > MAX_RETAINED_CAPACITY)
+            buffer = new StringBuilder(INITIAL_CAPACITY);
+        return result;
+    }
+
+    /**
+     * Appends the 16 hexadecimal digits of a number.
+     *
+     * @param sb    the buffer
+     * @param value the number
+     */
+    private static void appendHex(StringBuilder sb, long value) {
+        for (int shift = 60; shift >= 0; shift -= 4)
+            sb.append(HEX[(int) (value >>> shift) & 0xf]);
+    }
+
+    /**
+     * Appends the contents of a JSON string literal (without the quotes).
+     * <p>
+     * Like Gson's default configuration, HTML-sensitive characters are also escaped.
+     *
+     * @param sb   the buffer
+     * @param text the string to be escaped
+     */
+    static void appendEscaped(StringBuilder sb, String text) {
+        int length = text.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            String replacement;
+            if (c == '"')
+                replacement = "\\\"";
+            else if (c == '\\')
+                replacement = "\\\\";
+            else if (c == '\n')
+                replacement = "\\n";
+            else if (c == '\r')
+                replacement = "\\r";
+            else if (c == '\t')
+                replacement = "\\t";
+            else if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '=' || c == '\'' || c == '\u2028' || c == '\u2029')
+                replacement = null;
+            else
+                continue;
+            sb.append(text, start, i);
+            if (replacement != null) {
+                sb.append(replacement);
+            } else {
+                sb.append("\\u");
+                for (int shift = 12; shift >= 0; shift -= 4)
+                    sb.append(HEX[(c >>> shift) & 0xf]);
+            }
+            start = i + 1;
+        }
+        sb.append(text, start, length);
+    }
+}
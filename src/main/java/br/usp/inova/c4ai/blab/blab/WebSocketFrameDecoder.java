@@ -0,0 +1,195 @@
+package br.usp.inova.c4ai.blab.blab;
+
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts bot messages and participant lists from WebSocket frames received from BLAB Controller.
+ * <p>
+ * Frames are parsed token by token: only {@code message.type}, {@code message.sent_by_human},
+ * {@code message.sender_id}, {@code message.text} and the IDs and names of {@code state.participants} are read,
+ * and every other value is skipped without being materialized.
+ * <p>
+ * Both text frames and binary frames (with UTF-8 encoded JSON) are accepted.
+ */
+final class WebSocketFrameDecoder {
+
+    /**
+     * JSON parser.
+     */
+    private final JSONFormat json;
+
+    /**
+     * Initializes an instance.
+     *
+     * @param json JSON parser
+     */
+    WebSocketFrameDecoder(JSONFormat json) {
+        this.json = json;
+    }
+
+    /**
+     * Extracts the relevant contents of a frame.
+     *
+     * @param frame the contents of a WebSocket frame
+     * @return the contents, or {@code null} if the frame contains neither a text message sent by a bot nor a list
+     * of participants
+     * @throws IOException if the frame is not valid JSON
+     */
+    DecodedFrame decode(String frame) throws IOException {
+        return decode(json.newReader(frame));
+    }
+
+    /**
+     * Extracts the relevant contents of a binary frame (a UTF-8 encoded JSON document).
+     * The frame is decoded as it is parsed.
+     *
+     * @param frame the contents of a WebSocket frame (the position of the buffer is not changed)
+     * @return the contents, or {@code null} if the frame contains neither a text message sent by a bot nor a list
+     * of participants
+     * @throws IOException if the frame is not valid JSON
+     */
+    DecodedFrame decode(ByteBuffer frame) throws IOException {
+        return decode(json.newReader(frame));
+    }
+
+    /**
+     * Extracts the relevant contents of a frame.
+     *
+     * @param frameReader a reader positioned at the beginning of the frame (it is closed by this method)
+     * @return the contents, or {@code null} if the frame contains neither a text message sent by a bot nor a list
+     * of participants
+     * @throws IOException if the frame is not valid JSON
+     */
+    private static DecodedFrame decode(JsonReader frameReader) throws IOException {
+        try (JsonReader reader = frameReader) {
+            DecodedFrame message = null;
+            DecodedFrame state = null;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (reader.peek() != JsonToken.BEGIN_OBJECT)
+                    reader.skipValue();
+                else if ("message".equals(name))
+                    message = readBotMessage(reader);
+                else if ("state".equals(name))
+                    state = readState(reader);
+                else
+                    reader.skipValue();
+            }
+            reader.endObject();
+            // a frame may carry both, in any order
+            if (message == null || state == null)
+                return message != null ? message : state;
+            return new DecodedFrame(message.senderId(), message.text(), state.participants());
+        } catch (IllegalStateException e) {
+            throw new IOException("Unexpected frame structure", e);
+        }
+    }
+
+    /**
+     * Reads a message object.
+     *
+     * @param reader a reader positioned at the beginning of the message object
+     * @return the sender and text if it is a text message sent by a bot, or {@code null} otherwise
+     * @throws IOException if the message is not valid JSON
+     */
+    private static DecodedFrame readBotMessage(JsonReader reader) throws IOException {
+        String type = null;
+        boolean sentByHuman = false;
+        String senderId = null;
+        String text = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "type" -> type = reader.nextString();
+                case "sent_by_human" -> sentByHuman = reader.nextBoolean();
+                case "sender_id" -> senderId = reader.nextString();
+                case "text" -> {
+                    if ((type == null || "T".equals(type)) && !sentByHuman)
+                        text = reader.nextString();
+                    else
+                        reader.skipValue();
+                }
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return "T".equals(type) && !sentByHuman && text != null ? new DecodedFrame(senderId, text, null) : null;
+    }
+
+    /**
+     * Reads a state object.
+     *
+     * @param reader a reader positioned at the beginning of the state object
+     * @return the participants, or {@code null} if the state does not contain them
+     * @throws IOException if the state is not valid JSON
+     */
+    private static DecodedFrame readState(JsonReader reader) throws IOException {
+        Map<String, String> participants = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            if ("participants".equals(reader.nextName()) && reader.peek() == JsonToken.BEGIN_ARRAY) {
+                participants = new HashMap<>();
+                reader.beginArray();
+                while (reader.hasNext())
+                    readParticipant(reader, participants);
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return participants != null ? new DecodedFrame(null, null, participants) : null;
+    }
+
+    /**
+     * Reads a participant object.
+     *
+     * @param reader       a reader positioned at the beginning of the participant object
+     * @param participants map where the name of the participant is stored, indexed by its ID
+     * @throws IOException if the participant is not valid JSON
+     */
+    private static void readParticipant(JsonReader reader, Map<String, String> participants) throws IOException {
+        String id = null;
+        String name = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String key = reader.nextName();
+            if (reader.peek() == JsonToken.NULL)
+                reader.nextNull();
+            else if ("id".equals(key))
+                id = reader.nextString();
+            else if ("name".equals(key))
+                name = reader.nextString();
+            else
+                reader.skipValue();
+        }
+        reader.endObject();
+        if (id != null && name != null)
+            participants.put(id, name);
+    }
+
+    /**
+     * Relevant contents of a frame.
+     *
+     * @param senderId     participant ID of the bot that sent the message, or {@code null} if unknown or if the
+     *                     frame does not contain a message
+     * @param text         text of the bot message, or {@code null} if the frame does not contain a message
+     * @param participants names of the participants indexed by their IDs, or {@code null} if the frame does not
+     *                     contain a list of participants
+     */
+    record DecodedFrame(String senderId, String text, Map<String, String> participants) {
+    }
+}
@@ -0,0 +1,644 @@
+package br.usp.inova.c4ai.blab.cluster;
+
+import br.usp.inova.c4ai.blab.BLABHumanRoboticsGateway;
+import br.usp.inova.c4ai.blab.ConversationHandoff;
+import br.usp.inova.c4ai.blab.hr.RobotControl;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Member of a cluster of gateway processes that split a fleet of robots among themselves.
+ * <p>
+ * Every node is given the same fleet (the settings of every robot), and runs the sessions of the robots that it owns:
+ * the owner of a robot is chosen by consistent hashing of its robot ID ({@code ROBIOS_ROBOT_ID}) over the nodes that
+ * are alive, so every node computes the same owners from the same membership, and a membership change moves only a
+ * fraction of the robots. The membership and the state of each session are kept by a {@link Coordinator}.
+ * <p>
+ * Periodically, each node announces itself and compares the owners with the sessions it runs:
+ * <ul>
+ *     <li>a session of a robot that now belongs to another node is closed after its current turn, and its
+ *     conversation ID and session cookie are published (status {@link SessionRecord.Status#RELEASED});</li>
+ *     <li>a robot that belongs to this node is started once its previous owner has released it (continuing its
+ *     conversation), or immediately if it has no session or its previous owner has died (continuing the last
+ *     conversation that the dead node published).</li>
+ * </ul>
+ * A node that cannot reach the coordinator for longer than the node timeout stops its sessions, since the other
+ * nodes consider it dead and take its robots over.
+ * <p>
+ * All changes of the state are made by a single thread.
+ */
+public class ClusterNode implements Closeable {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Number of times an update of the shared state of a session is retried when other nodes change it meanwhile.
+     */
+    private static final int MAX_UPDATE_ATTEMPTS = 5;
+
+    /**
+     * Gateway that runs the sessions owned by this node.
+     */
+    private final BLABHumanRoboticsGateway gateway;
+
+    /**
+     * Shared state of the cluster.
+     */
+    private final Coordinator coordinator;
+
+    /**
+     * ID of this node.
+     */
+    private final String nodeId;
+
+    /**
+     * Interval between heartbeats, in milliseconds.
+     */
+    private final long heartbeatInterval;
+
+    /**
+     * How long after its last heartbeat a node is considered dead, in milliseconds.
+     */
+    private final long nodeTimeout;
+
+    /**
+     * Number of points of each node in the hash ring.
+     */
+    private final int virtualNodes;
+
+    /**
+     * How long {@link #close()} waits for the sessions to finish their current turns, in milliseconds.
+     */
+    private final long shutdownGracePeriod;
+
+    /**
+     * Thread that makes all changes of the state.
+     */
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "cluster");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Fleet of robots, indexed by robot ID.
+     */
+    private final Map<String, Robot> robots = new ConcurrentHashMap<>();
+
+    /**
+     * Number of sessions closed so that another node continues them.
+     */
+    private final LongAdder handoffs = new LongAdder();
+
+    /**
+     * Number of sessions taken over from nodes that died.
+     */
+    private final LongAdder takeovers = new LongAdder();
+
+    /**
+     * Nodes that are alive, including this one.
+     */
+    private volatile Set<String> members = Set.of();
+
+    /**
+     * Owners of the robots, computed from {@link #members}.
+     */
+    private HashRing ring = new HashRing(Set.of(), 1);
+
+    /**
+     * When the last heartbeat was announced (from {@link System#nanoTime()}).
+     */
+    private long lastHeartbeat = System.nanoTime();
+
+    /**
+     * Whether {@link #close()} has been called (no session is started afterwards).
+     */
+    private boolean closing;
+
+    /**
+     * Initializes an instance, which starts taking part in the cluster when {@link #start()} is called.
+     *
+     * @param gateway     gateway that runs the sessions owned by this node
+     * @param coordinator shared state of the cluster
+     * @param settings    process-wide settings (see *README.md* for details)
+     */
+    public ClusterNode(BLABHumanRoboticsGateway gateway, Coordinator coordinator, Properties settings) {
+        this.gateway = gateway;
+        this.coordinator = coordinator;
+        String nodeId = settings.getProperty("CLUSTER_NODE_ID", "");
+        this.nodeId = nodeId.isBlank() ? defaultNodeId() : nodeId.strip();
+        this.heartbeatInterval = Long.parseLong(settings.getProperty("CLUSTER_HEARTBEAT_INTERVAL", "1000"));
+        this.nodeTimeout = Long.parseLong(settings.getProperty("CLUSTER_NODE_TIMEOUT", "5000"));
+        this.virtualNodes = Integer.parseInt(settings.getProperty("CLUSTER_VIRTUAL_NODES", "64"));
+        this.shutdownGracePeriod = Long.parseLong(settings.getProperty("SHUTDOWN_GRACE_PERIOD", "10000"));
+        gateway.metrics().addGauge("cluster_nodes", "Gateway processes alive in the cluster.", () -> members.size());
+        gateway.metrics().addGauge("cluster_robots", "Robots in the fleet of this node.", robots::size);
+        gateway.metrics().addCounter("cluster_handoffs", "Sessions closed so that another node continues them.", handoffs::sum);
+        gateway.metrics().addCounter("cluster_takeovers", "Sessions taken over from nodes that died.", takeovers::sum);
+    }
+
+    /**
+     * Returns a node ID made of the host name and the process ID.
+     *
+     * @return the ID
+     */
+    private static String defaultNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            host = "node";
+        }
+        return host.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + ProcessHandle.current().pid();
+    }
+
+    /**
+     * Returns the ID of this node.
+     *
+     * @return the ID
+     */
+    public String nodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Starts announcing this node and running the sessions of the robots it owns.
+     */
+    public void start() {
+        logger.info("Joining the cluster as node {}", nodeId);
+        executor.scheduleWithFixedDelay(this::tick, 0, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Adds a robot to the fleet of this node.
+     *
+     * @param name   a unique name that identifies the session of the robot
+     * @param config configuration of the session (see *README.md* for details)
+     * @throws IllegalArgumentException if a robot with the same name or robot ID already exists
+     */
+    public void addRobot(String name, Properties config) {
+        addRobot(name, config, null);
+    }
+
+    /**
+     * Adds a robot to the fleet of this node, with a custom robot control (such as a simulated one).
+     * <p>
+     * A robot whose conversation has ended, or whose session was run by a node that is no longer alive, starts a
+     * new conversation.
+     *
+     * @param name         a unique name that identifies the session of the robot
+     * @param config       configuration of the session (see *README.md* for details)
+     * @param robotFactory function that creates the robot, given the function to be called with the user's messages,
+     *                     or {@code null} to control a robot with Robios
+     * @throws IllegalArgumentException if a robot with the same name or robot ID already exists
+     */
+    public void addRobot(String name, Properties config, Function<Consumer<String>, RobotControl> robotFactory) {
+        String robotId = config.getProperty("ROBIOS_ROBOT_ID", "");
+        Robot robot = new Robot(robotId.isBlank() ? name : robotId.strip(), name, config, robotFactory);
+        if (robots.values().stream().anyMatch(r -> r.name.equals(name)) || robots.putIfAbsent(robot.id, robot) != null)
+            throw new IllegalArgumentException("Robot already exists: " + name + " (" + robot.id + ")");
+    }
+
+    /**
+     * Removes a robot from the fleet of this node and ends its conversation, on whichever node runs it (the other
+     * nodes keep the robot in their fleets, but do not serve it until it is added again).
+     *
+     * @param name        name of the session of the robot
+     * @param immediately whether the session is stopped immediately, or after its current turn
+     * @return {@code true} if the robot was in the fleet, {@code false} otherwise
+     */
+    public boolean removeRobot(String name, boolean immediately) {
+        Robot robot = robots.values().stream().filter(r -> r.name.equals(name)).findFirst().orElse(null);
+        if (robot == null || !robots.remove(robot.id, robot))
+            return false;
+        execute(() -> retire(robot, immediately));
+        return true;
+    }
+
+    /**
+     * Returns the names of the robots in the fleet of this node.
+     *
+     * @return an unmodifiable snapshot of the names
+     */
+    public Set<String> robotNames() {
+        Set<String> names = new TreeSet<>();
+        robots.values().forEach(robot -> names.add(robot.name));
+        return Set.copyOf(names);
+    }
+
+    /**
+     * Returns the nodes that are alive, as last seen by this node.
+     *
+     * @return the IDs of the nodes
+     */
+    public Set<String> members() {
+        return members;
+    }
+
+    /**
+     * Announces this node, updates the membership and reconciles the sessions with the owners of the robots.
+     */
+    private void tick() {
+        if (closing)
+            return;
+        try {
+            coordinator.heartbeat(nodeId);
+            lastHeartbeat = System.nanoTime();
+            Set<String> live = new HashSet<>(coordinator.liveNodes());
+            live.add(nodeId);
+            if (!live.equals(members)) {
+                logger.info("Cluster members: {}", new TreeSet<>(live));
+                members = Set.copyOf(live);
+                ring = new HashRing(live, virtualNodes);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("Could not reach the cluster coordinator", e);
+            if (System.nanoTime() - lastHeartbeat > TimeUnit.MILLISECONDS.toNanos(nodeTimeout))
+                fence();
+            return;
+        }
+        for (Robot robot : robots.values()) {
+            try {
+                reconcile(robot);
+            } catch (IOException | RuntimeException e) {
+                logger.error("Could not update the session of robot \"{}\"", robot.name, e);
+            }
+        }
+    }
+
+    /**
+     * Starts, hands off or records the end of the session of a robot, according to its owner.
+     *
+     * @param robot the robot
+     * @throws IOException if the shared state cannot be read or updated
+     */
+    private void reconcile(Robot robot) throws IOException {
+        if (!robot.checked) {
+            // conversations that ended, or that were left by nodes that are gone (e.g. in a previous run), are not
+            // continued when a robot is added
+            SessionRecord record = coordinator.session(robot.id);
+            if (record != null && (record.status() == SessionRecord.Status.ENDED || !members.contains(record.owner()))
+                    && !coordinator.compareAndSet(robot.id, record, null))
+                return;
+            robot.checked = true;
+        }
+        String owner = ring.owner(robot.id);
+        boolean mine = nodeId.equals(owner);
+        if (robot.running) {
+            if (robot.release != null)
+                return;
+            if (robot.ended.isDone()) {
+                sessionEnded(robot);
+            } else if (!mine) {
+                handOff(robot, owner);
+            } else {
+                SessionRecord record = coordinator.session(robot.id);
+                if (record != null && record.status() == SessionRecord.Status.ENDED) {
+                    logger.info("Conversation of robot \"{}\" was ended by another node; closing it after the current turn", robot.name);
+                    robot.running = false;
+                    gateway.closeSession(robot.name);
+                } else {
+                    publish(robot, record);
+                }
+            }
+            return;
+        }
+        if (!mine)
+            return;
+        SessionRecord record = coordinator.session(robot.id);
+        ConversationHandoff handoff = null;
+        if (record != null) {
+            switch (record.status()) {
+                case ENDED -> {
+                    return;
+                }
+                case RELEASED -> handoff = record.conversation();
+                case ACTIVE -> {
+                    if (!nodeId.equals(record.owner())) {
+                        if (members.contains(record.owner())) {
+                            logger.debug("Waiting for node {} to hand robot \"{}\" off", record.owner(), robot.name);
+                            return;
+                        }
+                        logger.warn("Node {} is gone; taking robot \"{}\" over", record.owner(), robot.name);
+                        takeovers.increment();
+                    }
+                    handoff = record.conversation();
+                }
+            }
+        }
+        if (coordinator.compareAndSet(robot.id, record, new SessionRecord(nodeId, SessionRecord.Status.ACTIVE, handoff)))
+            startSession(robot, handoff);
+    }
+
+    /**
+     * Starts the session of a robot owned by this node.
+     *
+     * @param robot   the robot
+     * @param handoff the conversation to be continued, or {@code null} to start a new one
+     */
+    private void startSession(Robot robot, ConversationHandoff handoff) {
+        try {
+            if (robot.robotFactory != null)
+                gateway.addSession(robot.name, robot.config, robot.robotFactory, handoff);
+            else
+                gateway.addSession(robot.name, robot.config, handoff);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Previous session of robot \"{}\" has not been removed yet; it will be started later", robot.name);
+            return;
+        }
+        CompletableFuture<Void> ended = gateway.whenEnded(robot.name);
+        robot.running = true;
+        robot.ended = ended != null ? ended : CompletableFuture.completedFuture(null);
+        robot.published = handoff;
+    }
+
+    /**
+     * Publishes the conversation of a running session, once it is known, so that it can be continued if this node
+     * dies.
+     *
+     * @param robot  the robot
+     * @param record current state of the session
+     * @throws IOException if the shared state cannot be read or updated
+     */
+    private void publish(Robot robot, SessionRecord record) throws IOException {
+        ConversationHandoff conversation = gateway.conversation(robot.name);
+        if (conversation == null || conversation.equals(robot.published))
+            return;
+        if (record != null && nodeId.equals(record.owner()) && coordinator.compareAndSet(robot.id, record,
+                new SessionRecord(nodeId, SessionRecord.Status.ACTIVE, conversation)))
+            robot.published = conversation;
+    }
+
+    /**
+     * Records that the conversation of a robot has ended by itself (the robot is not served until it is added
+     * again).
+     *
+     * @param robot the robot
+     * @throws IOException if the shared state cannot be read or updated
+     */
+    private void sessionEnded(Robot robot) throws IOException {
+        robot.running = false;
+        gateway.removeSession(robot.name);
+        logger.info("Conversation of robot \"{}\" has ended", robot.name);
+        endRecord(robot);
+    }
+
+    /**
+     * Closes the session of a robot after its current turn, so that its new owner continues the conversation.
+     *
+     * @param robot the robot
+     * @param owner ID of the new owner
+     * @return a future completed when the conversation has been released
+     */
+    private CompletableFuture<Void> handOff(Robot robot, String owner) {
+        CompletableFuture<ConversationHandoff> closed = gateway.handOff(robot.name);
+        if (closed == null) {
+            robot.running = false;
+            return CompletableFuture.completedFuture(null);
+        }
+        if (owner != null)
+            logger.info("Robot \"{}\" now belongs to node {}; handing it off after the current turn", robot.name, owner);
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        robot.release = release;
+        closed.whenComplete((conversation, e) -> execute(() -> {
+            released(robot, conversation);
+            release.complete(null);
+        }));
+        return release;
+    }
+
+    /**
+     * Publishes the conversation of a session that has been closed, so that the new owner continues it.
+     *
+     * @param robot        the robot
+     * @param conversation the conversation, or {@code null} if it was never created
+     */
+    private void released(Robot robot, ConversationHandoff conversation) {
+        robot.running = false;
+        robot.release = null;
+        try {
+            SessionRecord record = coordinator.session(robot.id);
+            if (record != null && nodeId.equals(record.owner()) && record.status() == SessionRecord.Status.ACTIVE
+                    && coordinator.compareAndSet(robot.id, record, new SessionRecord(nodeId, SessionRecord.Status.RELEASED,
+                    conversation != null ? conversation : record.conversation()))) {
+                handoffs.increment();
+                logger.info("Robot \"{}\" released", robot.name);
+            }
+        } catch (IOException e) {
+            logger.error("Could not release robot \"{}\"", robot.name, e);
+        }
+    }
+
+    /**
+     * Stops the session of a robot removed from the fleet, if it runs on this node, and records that its
+     * conversation has ended, whichever node runs it (that node stops its session when it sees the record).
+     *
+     * @param robot       the robot
+     * @param immediately whether the session is stopped immediately, or after its current turn
+     */
+    private void retire(Robot robot, boolean immediately) {
+        if (robot.running) {
+            robot.running = false;
+            if (immediately)
+                gateway.removeSession(robot.name);
+            else
+                gateway.closeSession(robot.name);
+        }
+        try {
+            for (int attempt = 0; attempt < MAX_UPDATE_ATTEMPTS; attempt++) {
+                SessionRecord record = coordinator.session(robot.id);
+                if (record != null && record.status() == SessionRecord.Status.ENDED)
+                    return;
+                SessionRecord ended = record != null
+                        ? new SessionRecord(record.owner(), SessionRecord.Status.ENDED, record.conversation())
+                        : new SessionRecord(nodeId, SessionRecord.Status.ENDED, null);
+                if (coordinator.compareAndSet(robot.id, record, ended))
+                    return;
+            }
+            logger.error("Could not end the session of robot \"{}\": it is being updated by other nodes", robot.name);
+        } catch (IOException e) {
+            logger.error("Could not end the session of robot \"{}\"", robot.name, e);
+        }
+    }
+
+    /**
+     * Marks the session of a robot as ended, if it belongs to this node.
+     *
+     * @param robot the robot
+     * @throws IOException if the shared state cannot be read or updated
+     */
+    private void endRecord(Robot robot) throws IOException {
+        SessionRecord record = coordinator.session(robot.id);
+        if (record != null && nodeId.equals(record.owner()))
+            coordinator.compareAndSet(robot.id, record, new SessionRecord(nodeId, SessionRecord.Status.ENDED, record.conversation()));
+    }
+
+    /**
+     * Stops the sessions of this node, which the other nodes are taking over since they have not heard from it.
+     */
+    private void fence() {
+        boolean stopped = false;
+        for (Robot robot : robots.values()) {
+            if (robot.running) {
+                gateway.removeSession(robot.name);
+                robot.running = false;
+                robot.release = null;
+                stopped = true;
+            }
+        }
+        if (stopped)
+            logger.error("Lost contact with the cluster for more than {}ms; sessions stopped so that other nodes take them over",
+                    Unbox.box(nodeTimeout));
+    }
+
+    /**
+     * Runs a task on the thread of this node, unless it has been shut down.
+     *
+     * @param task the task
+     */
+    private void execute(Runnable task) {
+        try {
+            executor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.debug("Cluster node has been closed; task ignored");
+        }
+    }
+
+    /**
+     * Leaves the cluster: hands the sessions of this node off to the remaining nodes, giving them up to
+     * {@code SHUTDOWN_GRACE_PERIOD} milliseconds to finish their current turns (the remaining ones are stopped, and
+     * their conversations are continued anyway).
+     * <p>
+     * The gateway is not closed.
+     */
+    @Override
+    public void close() {
+        List<CompletableFuture<Void>> releases = new ArrayList<>();
+        try {
+            executor.submit(() -> {
+                closing = true;
+                for (Robot robot : robots.values()) {
+                    if (robot.release != null)
+                        releases.add(robot.release);
+                    else if (robot.running)
+                        releases.add(handOff(robot, null));
+                }
+            }).get();
+            CompletableFuture.allOf(releases.toArray(CompletableFuture[]::new)).get(shutdownGracePeriod, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.warn("Sessions did not finish their turns within {}ms", Unbox.box(shutdownGracePeriod));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Could not hand sessions off", e);
+        }
+        try {
+            executor.submit(() -> {
+                for (Robot robot : robots.values()) {
+                    if (robot.running) {
+                        ConversationHandoff conversation = gateway.conversation(robot.name);
+                        gateway.removeSession(robot.name);
+                        released(robot, conversation);
+                    }
+                }
+                coordinator.leave(nodeId);
+                return null;
+            }).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            logger.error("Could not leave the cluster", e);
+        }
+        executor.shutdown();
+        try {
+            coordinator.close();
+        } catch (IOException e) {
+            logger.error("Could not close the cluster coordinator", e);
+        }
+    }
+
+    /**
+     * A robot of the fleet. Its mutable fields are used only by the thread of the node.
+     */
+    private static final class Robot {
+
+        /**
+         * Robot ID (the key in the hash ring).
+         */
+        private final String id;
+
+        /**
+         * Name of the session.
+         */
+        private final String name;
+
+        /**
+         * Configuration of the session.
+         */
+        private final Properties config;
+
+        /**
+         * Function that creates the robot control, or {@code null} to control a robot with Robios.
+         */
+        private final Function<Consumer<String>, RobotControl> robotFactory;
+
+        /**
+         * Whether stale shared state has been discarded since the robot was added.
+         */
+        private boolean checked;
+
+        /**
+         * Whether the session runs on this node.
+         */
+        private boolean running;
+
+        /**
+         * Completed when the session ends (if it is running).
+         */
+        private CompletableFuture<Void> ended;
+
+        /**
+         * Completed when the conversation has been released, if the session is being handed off, or {@code null}.
+         */
+        private CompletableFuture<Void> release;
+
+        /**
+         * Last conversation published for this session.
+         */
+        private ConversationHandoff published;
+
+        private Robot(String id, String name, Properties config, Function<Consumer<String>, RobotControl> robotFactory) {
+            this.id = id;
+            this.name = name;
+            this.config = config;
+            this.robotFactory = robotFactory;
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package br.usp.inova.c4ai.blab.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Shared state of a cluster of gateway processes: which nodes are alive, and the state of the session of each robot.
+ * <p>
+ * Implementations may keep the state in files, in a multicast group, in a database and so on; they must be usable by
+ * every node of the cluster and guarantee that {@link #compareAndSet(String, SessionRecord, SessionRecord)} is atomic
+ * across all of them.
+ */
+public interface Coordinator extends Closeable {
+
+    /**
+     * Announces that a node is alive. Nodes call this method periodically; a node that has not called it for a
+     * while is considered dead.
+     *
+     * @param nodeId ID of the node
+     * @throws IOException if the shared state cannot be updated
+     */
+    void heartbeat(String nodeId) throws IOException;
+
+    /**
+     * Returns the nodes that are alive.
+     *
+     * @return the IDs of the nodes that have announced themselves recently and have not left
+     * @throws IOException if the shared state cannot be read
+     */
+    Set<String> liveNodes() throws IOException;
+
+    /**
+     * Removes a node from the cluster (when it shuts down), without waiting for it to be considered dead.
+     *
+     * @param nodeId ID of the node
+     * @throws IOException if the shared state cannot be updated
+     */
+    void leave(String nodeId) throws IOException;
+
+    /**
+     * Returns the state of the session of a robot.
+     *
+     * @param robotId ID of the robot
+     * @return the state, or {@code null} if there is none
+     * @throws IOException if the shared state cannot be read
+     */
+    SessionRecord session(String robotId) throws IOException;
+
+    /**
+     * Replaces the state of the session of a robot if it is equal to an expected one.
+     *
+     * @param robotId  ID of the robot
+     * @param expected the expected state, or {@code null} if it is expected not to exist
+     * @param update   the new state, or {@code null} to remove it
+     * @return whether the state was replaced
+     * @throws IOException if the shared state cannot be read or updated
+     */
+    boolean compareAndSet(String robotId, SessionRecord expected, SessionRecord update) throws IOException;
+}
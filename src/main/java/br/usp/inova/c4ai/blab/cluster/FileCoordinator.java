@@ -0,0 +1,213 @@
+package br.usp.inova.c4ai.blab.cluster;
+
+import br.usp.inova.c4ai.blab.ConversationHandoff;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Properties;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Coordinator that keeps the shared state in a directory, for nodes that run on the same machine (or share a file
+ * system that supports locks).
+ * <p>
+ * Each node has a file in {@code nodes/} with the time of its last heartbeat, and each robot has a properties file in
+ * {@code sessions/} with the state of its session (which includes its session cookie, so the files are readable only
+ * by their owner). Files are replaced atomically, and updates of the sessions are serialized by a lock on the file
+ * {@code lock}.
+ */
+public final class FileCoordinator implements Coordinator {
+
+    /**
+     * Valid node IDs (which are used as file names).
+     */
+    private static final Pattern NODE_ID = Pattern.compile("[A-Za-z0-9._-]+");
+
+    /**
+     * Serializes the updates made by the coordinators of this process, since a process cannot hold two locks on the
+     * same file (which happens when several nodes run in the same process, e.g. in tests).
+     */
+    private static final Object processLock = new Object();
+
+    /**
+     * Directory of the heartbeat files of the nodes.
+     */
+    private final Path nodes;
+
+    /**
+     * Directory of the session files of the robots.
+     */
+    private final Path sessions;
+
+    /**
+     * File locked while a session file is updated.
+     */
+    private final Path lockFile;
+
+    /**
+     * How long after its last heartbeat a node is considered dead, in milliseconds.
+     */
+    private final long nodeTimeout;
+
+    /**
+     * Initializes an instance, creating the directory if necessary.
+     *
+     * @param directory   the shared directory
+     * @param nodeTimeout how long after its last heartbeat a node is considered dead, in milliseconds
+     * @throws IOException if the directory cannot be created
+     */
+    public FileCoordinator(Path directory, long nodeTimeout) throws IOException {
+        this.nodes = Files.createDirectories(directory.resolve("nodes"));
+        this.sessions = Files.createDirectories(directory.resolve("sessions"));
+        this.lockFile = directory.resolve("lock");
+        this.nodeTimeout = nodeTimeout;
+    }
+
+    @Override
+    public void heartbeat(String nodeId) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("heartbeat", Long.toString(System.currentTimeMillis()));
+        write(nodeFile(nodeId), properties);
+    }
+
+    @Override
+    public Set<String> liveNodes() throws IOException {
+        Set<String> live = new HashSet<>();
+        long now = System.currentTimeMillis();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(nodes)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (!NODE_ID.matcher(name).matches() || name.endsWith(".tmp"))
+                    continue;
+                Properties properties = read(file);
+                try {
+                    if (properties != null && now - Long.parseLong(properties.getProperty("heartbeat", "")) <= nodeTimeout)
+                        live.add(name);
+                } catch (NumberFormatException e) {
+                    // not a heartbeat file
+                }
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public void leave(String nodeId) throws IOException {
+        Files.deleteIfExists(nodeFile(nodeId));
+    }
+
+    @Override
+    public SessionRecord session(String robotId) throws IOException {
+        Properties properties = read(sessionFile(robotId));
+        if (properties == null)
+            return null;
+        String conversationId = properties.getProperty("conversation_id");
+        return new SessionRecord(properties.getProperty("owner"),
+                SessionRecord.Status.valueOf(properties.getProperty("status").toUpperCase(Locale.ROOT)),
+                conversationId != null ? new ConversationHandoff(conversationId, properties.getProperty("session_id")) : null);
+    }
+
+    @Override
+    public boolean compareAndSet(String robotId, SessionRecord expected, SessionRecord update) throws IOException {
+        synchronized (processLock) {
+            try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                // released when the channel is closed
+                channel.lock();
+                if (!Objects.equals(session(robotId), expected))
+                    return false;
+                Path file = sessionFile(robotId);
+                if (update == null) {
+                    Files.deleteIfExists(file);
+                    return true;
+                }
+                Properties properties = new Properties();
+                properties.setProperty("owner", update.owner());
+                properties.setProperty("status", update.status().name().toLowerCase(Locale.ROOT));
+                if (update.conversation() != null) {
+                    properties.setProperty("conversation_id", update.conversation().conversationId());
+                    if (update.conversation().sessionId() != null)
+                        properties.setProperty("session_id", update.conversation().sessionId());
+                }
+                write(file, properties);
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    /**
+     * Returns the heartbeat file of a node.
+     *
+     * @param nodeId ID of the node
+     * @return the file
+     * @throws IllegalArgumentException if the ID is not a valid file name
+     */
+    private Path nodeFile(String nodeId) {
+        if (!NODE_ID.matcher(nodeId).matches())
+            throw new IllegalArgumentException("Invalid node ID (only letters, digits, '.', '_' and '-' are allowed): " + nodeId);
+        return nodes.resolve(nodeId);
+    }
+
+    /**
+     * Returns the session file of a robot.
+     *
+     * @param robotId ID of the robot
+     * @return the file
+     */
+    private Path sessionFile(String robotId) {
+        return sessions.resolve(URLEncoder.encode(robotId, StandardCharsets.UTF_8) + ".properties");
+    }
+
+    /**
+     * Reads a properties file.
+     *
+     * @param file the file
+     * @return the properties, or {@code null} if the file does not exist
+     * @throws IOException if the file cannot be read
+     */
+    private static Properties read(Path file) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return properties;
+    }
+
+    /**
+     * Replaces a properties file atomically (the new file is readable only by its owner).
+     *
+     * @param file       the file
+     * @param properties the new contents
+     * @throws IOException if the file cannot be written
+     */
+    private static void write(Path file, Properties properties) throws IOException {
+        Path tmp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                properties.store(writer, null);
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
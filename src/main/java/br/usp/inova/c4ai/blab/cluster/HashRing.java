@@ -0,0 +1,69 @@
+package br.usp.inova.c4ai.blab.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Consistent hash ring that assigns keys (robot IDs) to nodes.
+ * <p>
+ * Each node is placed at several points of the ring (virtual nodes), and a key belongs to the node of the first
+ * point at or after the hash of the key. When a node joins or leaves, only the keys of the points next to its own
+ * change owner, and all nodes that see the same members compute the same owners. Hashes are taken from MD5, which is
+ * available in every JVM and gives the same values in every process.
+ */
+final class HashRing {
+
+    /**
+     * Owner of each point of the ring, indexed by position.
+     */
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * Initializes a ring.
+     *
+     * @param nodes        IDs of the nodes
+     * @param virtualNodes number of points of each node
+     */
+    HashRing(Collection<String> nodes, int virtualNodes) {
+        for (String node : nodes)
+            for (int i = 0; i < virtualNodes; i++)
+                points.merge(hash(node + "#" + i), node, (a, b) -> a.compareTo(b) <= 0 ? a : b);
+    }
+
+    /**
+     * Returns the node that owns a key.
+     *
+     * @param key the key
+     * @return the ID of the node, or {@code null} if the ring has no nodes
+     */
+    String owner(String key) {
+        if (points.isEmpty())
+            return null;
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    /**
+     * Returns the position of a string in the ring.
+     *
+     * @param s the string
+     * @return the first 8 bytes of its MD5 digest
+     */
+    private static long hash(String s) {
+        byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        long h = 0;
+        for (int i = 0; i < 8; i++)
+            h = h << 8 | digest[i] & 0xff;
+        return h;
+    }
+}
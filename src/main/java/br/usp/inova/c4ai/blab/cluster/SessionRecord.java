@@ -0,0 +1,33 @@
+package br.usp.inova.c4ai.blab.cluster;
+
+import br.usp.inova.c4ai.blab.ConversationHandoff;
+
+/**
+ * Shared state of the session of a robot: which node runs (or last ran) it, and its conversation.
+ *
+ * @param owner        ID of the node
+ * @param status       whether the session is running, waiting for another node or finished
+ * @param conversation the conversation of the session, or {@code null} if it has not been created
+ */
+public record SessionRecord(String owner, Status status, ConversationHandoff conversation) {
+
+    /**
+     * State of a session in the cluster.
+     */
+    public enum Status {
+        /**
+         * The session is running on its owner (or was, if the owner has died).
+         */
+        ACTIVE,
+
+        /**
+         * The owner has closed the session so that another node continues its conversation.
+         */
+        RELEASED,
+
+        /**
+         * The conversation has ended, and the robot is not served until it is added again.
+         */
+        ENDED
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Cluster mode: several gateway processes split a fleet of robots by consistent hashing of their robot IDs, and hand
+ * conversations off to each other when the membership changes, through a pluggable coordinator.
+ */
+package br.usp.inova.c4ai.blab.cluster;
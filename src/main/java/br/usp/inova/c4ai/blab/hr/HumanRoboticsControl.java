@@ -6,15 +6,16 @@ import io.humanrobotics.api.RobiosConfig;
 import io.humanrobotics.api.exception.RobiosException;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.logging.log4j.util.Unbox;
 
-import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
-import java.util.regex.Pattern;
 
 /**
  * Handles bidirectional communication with Robios robots and avatars.
  */
-public class HumanRoboticsControl implements Closeable {
+public class HumanRoboticsControl implements RobotControl {
 
     /**
      * Class logger.
@@ -22,9 +23,16 @@ public class HumanRoboticsControl implements Closeable {
     private static final Logger logger = LogManager.getLogger();
 
     /**
-     * Pattern that matches whitespace characters
-     **/
-    private static final Pattern BLANK = Pattern.compile("\\s");
+     * Minimum duration (in milliseconds) of a request to speak for it to be considered a measurement of the speech.
+     * Shorter requests are assumed to return before the robot finishes speaking.
+     */
+    private static final long MIN_SPEECH_MEASUREMENT = 500;
+
+    /**
+     * Number of consecutive sentences without a measurement after which a warning says that the speech duration
+     * model is not learning.
+     */
+    private static final int UNMEASURED_SENTENCES_WARNING = 20;
 
     /**
      * Address of the robot (Human Robotics server or local IP).
@@ -42,9 +50,24 @@ public class HumanRoboticsControl implements Closeable {
     private final String apiKey;
 
     /**
-     * A {@link Robios} instance that represents a robot or an avatar.
+     * Whether the native dialogs should be disabled when the connection is established.
      */
-    private final Robios robios;
+    private final boolean disableNativeDialogs;
+
+    /**
+     * Whether all the logs of the Robios library should be enabled.
+     */
+    private final boolean verboseLogs;
+
+    /**
+     * A {@link Robios} instance that represents a robot or an avatar, or {@code null} before {@link #connect()}.
+     */
+    private volatile Robios robios;
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private boolean closed;
 
     /**
      * Function that is called whenever the user says something to the robot.
@@ -52,17 +75,41 @@ public class HumanRoboticsControl implements Closeable {
     private final Consumer<String> callback;
 
     /**
-     * How many milliseconds each non-space character lasts in the robot's voice, approximately.
+     * Estimates how long the robot takes to speak each sentence.
      */
-    private final long delayPerChar;
+    private final SpeechDurationEstimator speechDurationEstimator;
 
     /**
      * Minimum number of milliseconds to wait before listening to the user.
      */
     private final long minDelay;
 
+    /**
+     * Whether the robot should listen to the user while it speaks (so that the user can interrupt it), instead of
+     * only after each reply.
+     */
+    private final boolean bargeIn;
+
+    /**
+     * Whether a sentence may be being spoken (used only if {@link #bargeIn} is {@code true}).
+     */
+    private boolean speaking;
+
+    /**
+     * When the sentence being spoken is expected to end (from {@link System#nanoTime()}), if {@link #speaking} is
+     * {@code true}.
+     */
+    private long speakingUntil;
+
+    /**
+     * Number of consecutive requests to speak that returned too soon to measure the speech (only the requests made by
+     * the robot threads update it, so it is not synchronized; a lost update only delays the warning).
+     */
+    private volatile int unmeasuredSentences;
+
     /**
      * Initializes an instance with the given arguments.
+     * The connection with the robot is only established by {@link #connect()}.
      *
      * @param robotAddress         address of the robot (Human Robotics server or local IP)
      * @param robotId              ID of the robot
@@ -71,20 +118,38 @@ public class HumanRoboticsControl implements Closeable {
      * @param minDelay             minimum number of milliseconds to wait before listening to the user.
      * @param callback             a function that is called whenever the user says something to the robot
      * @param disableNativeDialogs whether the native dialogs should be disabled at startup
+     * @param speechModelFile      file where the learned speech duration model is stored, or {@code null}
+     * @param verboseLogs          whether all the logs of the Robios library should be enabled
+     * @param bargeIn              whether the robot should listen to the user while it speaks
      */
-    public HumanRoboticsControl(String robotAddress, String robotId, String apiKey, long delayPerChar, long minDelay, Consumer<String> callback, boolean disableNativeDialogs) {
+    public HumanRoboticsControl(String robotAddress, String robotId, String apiKey, long delayPerChar, long minDelay, Consumer<String> callback, boolean disableNativeDialogs, Path speechModelFile, boolean verboseLogs, boolean bargeIn) {
         this.robotAddress = robotAddress;
         this.robotId = robotId;
         this.apiKey = apiKey;
+        this.callback = callback;
+        this.speechDurationEstimator = new SpeechDurationEstimator(delayPerChar, speechModelFile);
+        this.minDelay = minDelay;
+        this.disableNativeDialogs = disableNativeDialogs;
+        this.verboseLogs = verboseLogs;
+        this.bargeIn = bargeIn;
+    }
+
+    /**
+     * Establishes the connection with the robot and starts receiving the user's messages.
+     * This method blocks until the robot is ready.
+     *
+     * @throws RuntimeException if the connection cannot be established
+     */
+    @Override
+    public void connect() {
+        Robios robios;
         try {
-            this.robios = createRobios();
-            robios.ext().setAllLogsEnabled(true);
+            robios = createRobios();
+            if (verboseLogs)
+                robios.ext().setAllLogsEnabled(true);
         } catch (RobiosException e) {
             throw new RuntimeException(e);
         }
-        this.callback = callback;
-        this.delayPerChar = delayPerChar;
-        this.minDelay = minDelay;
         if (disableNativeDialogs) {
             try {
                 robios.useNativeDialogs(false);
@@ -93,23 +158,47 @@ public class HumanRoboticsControl implements Closeable {
             }
         }
         robios.addVoiceRecognitionCallback(this::onUserTextReceived);
+        if (bargeIn)
+            logger.warn("Barge-in enabled: interrupted sentences are stopped by saying an empty sentence, which is not "
+                    + "known to stop the robot's speech; check that the robot stops speaking when interrupted");
+        synchronized (this) {
+            if (!closed) {
+                this.robios = robios;
+                return;
+            }
+        }
+        // closed while connecting
+        closeRobios(robios);
     }
 
     /**
      * Asks the robot/avatar to read a sentence aloud and then wait for user input.
      * This method does not block.
      * Since there seems to be no way to tell how long the robot's voice will take to pronounce the sentence,
-     * an approximate delay is calculated as the product of {@code delayPerChar} and the number of non-blank
-     * characters in the sentence, or {@code minDelay} in case this is longer.
+     * the delay before listening is estimated by a model of the robot's voice (see {@link SpeechDurationEstimator}),
+     * or {@code minDelay} in case this is longer.
+     * <p>
+     * In barge-in mode, the robot starts listening right after the request to speak, without waiting for the
+     * sentence to be spoken.
      *
      * @param text the text to be said by the robot
      * @return whether the request was accepted
      */
+    @Override
     public boolean sayAndListen(String text) {
         try {
-            long ms = Math.max(minDelay, BLANK.matcher(text).replaceAll("").length() * delayPerChar);
-            logger.info("Waiting {}ms while sentence is spoken and then listening to user", ms);
-            robios.say(text).delay(ms).listen();
+            long estimate = Math.max(minDelay, speechDurationEstimator.estimate(text));
+            long start = System.nanoTime();
+            var speech = robios.say(text);
+            long ms = remainingDelay(text, estimate, start);
+            if (bargeIn) {
+                speaking(ms);
+                logger.info("Listening to user while sentence is spoken (for about {}ms)", Unbox.box(ms));
+                robios.listen();
+                return true;
+            }
+            logger.info("Waiting {}ms while sentence is spoken and then listening to user", Unbox.box(ms));
+            speech.delay(ms).listen();
             return true;
         } catch (Exception e) {
             logger.error("Error when listening or speaking", e);
@@ -117,12 +206,88 @@ public class HumanRoboticsControl implements Closeable {
         }
     }
 
+    /**
+     * Asks the robot/avatar to read a sentence aloud, without listening to the user afterwards.
+     * <p>
+     * Since the request to the robot does not block, this method waits (on the calling thread) for the same
+     * approximate delay as in {@link #sayAndListen(String)} before returning, so that the next request (another
+     * sentence, or {@link #listen()}) is only sent after the sentence has been spoken. In barge-in mode, the robot
+     * also listens to the user while the sentence is spoken, and the wait ends early if it is interrupted.
+     *
+     * @param text the text to be said by the robot
+     * @return whether the request was accepted
+     */
+    @Override
+    public boolean say(String text) {
+        try {
+            long estimate = Math.max(minDelay, speechDurationEstimator.estimate(text));
+            long start = System.nanoTime();
+            robios.say(text);
+            long ms = remainingDelay(text, estimate, start);
+            if (bargeIn) {
+                speaking(ms);
+                robios.listen();
+            }
+            logger.info("Waiting {}ms while sentence is spoken", Unbox.box(ms));
+            awaitEndOfSentence(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        } catch (Exception e) {
+            logger.error("Error when speaking", e);
+            return false;
+        }
+    }
+
+    /**
+     * Waits until a sentence is expected to have been spoken, the sentence is interrupted (in barge-in mode) or the
+     * connection is closed.
+     *
+     * @param ms how long the sentence is expected to take, in milliseconds
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    private synchronized void awaitEndOfSentence(long ms) throws InterruptedException {
+        long until = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+        long remaining;
+        while ((remaining = until - System.nanoTime()) > 0 && !closed && (!bargeIn || speaking))
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+    }
+
+    /**
+     * Computes how long to wait after a request to speak a sentence.
+     * <p>
+     * If the request only returned after the sentence was spoken, its duration is used to improve the model,
+     * and only the remaining time is waited.
+     *
+     * @param text     the sentence
+     * @param estimate estimated time to speak the sentence, in milliseconds
+     * @param start    when the request started ({@link System#nanoTime()})
+     * @return the number of milliseconds to wait before the next request
+     */
+    private long remainingDelay(String text, long estimate, long start) {
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        if (elapsed >= MIN_SPEECH_MEASUREMENT) {
+            speechDurationEstimator.observe(text, elapsed);
+            unmeasuredSentences = 0;
+        } else if (unmeasuredSentences >= 0 && ++unmeasuredSentences == UNMEASURED_SENTENCES_WARNING) {
+            // warn only once (a negative count means that the warning was given)
+            unmeasuredSentences = -1;
+            logger.warn("None of the last {} requests to speak lasted {}ms or more, so the robot does not seem to wait "
+                            + "for the speech before acknowledging it: the speech duration model is not learning, and "
+                            + "the delays are estimated from DELAY_PER_CHARACTER (or from SPEECH_MODEL_FILE)",
+                    Unbox.box(UNMEASURED_SENTENCES_WARNING), Unbox.box(MIN_SPEECH_MEASUREMENT));
+        }
+        return Math.max(0, estimate - elapsed);
+    }
+
     /**
      * Ask the robot to wait for user input.
      * This method does not block.
      *
      * @return whether the request was accepted
      */
+    @Override
     public boolean listen() {
         try {
             robios.listen();
@@ -132,13 +297,55 @@ public class HumanRoboticsControl implements Closeable {
         }
     }
 
+    /**
+     * Stops the sentence being spoken, if the robot is expected to be speaking one.
+     * <p>
+     * The Robios API has no request to stop speaking, so the robot is asked to say an empty sentence, assuming that
+     * it replaces the one being spoken. This has not been verified on a robot; if the robot finishes the sentence
+     * anyway, only the wait of {@link #say(String)} is cut short. Nothing is requested outside barge-in mode, since
+     * the robot is not listening to the user while it speaks.
+     *
+     * @return whether a sentence was being spoken
+     */
+    @Override
+    public boolean stopSpeaking() {
+        Robios robios = this.robios;
+        synchronized (this) {
+            if (!speaking)
+                return false;
+            speaking = false;
+            // ends the wait of say()
+            notifyAll();
+            if (System.nanoTime() - speakingUntil >= 0 || robios == null)
+                return false;
+        }
+        try {
+            robios.say("");
+            return true;
+        } catch (Exception e) {
+            logger.warn("Could not stop speaking", e);
+            return false;
+        }
+    }
+
+    /**
+     * Records that a sentence is being spoken.
+     *
+     * @param ms how long the sentence is expected to take, in milliseconds
+     */
+    private synchronized void speaking(long ms) {
+        speaking = true;
+        speakingUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms);
+    }
+
     /**
      * Calls the callback function whenever a message is received from the user.
      *
      * @param text text sent by the user
      */
     private void onUserTextReceived(String text) {
-        callback.accept(text);
+        if (robios != null)
+            callback.accept(text);
     }
 
     /**
@@ -155,9 +362,33 @@ public class HumanRoboticsControl implements Closeable {
 
 
     /**
-     * Closes the connection.
+     * Closes the connection and stores the speech duration model.
+     * <p>
+     * User messages are no longer delivered after this method is called. If the connection is being established,
+     * it is closed as soon as it is. Calling this method more than once has no effect.
      */
+    @Override
     public void close() {
+        Robios robios;
+        synchronized (this) {
+            if (closed)
+                return;
+            closed = true;
+            robios = this.robios;
+            this.robios = null;
+            notifyAll();
+        }
+        speechDurationEstimator.save();
+        if (robios != null)
+            closeRobios(robios);
+    }
+
+    /**
+     * Closes a connection, ignoring errors.
+     *
+     * @param robios the connection
+     */
+    private static void closeRobios(Robios robios) {
         try {
             robios.close();
         } catch (Exception ignored) {
@@ -0,0 +1,61 @@
+package br.usp.inova.c4ai.blab.hr;
+
+import java.io.Closeable;
+
+/**
+ * Controls a robot or an avatar that speaks to the user and listens to them.
+ * <p>
+ * Messages from the user are delivered to a callback provided when the instance is created.
+ */
+public interface RobotControl extends Closeable {
+
+    /**
+     * Establishes the connection with the robot and starts receiving the user's messages.
+     * This method blocks until the robot is ready.
+     *
+     * @throws RuntimeException if the connection cannot be established
+     */
+    void connect();
+
+    /**
+     * Asks the robot to read a sentence aloud and then wait for user input.
+     *
+     * @param text the text to be said by the robot
+     * @return whether the request was accepted
+     */
+    boolean sayAndListen(String text);
+
+    /**
+     * Asks the robot to read a sentence aloud, without listening to the user afterwards.
+     * This method returns when the sentence is expected to have been spoken (or has been interrupted), so that a
+     * following request is not sent while the robot is still speaking.
+     *
+     * @param text the text to be said by the robot
+     * @return whether the request was accepted
+     */
+    boolean say(String text);
+
+    /**
+     * Asks the robot to wait for user input.
+     *
+     * @return whether the request was accepted
+     */
+    boolean listen();
+
+    /**
+     * Stops the sentence that the robot is speaking, if any, so that the user can interrupt it.
+     * <p>
+     * The default implementation does nothing, for robots that cannot be interrupted.
+     *
+     * @return whether a sentence was being spoken
+     */
+    default boolean stopSpeaking() {
+        return false;
+    }
+
+    /**
+     * Closes the connection.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,321 @@
+package br.usp.inova.c4ai.blab.hr;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Estimates how long a robot takes to speak a sentence.
+ * <p>
+ * The duration is modelled as a linear function of the number of non-blank characters, the number of words and the
+ * number of pauses (punctuation marks that end a clause or a sentence), plus a constant term.
+ * The coefficients start from the configured delay per character and are fitted online, by recursive least squares
+ * with exponential forgetting, to the durations measured on the robot.
+ * <p>
+ * The model can be stored in a file, so that it is not lost when the program restarts. The file is written
+ * periodically by a background thread shared by all instances, so that the thread that measured the speech does not
+ * wait for the disk, and once more by {@link #save()}.
+ * Instances are thread-safe.
+ */
+class SpeechDurationEstimator {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Number of coefficients (constant term, characters, words and pauses).
+     */
+    private static final int N = 4;
+
+    /**
+     * Weight of the previous observations relative to a new one (closer to 1 means slower adaptation).
+     */
+    private static final double FORGETTING_FACTOR = 0.98;
+
+    /**
+     * Initial variance of the coefficients (how much the first observations can change them).
+     */
+    private static final double INITIAL_VARIANCE = 100;
+
+    /**
+     * Number of observations between consecutive writes of the model file.
+     */
+    private static final int SAVE_INTERVAL = 10;
+
+    /**
+     * Writes the model files in the background, one at a time (it owns a single daemon thread).
+     */
+    private static final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "speech-model-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * File where the model is stored, or {@code null} if it is not stored.
+     */
+    private final Path file;
+
+    /**
+     * Coefficients of the model.
+     */
+    private final double[] weights = new double[N];
+
+    /**
+     * Covariance matrix of the coefficients (row-major).
+     */
+    private final double[] covariance = new double[N * N];
+
+    /**
+     * Features of the sentence being processed (reused to avoid allocations).
+     */
+    private final double[] features = new double[N];
+
+    /**
+     * Auxiliary vector used in updates (reused to avoid allocations).
+     */
+    private final double[] gain = new double[N];
+
+    /**
+     * Number of observations the model has been fitted to.
+     */
+    private long samples;
+
+    /**
+     * Number of observations of the model last written to the file, or -1 if the file has not been read or written
+     * (guarded by {@link #fileLock}).
+     */
+    private long savedSamples = -1;
+
+    /**
+     * Serializes the writes of the file, which may be made by the background thread and by {@link #save()}.
+     */
+    private final Object fileLock = new Object();
+
+    /**
+     * Initializes an estimator.
+     * If the file exists, the model is loaded from it; otherwise, the estimate is initially proportional to the
+     * number of non-blank characters.
+     *
+     * @param delayPerChar initial number of milliseconds per non-blank character
+     * @param file         file where the model is stored, or {@code null} if it should not be stored
+     */
+    SpeechDurationEstimator(long delayPerChar, Path file) {
+        this.file = file;
+        weights[1] = delayPerChar;
+        for (int i = 0; i < N; i++)
+            covariance[i * N + i] = INITIAL_VARIANCE;
+        if (file != null && Files.exists(file))
+            load(file);
+    }
+
+    /**
+     * Estimates how long the robot takes to speak a sentence.
+     *
+     * @param text the sentence
+     * @return the estimated duration in milliseconds (never negative)
+     */
+    synchronized long estimate(String text) {
+        extractFeatures(text, features);
+        double ms = 0;
+        for (int i = 0; i < N; i++)
+            ms += weights[i] * features[i];
+        return Math.max(0, Math.round(ms));
+    }
+
+    /**
+     * Updates the model with a measured duration.
+     *
+     * @param text the sentence that was spoken
+     * @param ms   how long the robot took to speak it, in milliseconds
+     */
+    synchronized void observe(String text, long ms) {
+        double[] x = features;
+        extractFeatures(text, x);
+        double[] p = covariance;
+        // gain = P x / (lambda + x' P x)
+        double denominator = FORGETTING_FACTOR;
+        for (int i = 0; i < N; i++) {
+            double px = 0;
+            for (int j = 0; j < N; j++)
+                px += p[i * N + j] * x[j];
+            gain[i] = px;
+            denominator += x[i] * px;
+        }
+        double error = ms;
+        for (int i = 0; i < N; i++) {
+            gain[i] /= denominator;
+            error -= weights[i] * x[i];
+        }
+        for (int i = 0; i < N; i++)
+            weights[i] += gain[i] * error;
+        // P = (P - gain x' P) / lambda; since P is symmetric, x' P = (P x)' = denominator * gain'
+        for (int i = 0; i < N; i++)
+            for (int j = 0; j < N; j++)
+                p[i * N + j] = (p[i * N + j] - gain[i] * gain[j] * denominator) / FORGETTING_FACTOR;
+        samples++;
+        logger.debug("Speech took {}ms (error: {}ms)", ms, Math.round(error));
+        if (file != null && samples % SAVE_INTERVAL == 0) {
+            Properties model = snapshot();
+            writer.execute(() -> write(model));
+        }
+    }
+
+    /**
+     * Returns the number of observations the model has been fitted to.
+     *
+     * @return the number of observations
+     */
+    synchronized long samples() {
+        return samples;
+    }
+
+    /**
+     * Computes the features of a sentence in a single pass, without allocating memory.
+     *
+     * @param text     the sentence
+     * @param features array where the constant term, the number of non-blank characters, the number of words and the
+     *                 number of pauses are stored
+     */
+    static void extractFeatures(String text, double[] features) {
+        int chars = 0;
+        int words = 0;
+        int pauses = 0;
+        boolean inWord = false;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char c = text.charAt(i);
+            if (isBlank(c)) {
+                inWord = false;
+                continue;
+            }
+            chars++;
+            if (Character.isLetterOrDigit(c)) {
+                if (!inWord)
+                    words++;
+                inWord = true;
+            } else {
+                inWord = false;
+                if (c == ',' || c == '.' || c == ';' || c == ':' || c == '!' || c == '?' || c == '\u2026')
+                    pauses++;
+            }
+        }
+        features[0] = 1;
+        features[1] = chars;
+        features[2] = words;
+        features[3] = pauses;
+    }
+
+    /**
+     * Checks whether a character is whitespace (same as {@code \s} in regular expressions).
+     *
+     * @param c the character
+     * @return whether the character is a space, a tab, a line break, a vertical tab or a form feed
+     */
+    static boolean isBlank(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+
+    /**
+     * Writes the model to its file, in the calling thread.
+     */
+    void save() {
+        if (file == null)
+            return;
+        Properties model;
+        synchronized (this) {
+            model = snapshot();
+        }
+        write(model);
+    }
+
+    /**
+     * Copies the model into properties that can be written to the file.
+     *
+     * @return the properties
+     */
+    private Properties snapshot() {
+        Properties properties = new Properties();
+        properties.setProperty("samples", Long.toString(samples));
+        for (int i = 0; i < N; i++)
+            properties.setProperty("weight." + i, Double.toString(weights[i]));
+        for (int i = 0; i < N * N; i++)
+            properties.setProperty("covariance." + i, Double.toString(covariance[i]));
+        return properties;
+    }
+
+    /**
+     * Writes a copy of the model to the file, unless a copy with at least as many observations has been written.
+     * The file is replaced atomically, so that it is never left incomplete.
+     *
+     * @param properties the copy of the model
+     */
+    private void write(Properties properties) {
+        long modelSamples = Long.parseLong(properties.getProperty("samples"));
+        synchronized (fileLock) {
+            if (modelSamples <= savedSamples)
+                return;
+            if (writeFile(properties))
+                savedSamples = modelSamples;
+        }
+    }
+
+    /**
+     * Replaces the file with the given properties.
+     *
+     * @param properties the copy of the model
+     * @return whether the file was written
+     */
+    private boolean writeFile(Properties properties) {
+        try {
+            Path dir = file.toAbsolutePath().getParent();
+            Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+            try (Writer w = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                properties.store(w, "Speech duration model (constant, characters, words, pauses)");
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            logger.warn("Could not save speech duration model to {}", file, e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads the model from a file.
+     * If the file cannot be read, the initial model is kept.
+     *
+     * @param file the file
+     */
+    private void load(Path file) {
+        Properties properties = new Properties();
+        try (Reader r = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            properties.load(r);
+            double[] w = new double[N];
+            double[] p = new double[N * N];
+            for (int i = 0; i < N; i++)
+                w[i] = Double.parseDouble(properties.getProperty("weight." + i));
+            for (int i = 0; i < N * N; i++)
+                p[i] = Double.parseDouble(properties.getProperty("covariance." + i));
+            long s = Long.parseLong(properties.getProperty("samples"));
+            System.arraycopy(w, 0, weights, 0, N);
+            System.arraycopy(p, 0, covariance, 0, N * N);
+            samples = s;
+            savedSamples = s;
+            logger.info("Loaded speech duration model from {} ({} samples)", file, samples);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Could not load speech duration model from {}", file, e);
+        }
+    }
+}
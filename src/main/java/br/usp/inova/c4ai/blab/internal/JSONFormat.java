@@ -3,6 +3,15 @@ package br.usp.inova.c4ai.blab.internal;
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.stream.JsonReader;
+
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Contains methods to convert Java objects into JSON strings and vice versa.
@@ -14,10 +23,29 @@ import com.google.gson.GsonBuilder;
  */
 public class JSONFormat {
 
-    private final Gson gson = new GsonBuilder()
-            .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES)
-            .create();
+    private final Gson gson;
+
+    /**
+     * Initializes an instance that converts objects by reflection.
+     */
+    public JSONFormat() {
+        this(new TypeAdapterFactory[0]);
+    }
 
+    /**
+     * Initializes an instance that converts the types handled by the given factories with their adapters, and other
+     * types by reflection.
+     *
+     * @param factories factories of adapters for specific types (such as hand-written codecs, which avoid the cost
+     *                  of reflection)
+     */
+    public JSONFormat(TypeAdapterFactory... factories) {
+        GsonBuilder builder = new GsonBuilder()
+                .setFieldNamingPolicy(FieldNamingPolicy.LOWER_CASE_WITH_UNDERSCORES);
+        for (TypeAdapterFactory factory : factories)
+            builder.registerTypeAdapterFactory(factory);
+        this.gson = builder.create();
+    }
 
     /**
      * Converts a JSON string into an object of the specified class.
@@ -31,6 +59,53 @@ public class JSONFormat {
         return gson.fromJson(json, classOfT);
     }
 
+    /**
+     * Converts a JSON document into an object of the specified class, decoding it as it is read.
+     *
+     * @param json     a reader of a JSON document
+     * @param classOfT the class of the object to be returned
+     * @param <T>      the type of the object to be returned
+     * @return an instance of the given class containing data in the input document
+     * @throws com.google.gson.JsonParseException if the document cannot be read or is not valid
+     */
+    public <T> T fromJson(Reader json, Class<T> classOfT) {
+        return gson.fromJson(json, classOfT);
+    }
+
+    /**
+     * Creates a token-level reader for a JSON string, which allows parsing only the relevant parts of a document.
+     *
+     * @param json a JSON string
+     * @return a reader positioned at the beginning of the document
+     */
+    public JsonReader newReader(String json) {
+        return new JsonReader(new StringReader(json));
+    }
+
+    /**
+     * Creates a token-level reader for a UTF-8 encoded JSON document, which is decoded as it is read
+     * (without creating an intermediate string).
+     *
+     * @param json a buffer with the document (its position is not changed)
+     * @return a reader positioned at the beginning of the document
+     */
+    public JsonReader newReader(ByteBuffer json) {
+        return new JsonReader(utf8Reader(json));
+    }
+
+    /**
+     * Converts a UTF-8 encoded JSON document into an object of the specified class.
+     *
+     * @param json     a buffer with the document (its position is not changed)
+     * @param classOfT the class of the object to be returned
+     * @param <T>      the type of the object to be returned
+     * @return an instance of the given class containing data in the input document
+     * @throws com.google.gson.JsonParseException if the document is not valid
+     */
+    public <T> T fromJson(ByteBuffer json, Class<T> classOfT) {
+        return gson.fromJson(utf8Reader(json), classOfT);
+    }
+
     /**
      * Converts an object into a JSON string.
      *
@@ -41,5 +116,50 @@ public class JSONFormat {
         return gson.toJson(object);
     }
 
+    /**
+     * Creates a reader of UTF-8 encoded text in a buffer.
+     *
+     * @param bytes the buffer (its position is not changed)
+     * @return a reader of the remaining bytes
+     */
+    private static Reader utf8Reader(ByteBuffer bytes) {
+        return new InputStreamReader(new ByteBufferInputStream(bytes.duplicate()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer without copying them to an array first.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /**
+         * The buffer, whose position is advanced as bytes are read.
+         */
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
 
 }
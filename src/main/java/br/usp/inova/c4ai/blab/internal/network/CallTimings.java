@@ -0,0 +1,19 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+/**
+ * Durations of the phases of an HTTP call, in nanoseconds.
+ * <p>
+ * Phases that did not happen (e.g. DNS resolution, connection and TLS handshake when a pooled connection is reused)
+ * are -1.
+ *
+ * @param host            the host name
+ * @param dns             DNS resolution
+ * @param connect         connection establishment, including the TLS handshake
+ * @param tls             TLS handshake
+ * @param timeToFirstByte from the start of the call until the response headers start to arrive
+ * @param total           from the start to the end of the call
+ * @param failed          whether the call failed
+ */
+public record CallTimings(String host, long dns, long connect, long tls, long timeToFirstByte, long total,
+                          boolean failed) {
+}
@@ -2,27 +2,138 @@ package br.usp.inova.c4ai.blab.internal.network;
 
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.HttpUrl;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.ByteString;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Handles network HTTP(S) and WebSocket communication.
  * <p>
  * Note that this class basically wraps OkHttp3 usage.
  * <p>
+ * An instance can (and should) be shared by many clients, so that they share the same connection pool and
+ * dispatcher threads. It must be closed when it is no longer needed, so that its threads and idle connections
+ * are released.
+ * <p>
+ * WebSocket connections offer the {@code permessage-deflate} extension; if the server accepts it, inbound messages
+ * are decompressed transparently and outbound messages are compressed when they are large enough
+ * (see {@link NetworkSettings#compressionThreshold()}).
+ * <p>
  * IMPORTANT: this class is intended for internal use only, and its API can change
  * at any time. Other applications should use OkHttp directly (or similar libraries).
  */
-public class Network {
+public class Network implements Closeable {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
 
     /**
      * The OkHttp client instance.
      */
-    private final OkHttpClient http = new OkHttpClient();
+    private final OkHttpClient http;
+
+    /**
+     * Scheduler of WebSocket reconnection attempts.
+     */
+    private final ScheduledExecutorService reconnectionScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "websocket-reconnection");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Initializes an instance with the default settings (WebSocket pings are disabled).
+     */
+    public Network() {
+        this(NetworkSettings.DEFAULT, null);
+    }
+
+    /**
+     * Initializes an instance that sends WebSocket pings periodically.
+     * If a pong is not received in time, the connection fails (and
+     * {@link #newReconnectingWebSocket(String, Iterable, WebSocketListener, ReconnectPolicy)} reconnects).
+     *
+     * @param pingInterval interval between pings in milliseconds, or 0 to disable pings
+     */
+    public Network(long pingInterval) {
+        this(NetworkSettings.DEFAULT.withPingInterval(pingInterval), null);
+    }
+
+    /**
+     * Initializes an instance with the given settings.
+     *
+     * @param settings        connection pool, limits, timeouts, protocols and WebSocket ping interval
+     * @param timingsListener function that is called with the durations of the phases of each HTTP call
+     *                        (WebSocket connections are not included), or {@code null}
+     */
+    public Network(NetworkSettings settings, Consumer<CallTimings> timingsListener) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(settings.maxRequests());
+        dispatcher.setMaxRequestsPerHost(settings.maxRequestsPerHost());
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(new ConnectionPool(settings.maxIdleConnections(), settings.keepAlive(), TimeUnit.MILLISECONDS))
+                .connectTimeout(settings.connectTimeout(), TimeUnit.MILLISECONDS)
+                .readTimeout(settings.readTimeout(), TimeUnit.MILLISECONDS)
+                .writeTimeout(settings.writeTimeout(), TimeUnit.MILLISECONDS)
+                .pingInterval(settings.pingInterval(), TimeUnit.MILLISECONDS)
+                .minWebSocketMessageToCompress(settings.compressionThreshold());
+        if (!settings.http2())
+            builder.protocols(List.of(Protocol.HTTP_1_1));
+        if (timingsListener != null)
+            builder.eventListenerFactory(TimingEventListener.factory(timingsListener));
+        http = builder.build();
+    }
+
+    /**
+     * Returns the current state of the connection pool and the dispatcher.
+     *
+     * @return a snapshot of the number of connections and calls
+     */
+    public NetworkStats stats() {
+        return new NetworkStats(http.connectionPool().connectionCount(), http.connectionPool().idleConnectionCount(),
+                http.dispatcher().runningCallsCount(), http.dispatcher().queuedCallsCount());
+    }
+
+    /**
+     * Closes the idle connections of the connection pool immediately, instead of waiting for the keep-alive time.
+     * Connections in use (including open WebSockets) are not affected.
+     */
+    public void evictIdleConnections() {
+        http.connectionPool().evictAll();
+    }
+
+    /**
+     * Stops the reconnection of WebSockets, shuts down the dispatcher threads once the calls in progress finish and
+     * closes the idle connections.
+     * <p>
+     * WebSockets should be closed before, so that they are closed gracefully; new calls fail after this method is
+     * called.
+     */
+    @Override
+    public void close() {
+        reconnectionScheduler.shutdownNow();
+        http.dispatcher().executorService().shutdown();
+        http.connectionPool().evictAll();
+    }
 
     /**
      * Sends a POST request.
@@ -56,6 +167,53 @@ public class Network {
         return WebSocket.fromOkHttp3WebSocket(http.newWebSocket(request, new WSListener(listener)));
     }
 
+    /**
+     * Resolves the host name of a URL and opens a connection to it in the background, so that a subsequent
+     * request (or WebSocket handshake) to the same server can reuse the pooled connection
+     * instead of paying for DNS resolution, TCP and TLS handshakes.
+     * <p>
+     * WebSocket URLs are accepted; since OkHttp performs WebSocket handshakes over HTTP/1.1,
+     * the warm-up request uses the same protocol for them.
+     * This method does not block, and failures are only logged.
+     *
+     * @param url the HTTP(S) or WS(S) URL of the server
+     */
+    public void warmUp(String url) {
+        boolean webSocket = url.regionMatches(true, 0, "ws:", 0, 3) || url.regionMatches(true, 0, "wss:", 0, 4);
+        HttpUrl httpUrl = HttpUrl.parse(webSocket ? "http" + url.substring(2) : url);
+        if (httpUrl == null) {
+            logger.warn("Cannot warm up connection to invalid URL \"{}\"", url);
+            return;
+        }
+        OkHttpClient client = webSocket ? http.newBuilder().protocols(List.of(Protocol.HTTP_1_1)).build() : http;
+        Request request = new Request.Builder().url(httpUrl.resolve("/")).head().build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                response.close();
+                logger.debug("Connection to {} is ready", httpUrl.host());
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                logger.warn("Could not warm up connection to {}", httpUrl.host(), e);
+            }
+        });
+    }
+
+    /**
+     * Creates a WebSocket connection that is re-established automatically if it fails.
+     *
+     * @param url      the WS(S) request URL
+     * @param headers  the request headers (the same headers are sent in every connection)
+     * @param listener a listener that will handle the communication via WebSocket
+     * @param policy   buffer size and reconnection delays
+     * @return an instance representing the websocket connection
+     */
+    public WebSocket newReconnectingWebSocket(String url, Iterable<HeaderEntry> headers, WebSocketListener listener,
+                                              ReconnectPolicy policy) {
+        return new ReconnectingWebSocket(this, url, headers, listener, reconnectionScheduler, policy);
+    }
 
     /**
      * Wraps {@link CreateConversationCallback}.
@@ -69,7 +227,9 @@ public class Network {
 
         @Override
         public void onResponse(Call call, okhttp3.Response response) {
-            callback.onResponse(Response.fromOkHttp3Response(response));
+            try (Response wrapped = Response.fromOkHttp3Response(response)) {
+                callback.onResponse(wrapped);
+            }
         }
 
         @Override
@@ -104,7 +264,7 @@ public class Network {
         @Override
         public void onFailure(okhttp3.WebSocket webSocket, Throwable t, okhttp3.Response response) {
             super.onFailure(webSocket, t, response);
-            listener.onFailure(t, Response.fromOkHttp3Response(response));
+            listener.onFailure(t, response != null ? Response.fromOkHttp3Response(response) : null);
         }
 
         @Override
@@ -113,6 +273,12 @@ public class Network {
             listener.onMessage(text);
         }
 
+        @Override
+        public void onMessage(okhttp3.WebSocket webSocket, ByteString bytes) {
+            super.onMessage(webSocket, bytes);
+            listener.onMessage(bytes.asByteBuffer());
+        }
+
         @Override
         public void onOpen(okhttp3.WebSocket webSocket, okhttp3.Response response) {
             super.onOpen(webSocket, response);
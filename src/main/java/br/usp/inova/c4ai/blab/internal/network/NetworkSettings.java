@@ -0,0 +1,40 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+/**
+ * Describes the connection pool, the limits, the timeouts and the protocols of a {@link Network}.
+ *
+ * @param maxIdleConnections   maximum number of idle connections kept in the pool
+ * @param keepAlive            how long an idle connection is kept in the pool, in milliseconds
+ * @param maxRequests          maximum number of simultaneous calls (each open WebSocket counts as one)
+ * @param maxRequestsPerHost   maximum number of simultaneous calls to the same host (each open WebSocket counts as one)
+ * @param connectTimeout       time limit to establish a connection, in milliseconds (0 for no limit)
+ * @param readTimeout          time limit for each read, in milliseconds (0 for no limit; open WebSockets are not
+ *                             affected)
+ * @param writeTimeout         time limit for each write, in milliseconds (0 for no limit)
+ * @param http2                whether HTTP/2 is used when the server supports it (WebSockets always use HTTP/1.1)
+ * @param pingInterval         interval between WebSocket pings, in milliseconds (0 to disable pings)
+ * @param compressionThreshold minimum size (in bytes) of an outbound WebSocket message to be compressed, when the
+ *                             server accepts the {@code permessage-deflate} extension
+ */
+public record NetworkSettings(int maxIdleConnections, long keepAlive, int maxRequests, int maxRequestsPerHost,
+                              long connectTimeout, long readTimeout, long writeTimeout, boolean http2,
+                              long pingInterval, long compressionThreshold) {
+
+    /**
+     * OkHttp's defaults, except that the number of simultaneous calls is not limited (so that there can be any
+     * number of WebSockets) and pings are disabled.
+     */
+    public static final NetworkSettings DEFAULT = new NetworkSettings(5, 300_000, Integer.MAX_VALUE, Integer.MAX_VALUE,
+            10_000, 10_000, 10_000, true, 0, 1024);
+
+    /**
+     * Returns a copy of these settings with a different ping interval.
+     *
+     * @param pingInterval interval between WebSocket pings, in milliseconds (0 to disable pings)
+     * @return the new settings
+     */
+    public NetworkSettings withPingInterval(long pingInterval) {
+        return new NetworkSettings(maxIdleConnections, keepAlive, maxRequests, maxRequestsPerHost,
+                connectTimeout, readTimeout, writeTimeout, http2, pingInterval, compressionThreshold);
+    }
+}
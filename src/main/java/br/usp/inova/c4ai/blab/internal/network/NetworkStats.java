@@ -0,0 +1,12 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+/**
+ * Snapshot of the connection pool and the dispatcher of a {@link Network}.
+ *
+ * @param connections     number of connections in the pool
+ * @param idleConnections number of idle connections in the pool
+ * @param runningCalls    number of calls in progress (including open WebSockets)
+ * @param queuedCalls     number of calls waiting because of the limits of simultaneous calls
+ */
+public record NetworkStats(int connections, int idleConnections, int runningCalls, int queuedCalls) {
+}
@@ -0,0 +1,121 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Wraps an OkHttp {@link okhttp3.Response} instance.
+ */
+final class OkHttpResponse implements Response {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * The wrapped response.
+     */
+    private final okhttp3.Response response;
+
+    /**
+     * The response body (possibly empty), or {@code null} if there is none.
+     */
+    private final ResponseBody body;
+
+    /**
+     * Response body that has been read as a whole, or {@code null} if it has not.
+     */
+    private byte[] bytes;
+
+    /**
+     * Whether the response body has been consumed as a stream.
+     */
+    private boolean streamed;
+
+    /**
+     * Initializes an instance.
+     *
+     * @param response the response to be wrapped
+     */
+    OkHttpResponse(okhttp3.Response response) {
+        this.response = response;
+        this.body = response.body();
+    }
+
+    @Override
+    public boolean success() {
+        return response.isSuccessful();
+    }
+
+    @Override
+    public int code() {
+        return response.code();
+    }
+
+    @Override
+    public Map<String, List<String>> headers() {
+        return response.headers().toMultimap();
+    }
+
+    @Override
+    public List<Cookie> cookies() {
+        return okhttp3.Cookie.parseAll(response.request().url(), response.headers()).stream()
+                .map(cookie -> new Cookie(cookie.name(), cookie.value())).toList();
+    }
+
+    @Override
+    public synchronized Reader bodyReader() {
+        if (bytes != null)
+            return new InputStreamReader(new ByteArrayInputStream(bytes), charset());
+        if (streamed)
+            throw new IllegalStateException("The response body has already been consumed");
+        streamed = true;
+        return body != null ? body.charStream() : Reader.nullReader();
+    }
+
+    @Override
+    public synchronized byte[] body() {
+        if (bytes == null && !streamed && body != null) {
+            try {
+                bytes = body.bytes();
+            } catch (IOException e) {
+                logger.error("Cannot get response body", e);
+            }
+        }
+        return bytes;
+    }
+
+    @Override
+    public String bodyAsString() {
+        byte[] bytes = body();
+        return bytes != null ? new String(bytes, charset()) : null;
+    }
+
+    @Override
+    public void close() {
+        response.close();
+    }
+
+    /**
+     * Returns the charset of the response body.
+     *
+     * @return the charset declared in the content type, or UTF-8 if none is declared
+     */
+    private Charset charset() {
+        MediaType contentType = body != null ? body.contentType() : null;
+        Charset charset = contentType != null ? contentType.charset() : null;
+        return charset != null ? charset : StandardCharsets.UTF_8;
+    }
+}
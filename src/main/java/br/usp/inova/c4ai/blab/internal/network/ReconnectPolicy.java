@@ -0,0 +1,33 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+/**
+ * Describes how a {@link ReconnectingWebSocket} behaves while the connection is unavailable.
+ *
+ * @param bufferCapacity maximum number of outbound messages kept while reconnecting
+ * @param initialDelay   delay before the first reconnection attempt, in milliseconds
+ * @param maxDelay       maximum delay between reconnection attempts, in milliseconds
+ */
+public record ReconnectPolicy(int bufferCapacity, long initialDelay, long maxDelay) {
+
+    /**
+     * Policy that keeps up to 32 messages and waits between 0.5 and 30 seconds before reconnecting.
+     */
+    public static final ReconnectPolicy DEFAULT = new ReconnectPolicy(32, 500, 30_000);
+
+    /**
+     * Returns the delay before a reconnection attempt.
+     * <p>
+     * The delay grows exponentially with the number of failed attempts, up to {@code maxDelay},
+     * and a random value between 0 and half of it is subtracted, so that many clients do not reconnect at once.
+     *
+     * @param attempt number of consecutive failed attempts (0 for the first attempt)
+     * @param random  a random number between 0 (inclusive) and 1 (exclusive)
+     * @return the delay in milliseconds
+     */
+    public long delay(int attempt, double random) {
+        long delay = initialDelay << Math.min(attempt, 30);
+        if (delay <= 0 || delay > maxDelay)
+            delay = maxDelay;
+        return delay - (long) (random * (delay / 2.0));
+    }
+}
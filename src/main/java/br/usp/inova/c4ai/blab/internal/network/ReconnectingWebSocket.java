@@ -0,0 +1,317 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A WebSocket connection that is re-established automatically when it fails or is closed by the server.
+ * <p>
+ * Every connection uses the same URL and headers. While the connection is unavailable, outbound messages are kept
+ * in a bounded buffer and sent in order as soon as a new connection is open.
+ * <p>
+ * Events of the current connection are forwarded to the listener; events of previous connections are ignored.
+ */
+public class ReconnectingWebSocket implements WebSocket {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Network handler that creates the connections.
+     */
+    private final Network network;
+
+    /**
+     * The WS(S) request URL.
+     */
+    private final String url;
+
+    /**
+     * The request headers.
+     */
+    private final Iterable<HeaderEntry> headers;
+
+    /**
+     * Listener that receives the events of the current connection.
+     */
+    private final WebSocketListener listener;
+
+    /**
+     * Scheduler of reconnection attempts.
+     */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Buffer size and reconnection delays.
+     */
+    private final ReconnectPolicy policy;
+
+    /**
+     * Messages waiting for a connection ({@link String}s for text messages and {@link ByteBuffer}s for binary
+     * messages).
+     */
+    private final Deque<Object> buffer = new ArrayDeque<>();
+
+    /**
+     * Current connection.
+     */
+    private WebSocket current;
+
+    /**
+     * Incremented whenever a new connection is created, so that events of previous connections are ignored.
+     */
+    private long generation;
+
+    /**
+     * Whether the current connection is open.
+     */
+    private boolean open;
+
+    /**
+     * Whether {@link #close(int, String)} has been called.
+     */
+    private boolean closed;
+
+    /**
+     * Number of consecutive failed connection attempts.
+     */
+    private int attempts;
+
+    /**
+     * Scheduled reconnection attempt, if any.
+     */
+    private ScheduledFuture<?> reconnection;
+
+    /**
+     * Creates an instance and starts connecting.
+     *
+     * @param network   network handler that creates the connections
+     * @param url       the WS(S) request URL
+     * @param headers   the request headers
+     * @param listener  a listener that will handle the communication via WebSocket
+     * @param scheduler scheduler of reconnection attempts
+     * @param policy    buffer size and reconnection delays
+     */
+    ReconnectingWebSocket(Network network, String url, Iterable<HeaderEntry> headers, WebSocketListener listener,
+                          ScheduledExecutorService scheduler, ReconnectPolicy policy) {
+        this.network = network;
+        this.url = url;
+        this.headers = headers;
+        this.listener = listener;
+        this.scheduler = scheduler;
+        this.policy = policy;
+        connect();
+    }
+
+    /**
+     * Sends a message, or keeps it in the buffer if the connection is not open.
+     *
+     * @param text the text to be sent
+     * @return {@code false} if the connection has been closed or the buffer is full, {@code true} otherwise
+     */
+    @Override
+    public synchronized boolean send(String text) {
+        if (closed)
+            return false;
+        if (open && buffer.isEmpty() && current.send(text))
+            return true;
+        return enqueue(text);
+    }
+
+    /**
+     * Sends a binary message, or keeps a copy of it in the buffer if the connection is not open.
+     *
+     * @param bytes the bytes to be sent
+     * @return {@code false} if the connection has been closed or the buffer is full, {@code true} otherwise
+     */
+    @Override
+    public synchronized boolean send(ByteBuffer bytes) {
+        if (closed)
+            return false;
+        if (open && buffer.isEmpty() && current.send(bytes.duplicate())) {
+            bytes.position(bytes.limit());
+            return true;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(bytes.remaining()).put(bytes).flip();
+        return enqueue(copy);
+    }
+
+    /**
+     * Keeps a message in the buffer.
+     *
+     * @param message a {@link String} or a {@link ByteBuffer} that is not used elsewhere
+     * @return {@code false} if the buffer is full, {@code true} otherwise
+     */
+    private boolean enqueue(Object message) {
+        if (buffer.size() >= policy.bufferCapacity()) {
+            logger.warn("WebSocket buffer is full ({} messages)", buffer.size());
+            return false;
+        }
+        buffer.addLast(message);
+        return true;
+    }
+
+    /**
+     * Sends a buffered message through the current connection.
+     *
+     * @param message a {@link String} or a {@link ByteBuffer}
+     * @return whether the message was accepted by the connection
+     */
+    private boolean sendBuffered(Object message) {
+        if (message instanceof ByteBuffer bytes)
+            return current.send(bytes.duplicate());
+        return current.send((String) message);
+    }
+
+    /**
+     * Closes the connection and stops reconnecting. Buffered messages are discarded.
+     *
+     * @param code   the closing code
+     * @param reason the reason for closing
+     * @return whether the request was completed successfully
+     */
+    @Override
+    public synchronized boolean close(int code, String reason) {
+        if (closed)
+            return false;
+        closed = true;
+        buffer.clear();
+        if (reconnection != null)
+            reconnection.cancel(false);
+        return current.close(code, reason);
+    }
+
+    /**
+     * Creates a new connection.
+     */
+    private synchronized void connect() {
+        if (closed)
+            return;
+        reconnection = null;
+        open = false;
+        long connectionGeneration = ++generation;
+        current = network.newWebSocket(url, headers, new ConnectionListener(connectionGeneration));
+    }
+
+    /**
+     * Schedules a new connection attempt after the current connection fails or is closed, unless
+     * {@link #close(int, String)} has been called.
+     *
+     * @param connectionGeneration generation of the connection that failed
+     */
+    private synchronized void scheduleReconnection(long connectionGeneration) {
+        if (closed || connectionGeneration != generation || reconnection != null)
+            return;
+        open = false;
+        long delay = policy.delay(attempts++, ThreadLocalRandom.current().nextDouble());
+        logger.info("Reconnecting to {} in {}ms (attempt {})", url, delay, attempts);
+        reconnection = scheduler.schedule(this::connect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Marks the connection as open and sends the buffered messages.
+     *
+     * @param connectionGeneration generation of the connection that was opened
+     * @return whether the connection is the current one
+     */
+    private synchronized boolean opened(long connectionGeneration) {
+        if (connectionGeneration != generation)
+            return false;
+        open = true;
+        attempts = 0;
+        while (!buffer.isEmpty() && sendBuffered(buffer.peekFirst()))
+            buffer.removeFirst();
+        return true;
+    }
+
+    /**
+     * Completes the closing handshake started by the server. Messages sent from now on are buffered.
+     *
+     * @param connectionGeneration generation of the connection that is closing
+     * @param code                 the closing code sent by the server
+     * @return whether the connection is the current one
+     */
+    private synchronized boolean closing(long connectionGeneration, int code) {
+        if (connectionGeneration != generation)
+            return false;
+        open = false;
+        current.close(code, null);
+        return true;
+    }
+
+    /**
+     * Checks whether an event belongs to the current connection.
+     *
+     * @param connectionGeneration generation of the connection that produced the event
+     * @return whether the connection is the current one
+     */
+    private synchronized boolean isCurrent(long connectionGeneration) {
+        return connectionGeneration == generation;
+    }
+
+    /**
+     * Receives the events of one connection.
+     */
+    private final class ConnectionListener extends WebSocketListener {
+
+        /**
+         * Generation of the connection.
+         */
+        private final long connectionGeneration;
+
+        private ConnectionListener(long connectionGeneration) {
+            this.connectionGeneration = connectionGeneration;
+        }
+
+        @Override
+        protected void onOpen(Response response) {
+            if (opened(connectionGeneration))
+                listener.onOpen(response);
+        }
+
+        @Override
+        protected void onMessage(String text) {
+            if (isCurrent(connectionGeneration))
+                listener.onMessage(text);
+        }
+
+        @Override
+        protected void onMessage(ByteBuffer bytes) {
+            if (isCurrent(connectionGeneration))
+                listener.onMessage(bytes);
+        }
+
+        @Override
+        protected void onClosing(int code, String reason) {
+            if (closing(connectionGeneration, code))
+                listener.onClosing(code, reason);
+        }
+
+        @Override
+        protected void onClosed(int code, String reason) {
+            if (!isCurrent(connectionGeneration))
+                return;
+            listener.onClosed(code, reason);
+            // whatever the code (a server that restarts closes normally), unless close() was called
+            scheduleReconnection(connectionGeneration);
+        }
+
+        @Override
+        protected void onFailure(Throwable t, Response response) {
+            if (!isCurrent(connectionGeneration))
+                return;
+            listener.onFailure(t, response);
+            scheduleReconnection(connectionGeneration);
+        }
+    }
+}
@@ -1,22 +1,19 @@
 package br.usp.inova.c4ai.blab.internal.network;
 
-import okhttp3.ResponseBody;
-import org.apache.logging.log4j.LogManager;
-import org.apache.logging.log4j.Logger;
-
-import java.io.IOException;
+import java.io.Closeable;
+import java.io.Reader;
 import java.util.List;
 import java.util.Map;
 
 /**
  * Handles request responses.
+ * <p>
+ * The body is read directly from the connection, so it can only be consumed once: either as a stream
+ * ({@link #bodyReader()}) or as a whole ({@link #body()} or {@link #bodyAsString()}, which keep the bytes so that
+ * they can be read again). The response must be closed so that the connection returns to the pool
+ * (responses passed to a {@link ResponseCallback} are closed automatically when the callback returns).
  */
-public interface Response {
-
-    /**
-     * Class logger.
-     */
-    Logger logger = LogManager.getLogger();
+public interface Response extends Closeable {
 
     /**
      * Wraps an OkHttp {@link okhttp3.Response} instance.
@@ -25,50 +22,7 @@ public interface Response {
      * @return the wrapped object
      */
     static Response fromOkHttp3Response(okhttp3.Response response) {
-        ResponseBody body = response.body();
-        List<Cookie> cookies = okhttp3.Cookie.parseAll(response.request().url(), response.headers()).stream().map(cookie -> new Cookie(cookie.name(), cookie.value())).toList();
-        return new Response(
-        ) {
-            @Override
-            public boolean success() {
-                return response.isSuccessful();
-            }
-
-            @Override
-            public int code() {
-                return response.code();
-            }
-
-            @Override
-            public Map<String, List<String>> headers() {
-                return response.headers().toMultimap();
-            }
-
-            @Override
-            public List<Cookie> cookies() {
-                return cookies;
-            }
-
-            @Override
-            public byte[] body() {
-                try {
-                    return body != null ? body.bytes() : null;
-                } catch (IOException e) {
-                    logger.error("Cannot get response body", e);
-                    return null;
-                }
-            }
-
-            @Override
-            public String bodyAsString() {
-                try {
-                    return body != null ? body.string() : null;
-                } catch (IOException e) {
-                    logger.error("Cannot get response body as string", e);
-                    return null;
-                }
-            }
-        };
+        return new OkHttpResponse(response);
     }
 
     /**
@@ -100,16 +54,31 @@ public interface Response {
     List<Cookie> cookies();
 
     /**
-     * Returns the response body.
+     * Returns a reader that decodes the response body as it is received, according to its charset
+     * (UTF-8 by default), without keeping a copy of it.
+     *
+     * @return a reader of the response body
+     * @throws IllegalStateException if the body has already been consumed as a stream
+     */
+    Reader bodyReader();
+
+    /**
+     * Reads the whole response body and keeps it in memory.
      *
-     * @return the response body as a byte array
+     * @return the response body as a byte array, or {@code null} if it cannot be read
      */
     byte[] body();
 
     /**
-     * Returns the text response body.
+     * Reads the whole response body and keeps it in memory.
      *
-     * @return the response body as a string
+     * @return the response body as a string, or {@code null} if it cannot be read
      */
     String bodyAsString();
+
+    /**
+     * Releases the connection. The body cannot be read afterwards, unless it has been kept in memory.
+     */
+    @Override
+    void close();
 }
@@ -16,6 +16,7 @@ public interface ResponseCallback {
 
     /**
      * Called when a response is received from the server.
+     * The response is closed when this method returns, so its body must be consumed (or kept in memory) here.
      *
      * @param response the response
      */
@@ -0,0 +1,147 @@
+package br.usp.inova.c4ai.blab.internal.network;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Measures the phases of an HTTP call and reports them when the call ends.
+ * <p>
+ * OkHttp creates one instance per call, so no synchronization is needed.
+ */
+final class TimingEventListener extends EventListener {
+
+    /**
+     * Function that is called with the durations when the call ends.
+     */
+    private final Consumer<CallTimings> consumer;
+
+    /**
+     * Start of the call ({@link System#nanoTime()}).
+     */
+    private long callStart;
+
+    /**
+     * Start of the DNS resolution ({@link System#nanoTime()}).
+     */
+    private long dnsStart;
+
+    /**
+     * Start of the connection establishment ({@link System#nanoTime()}).
+     */
+    private long connectStart;
+
+    /**
+     * Start of the TLS handshake ({@link System#nanoTime()}).
+     */
+    private long secureConnectStart;
+
+    /**
+     * Duration of the DNS resolution, or -1 if it did not happen.
+     */
+    private long dns = -1;
+
+    /**
+     * Duration of the connection establishment, or -1 if it did not happen.
+     */
+    private long connect = -1;
+
+    /**
+     * Duration of the TLS handshake, or -1 if it did not happen.
+     */
+    private long tls = -1;
+
+    /**
+     * Time until the response headers start to arrive, or -1 if they did not.
+     */
+    private long timeToFirstByte = -1;
+
+    private TimingEventListener(Consumer<CallTimings> consumer) {
+        this.consumer = consumer;
+    }
+
+    /**
+     * Creates a factory of listeners.
+     *
+     * @param consumer function that is called with the durations of each call when it ends
+     * @return the factory
+     */
+    static EventListener.Factory factory(Consumer<CallTimings> consumer) {
+        return call -> new TimingEventListener(consumer);
+    }
+
+    @Override
+    public void callStart(Call call) {
+        callStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        dnsStart = System.nanoTime();
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        dns = System.nanoTime() - dnsStart;
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        secureConnectStart = System.nanoTime();
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        tls = System.nanoTime() - secureConnectStart;
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        connect = System.nanoTime() - connectStart;
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol, IOException ioe) {
+        connect = System.nanoTime() - connectStart;
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        if (timeToFirstByte < 0)
+            timeToFirstByte = System.nanoTime() - callStart;
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        finish(call, false);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        finish(call, true);
+    }
+
+    /**
+     * Reports the durations.
+     *
+     * @param call   the call
+     * @param failed whether the call failed
+     */
+    private void finish(Call call, boolean failed) {
+        consumer.accept(new CallTimings(call.request().url().host(), dns, connect, tls, timeToFirstByte,
+                System.nanoTime() - callStart, failed));
+    }
+}
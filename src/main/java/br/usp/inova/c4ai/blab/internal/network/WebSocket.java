@@ -1,5 +1,9 @@
 package br.usp.inova.c4ai.blab.internal.network;
 
+import okio.ByteString;
+
+import java.nio.ByteBuffer;
+
 /**
  * Handles data sent via a WebSocket connection.
  */
@@ -18,6 +22,10 @@ public interface WebSocket {
                 return ws.send(text);
             }
 
+            public boolean send(ByteBuffer bytes) {
+                return ws.send(ByteString.of(bytes));
+            }
+
             public boolean close(int code, String reason) {
                 return ws.close(code, reason);
             }
@@ -32,6 +40,17 @@ public interface WebSocket {
      */
     boolean send(String text);
 
+    /**
+     * Sends binary contents through this connection.
+     * <p>
+     * The remaining bytes of the buffer are sent, and its position is advanced to its limit.
+     * The buffer can be reused as soon as this method returns.
+     *
+     * @param bytes the bytes to be sent
+     * @return whether the request was completed successfully
+     */
+    boolean send(ByteBuffer bytes);
+
     /**
      * Closes the connection.
      *
@@ -1,5 +1,7 @@
 package br.usp.inova.c4ai.blab.internal.network;
 
+import java.nio.ByteBuffer;
+
 /**
  * Handles data received from a WebSocket connection.
  * <p>
@@ -13,12 +15,27 @@ public abstract class WebSocketListener {
     protected void onMessage(String text) {
     }
 
+    /**
+     * Called when a binary message is received.
+     *
+     * @param bytes a read-only buffer with the contents of the message (it is not copied, and it remains valid
+     *              after this method returns)
+     */
+    protected void onMessage(ByteBuffer bytes) {
+    }
+
     protected void onClosing(int code, String reason) {
     }
 
     protected void onClosed(int code, String reason) {
     }
 
+    /**
+     * Called when the connection fails.
+     *
+     * @param t        the cause
+     * @param response the server response, or {@code null} if there is none
+     */
     protected void onFailure(Throwable t, Response response) {
     }
 
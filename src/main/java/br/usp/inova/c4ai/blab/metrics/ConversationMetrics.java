@@ -0,0 +1,374 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Collects latency histograms and counters of conversations.
+ * <p>
+ * A single instance can be shared by many conversations (e.g. all sessions of a gateway), so that the exported
+ * metrics describe the whole process.
+ */
+public class ConversationMetrics {
+
+    /**
+     * Latency histogram of each phase.
+     */
+    private final Map<TurnPhase, LatencyHistogram> histograms = new EnumMap<>(TurnPhase.class);
+
+    /**
+     * Latency histogram of each phase of HTTP calls.
+     */
+    private final Map<HttpPhase, LatencyHistogram> httpHistograms = new EnumMap<>(HttpPhase.class);
+
+    /**
+     * Number of HTTP calls that failed.
+     */
+    private final LongAdder failedHttpCalls = new LongAdder();
+
+    /**
+     * Values that are computed when the metrics are exported (such as the number of open connections).
+     */
+    private final List<Gauge> gauges = new CopyOnWriteArrayList<>();
+
+    /**
+     * Totals that only increase and are computed when the metrics are exported (such as the number of records
+     * written).
+     */
+    private final List<Counter> counters = new CopyOnWriteArrayList<>();
+
+    /**
+     * Number of messages that could not be sent to BLAB Controller.
+     */
+    private final LongAdder failedSends = new LongAdder();
+
+    /**
+     * Number of times the user did not say anything within the time limit.
+     */
+    private final LongAdder userTimeouts = new LongAdder();
+
+    /**
+     * Number of times the bots did not reply within the time limit.
+     */
+    private final LongAdder botTimeouts = new LongAdder();
+
+    /**
+     * Number of user messages whose reply was found in the reply cache.
+     */
+    private final LongAdder replyCacheHits = new LongAdder();
+
+    /**
+     * Number of cacheable user messages whose reply was not found in the reply cache.
+     */
+    private final LongAdder replyCacheMisses = new LongAdder();
+
+    /**
+     * Number of voice recognitions joined to a previous one in the same user message.
+     */
+    private final LongAdder mergedRecognitions = new LongAdder();
+
+    /**
+     * Number of voice recognitions dropped because they repeated one in the same user message.
+     */
+    private final LongAdder duplicateRecognitions = new LongAdder();
+
+    /**
+     * Number of times the user interrupted the robot while it was speaking.
+     */
+    private final LongAdder bargeIns = new LongAdder();
+
+    /**
+     * Depth and overflows of the user message queues.
+     */
+    private final QueueMetrics userQueue = new QueueMetrics();
+
+    /**
+     * Depth and overflows of the bot message queues.
+     */
+    private final QueueMetrics botQueue = new QueueMetrics();
+
+    /**
+     * Initializes an instance with empty histograms and zeroed counters.
+     */
+    public ConversationMetrics() {
+        for (TurnPhase phase : TurnPhase.values())
+            histograms.put(phase, new LatencyHistogram());
+        for (HttpPhase phase : HttpPhase.values())
+            httpHistograms.put(phase, new LatencyHistogram());
+    }
+
+    /**
+     * Returns the latency histogram of a phase.
+     *
+     * @param phase the phase
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(TurnPhase phase) {
+        return histograms.get(phase);
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(TurnPhase phase, long nanos) {
+        histograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Returns the latency histogram of a phase of HTTP calls.
+     *
+     * @param phase the phase
+     * @return the histogram
+     */
+    public LatencyHistogram histogram(HttpPhase phase) {
+        return httpHistograms.get(phase);
+    }
+
+    /**
+     * Records the duration of a phase of an HTTP call.
+     *
+     * @param phase the phase
+     * @param nanos the duration in nanoseconds
+     */
+    public void record(HttpPhase phase, long nanos) {
+        httpHistograms.get(phase).record(nanos);
+    }
+
+    /**
+     * Increments the number of HTTP calls that failed.
+     */
+    public void failedHttpCall() {
+        failedHttpCalls.increment();
+    }
+
+    /**
+     * Adds a value that is computed when the metrics are exported.
+     *
+     * @param name  name in snake case
+     * @param help  description
+     * @param value function that computes the current value
+     */
+    public void addGauge(String name, String help, LongSupplier value) {
+        gauges.add(new Gauge(name, help, value));
+    }
+
+    /**
+     * Adds a total that only increases and is computed when the metrics are exported.
+     *
+     * @param name  name in snake case, without the {@code _total} suffix
+     * @param help  description
+     * @param value function that computes the current total
+     */
+    public void addCounter(String name, String help, LongSupplier value) {
+        counters.add(new Counter(name, help, value));
+    }
+
+    /**
+     * Creates an object that measures the phases of the turns of a conversation.
+     *
+     * @return a new timer
+     */
+    public TurnTimer newTurnTimer() {
+        return new TurnTimer(this);
+    }
+
+    /**
+     * Increments the number of messages that could not be sent to BLAB Controller.
+     */
+    public void failedSend() {
+        failedSends.increment();
+    }
+
+    /**
+     * Increments the number of times the user did not say anything within the time limit.
+     */
+    public void userTimeout() {
+        userTimeouts.increment();
+    }
+
+    /**
+     * Increments the number of times the bots did not reply within the time limit.
+     */
+    public void botTimeout() {
+        botTimeouts.increment();
+    }
+
+    /**
+     * Increments the number of user messages whose reply was found in the reply cache.
+     */
+    public void replyCacheHit() {
+        replyCacheHits.increment();
+    }
+
+    /**
+     * Increments the number of cacheable user messages whose reply was not found in the reply cache.
+     */
+    public void replyCacheMiss() {
+        replyCacheMisses.increment();
+    }
+
+    /**
+     * Increments the number of voice recognitions joined to a previous one in the same user message.
+     */
+    public void mergedRecognition() {
+        mergedRecognitions.increment();
+    }
+
+    /**
+     * Increments the number of voice recognitions dropped because they repeated one in the same user message.
+     */
+    public void duplicateRecognition() {
+        duplicateRecognitions.increment();
+    }
+
+    /**
+     * Increments the number of times the user interrupted the robot while it was speaking.
+     */
+    public void bargeIn() {
+        bargeIns.increment();
+    }
+
+    /**
+     * Returns the number of messages that could not be sent to BLAB Controller.
+     *
+     * @return the number of failed sends
+     */
+    public long failedSends() {
+        return failedSends.sum();
+    }
+
+    /**
+     * Returns the number of times the user did not say anything within the time limit.
+     *
+     * @return the number of user timeouts
+     */
+    public long userTimeouts() {
+        return userTimeouts.sum();
+    }
+
+    /**
+     * Returns the number of times the bots did not reply within the time limit.
+     *
+     * @return the number of bot timeouts
+     */
+    public long botTimeouts() {
+        return botTimeouts.sum();
+    }
+
+    /**
+     * Returns the number of user messages whose reply was found in the reply cache.
+     *
+     * @return the number of cache hits
+     */
+    public long replyCacheHits() {
+        return replyCacheHits.sum();
+    }
+
+    /**
+     * Returns the number of cacheable user messages whose reply was not found in the reply cache.
+     *
+     * @return the number of cache misses
+     */
+    public long replyCacheMisses() {
+        return replyCacheMisses.sum();
+    }
+
+    /**
+     * Returns the number of voice recognitions joined to a previous one in the same user message.
+     *
+     * @return the number of merged recognitions
+     */
+    public long mergedRecognitions() {
+        return mergedRecognitions.sum();
+    }
+
+    /**
+     * Returns the number of voice recognitions dropped because they repeated one in the same user message.
+     *
+     * @return the number of duplicate recognitions
+     */
+    public long duplicateRecognitions() {
+        return duplicateRecognitions.sum();
+    }
+
+    /**
+     * Returns the number of times the user interrupted the robot while it was speaking.
+     *
+     * @return the number of barge-ins
+     */
+    public long bargeIns() {
+        return bargeIns.sum();
+    }
+
+    /**
+     * Returns the number of HTTP calls that failed.
+     *
+     * @return the number of failed calls
+     */
+    public long failedHttpCalls() {
+        return failedHttpCalls.sum();
+    }
+
+    /**
+     * Returns the values that are computed when the metrics are exported.
+     *
+     * @return an unmodifiable list of gauges
+     */
+    public List<Gauge> gauges() {
+        return List.copyOf(gauges);
+    }
+
+    /**
+     * Returns the totals that are computed when the metrics are exported.
+     *
+     * @return an unmodifiable list of counters
+     */
+    public List<Counter> counters() {
+        return List.copyOf(counters);
+    }
+
+    /**
+     * Returns the depth and overflows of the user message queues.
+     *
+     * @return the metrics of the user message queues
+     */
+    public QueueMetrics userQueue() {
+        return userQueue;
+    }
+
+    /**
+     * Returns the depth and overflows of the bot message queues.
+     *
+     * @return the metrics of the bot message queues
+     */
+    public QueueMetrics botQueue() {
+        return botQueue;
+    }
+
+    /**
+     * Represents a value that is computed when the metrics are exported.
+     *
+     * @param name  name in snake case
+     * @param help  description
+     * @param value function that computes the current value
+     */
+    public record Gauge(String name, String help, LongSupplier value) {
+    }
+
+    /**
+     * Represents a total that only increases and is computed when the metrics are exported.
+     *
+     * @param name  name in snake case, without the {@code _total} suffix
+     * @param help  description
+     * @param value function that computes the current total
+     */
+    public record Counter(String name, String help, LongSupplier value) {
+    }
+}
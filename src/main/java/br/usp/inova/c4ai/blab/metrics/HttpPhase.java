@@ -0,0 +1,50 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+/**
+ * Represents an interval of an HTTP call whose duration is measured.
+ */
+public enum HttpPhase {
+
+    /**
+     * Resolution of the host name (only when a new connection is established).
+     */
+    DNS("dns"),
+
+    /**
+     * Establishment of a new connection, including the TLS handshake.
+     */
+    CONNECT("connect"),
+
+    /**
+     * TLS handshake of a new connection.
+     */
+    TLS("tls"),
+
+    /**
+     * From the start of the call until the response headers start to arrive.
+     */
+    TIME_TO_FIRST_BYTE("time_to_first_byte"),
+
+    /**
+     * From the start to the end of the call.
+     */
+    CALL("call");
+
+    /**
+     * Name used in exported metrics.
+     */
+    private final String label;
+
+    HttpPhase(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the name used in exported metrics.
+     *
+     * @return the name in snake case
+     */
+    public String label() {
+        return label;
+    }
+}
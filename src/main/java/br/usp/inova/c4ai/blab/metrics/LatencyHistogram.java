@@ -0,0 +1,134 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with logarithmic buckets.
+ * <p>
+ * Durations are stored in microseconds. Each power of two is divided into {@value #SUB_BUCKETS} linear buckets,
+ * so the relative error of the percentiles is at most about 6%. Recording a value does not allocate memory.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Number of buckets per power of two.
+     */
+    private static final int SUB_BUCKETS = 16;
+
+    /**
+     * Base-2 logarithm of {@link #SUB_BUCKETS}.
+     */
+    private static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * Largest exponent with its own buckets (values above 2<sup>40</sup> µs are stored in the last bucket).
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    /**
+     * Number of buckets.
+     */
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    /**
+     * Number of values recorded in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of recorded values.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the recorded values, in microseconds.
+     */
+    private final AtomicLong sum = new AtomicLong();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos the duration in nanoseconds (negative values are ignored)
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+        long micros = nanos / 1000;
+        counts.incrementAndGet(bucketOf(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return the number of recorded values
+     */
+    public long count() {
+        return count.get();
+    }
+
+    /**
+     * Returns the sum of the recorded values.
+     *
+     * @return the sum in seconds
+     */
+    public double sumSeconds() {
+        return sum.get() / 1e6;
+    }
+
+    /**
+     * Returns an approximate percentile of the recorded values.
+     *
+     * @param quantile the quantile, between 0 and 1 (e.g. 0.99 for the 99th percentile)
+     * @return the percentile in seconds, or {@link Double#NaN} if no value has been recorded
+     */
+    public double percentileSeconds(double quantile) {
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            total += snapshot[i] = counts.get(i);
+        if (total == 0)
+            return Double.NaN;
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long cumulative = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            cumulative += snapshot[i];
+            if (cumulative >= rank)
+                return upperBoundOf(i) / 1e6;
+        }
+        return upperBoundOf(BUCKETS - 1) / 1e6;
+    }
+
+    /**
+     * Returns the bucket that contains a value.
+     *
+     * @param micros the value in microseconds
+     * @return the bucket index
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent > MAX_EXPONENT)
+            return BUCKETS - 1;
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * Returns the largest value stored in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the value in microseconds
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,93 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Creates {@link ConversationMetrics} instances and exports them according to the configuration.
+ */
+public final class MetricsExporter {
+
+    /**
+     * Class logger.
+     */
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * Name of the JMX bean.
+     */
+    private static final String OBJECT_NAME = "br.usp.inova.c4ai.blab:type=ConversationMetrics";
+
+    private MetricsExporter() {
+    }
+
+    /**
+     * Exports an existing instance.
+     * <p>
+     * If {@code METRICS_JMX} is enabled, the metrics are registered as a JMX bean.
+     * If {@code METRICS_PORT} is a positive number, they are served in Prometheus text format on that port.
+     *
+     * @param metrics the metrics
+     * @param config  configuration (see *README.md* for details)
+     * @return the export, which must be closed to stop serving the metrics
+     */
+    public static Export export(ConversationMetrics metrics, Properties config) {
+        ObjectName objectName = null;
+        String jmx = config.getProperty("METRICS_JMX", "false");
+        if (Set.of("true", "yes", "1").contains(jmx.strip().toLowerCase(Locale.ROOT))) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsMBean(metrics), name);
+                objectName = name;
+            } catch (JMException e) {
+                logger.error("Could not register metrics bean", e);
+            }
+        }
+        PrometheusEndpoint endpoint = null;
+        int port = Integer.parseInt(config.getProperty("METRICS_PORT", "0"));
+        if (port > 0) {
+            try {
+                endpoint = new PrometheusEndpoint(metrics, port);
+                logger.info("Serving metrics at http://localhost:{}/metrics", port);
+            } catch (IOException e) {
+                logger.error("Could not start metrics server on port {}", port, e);
+            }
+        }
+        return new Export(endpoint, objectName);
+    }
+
+    /**
+     * Where a {@link ConversationMetrics} instance is exported.
+     *
+     * @param endpoint   HTTP server of the Prometheus endpoint, or {@code null} if the metrics are not served
+     * @param objectName name of the JMX bean, or {@code null} if the metrics are not registered
+     */
+    public record Export(PrometheusEndpoint endpoint, ObjectName objectName) implements Closeable {
+
+        /**
+         * Stops the Prometheus endpoint (releasing its port) and unregisters the JMX bean, so that the metrics can
+         * be exported again in the same process.
+         */
+        @Override
+        public void close() {
+            if (endpoint != null)
+                endpoint.close();
+            if (objectName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                } catch (JMException e) {
+                    logger.warn("Could not unregister metrics bean", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.ReflectionException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Exposes a {@link ConversationMetrics} instance via JMX.
+ * <p>
+ * For each {@link TurnPhase}, the attributes {@code <phase>_p50}, {@code <phase>_p99} and {@code <phase>_p999}
+ * (in seconds) and {@code <phase>_count} are available, as well as the counters and queue depths.
+ * The same attributes are available for each {@link HttpPhase}, prefixed by {@code http_}, and so is each gauge and
+ * counter. Gauges and counters added after the bean is registered are included, since the description of the
+ * attributes is built whenever it is requested.
+ */
+public class MetricsMBean implements DynamicMBean {
+
+    /**
+     * The metrics exposed by this bean.
+     */
+    private final ConversationMetrics metrics;
+
+    /**
+     * Functions that compute the value of each fixed attribute (all but the gauges and counters), indexed by
+     * attribute name.
+     */
+    private final Map<String, Supplier<Object>> attributes = new LinkedHashMap<>();
+
+    /**
+     * Initializes an instance.
+     *
+     * @param metrics the metrics to be exposed
+     */
+    public MetricsMBean(ConversationMetrics metrics) {
+        this.metrics = metrics;
+        for (TurnPhase phase : TurnPhase.values()) {
+            LatencyHistogram histogram = metrics.histogram(phase);
+            attributes.put(phase.label() + "_p50", () -> histogram.percentileSeconds(0.5));
+            attributes.put(phase.label() + "_p99", () -> histogram.percentileSeconds(0.99));
+            attributes.put(phase.label() + "_p999", () -> histogram.percentileSeconds(0.999));
+            attributes.put(phase.label() + "_count", histogram::count);
+        }
+        for (HttpPhase phase : HttpPhase.values()) {
+            LatencyHistogram histogram = metrics.histogram(phase);
+            attributes.put("http_" + phase.label() + "_p50", () -> histogram.percentileSeconds(0.5));
+            attributes.put("http_" + phase.label() + "_p99", () -> histogram.percentileSeconds(0.99));
+            attributes.put("http_" + phase.label() + "_p999", () -> histogram.percentileSeconds(0.999));
+            attributes.put("http_" + phase.label() + "_count", histogram::count);
+        }
+        attributes.put("failed_sends", metrics::failedSends);
+        attributes.put("failed_http_calls", metrics::failedHttpCalls);
+        attributes.put("user_timeouts", metrics::userTimeouts);
+        attributes.put("bot_timeouts", metrics::botTimeouts);
+        attributes.put("reply_cache_hits", metrics::replyCacheHits);
+        attributes.put("reply_cache_misses", metrics::replyCacheMisses);
+        attributes.put("merged_recognitions", metrics::mergedRecognitions);
+        attributes.put("duplicate_recognitions", metrics::duplicateRecognitions);
+        attributes.put("barge_ins", metrics::bargeIns);
+        putQueueAttributes("user", metrics.userQueue());
+        putQueueAttributes("bot", metrics.botQueue());
+    }
+
+    /**
+     * Returns the function that computes the value of an attribute.
+     *
+     * @param name name of the attribute
+     * @return the function, or {@code null} if there is no such attribute
+     */
+    private Supplier<Object> attribute(String name) {
+        Supplier<Object> supplier = attributes.get(name);
+        if (supplier != null)
+            return supplier;
+        for (ConversationMetrics.Gauge gauge : metrics.gauges())
+            if (gauge.name().equals(name))
+                return () -> gauge.value().getAsLong();
+        for (ConversationMetrics.Counter counter : metrics.counters())
+            if (counter.name().equals(name))
+                return () -> counter.value().getAsLong();
+        return null;
+    }
+
+    /**
+     * Adds the attributes of a kind of message queue.
+     *
+     * @param queue        name of the queue ("user" or "bot")
+     * @param queueMetrics metrics of the queue
+     */
+    private void putQueueAttributes(String queue, QueueMetrics queueMetrics) {
+        attributes.put(queue + "_queue_depth", queueMetrics::depth);
+        attributes.put(queue + "_queue_high_water_mark", queueMetrics::highWaterMark);
+        attributes.put(queue + "_queue_dropped_messages", queueMetrics::droppedMessages);
+        attributes.put(queue + "_queue_coalesced_messages", queueMetrics::coalescedMessages);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        Supplier<Object> supplier = attribute(attribute);
+        if (supplier == null)
+            throw new AttributeNotFoundException(attribute);
+        return supplier.get();
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Attributes are read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String name : attributes) {
+            Supplier<Object> supplier = attribute(name);
+            if (supplier != null)
+                list.add(new Attribute(name, supplier.get()));
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        // there are no operations
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributeInfo = new ArrayList<>();
+        attributes.keySet().forEach(name -> attributeInfo.add(new MBeanAttributeInfo(
+                name, name.endsWith("_p50") || name.endsWith("_p99") || name.endsWith("_p999") ? "double" : "long",
+                name, true, false, false)));
+        for (ConversationMetrics.Gauge gauge : metrics.gauges())
+            attributeInfo.add(new MBeanAttributeInfo(gauge.name(), "long", gauge.help(), true, false, false));
+        for (ConversationMetrics.Counter counter : metrics.counters())
+            attributeInfo.add(new MBeanAttributeInfo(counter.name(), "long", counter.help(), true, false, false));
+        return new MBeanInfo(getClass().getName(), "Conversation latencies and counters",
+                attributeInfo.toArray(MBeanAttributeInfo[]::new), null, new MBeanOperationInfo[0], null);
+    }
+}
@@ -0,0 +1,158 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a {@link ConversationMetrics} instance in Prometheus text format at {@code http://localhost:<port>/metrics}.
+ * <p>
+ * The server only listens on the loopback interface.
+ */
+public class PrometheusEndpoint implements Closeable {
+
+    /**
+     * Quantiles exported for each phase.
+     */
+    private static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+    /**
+     * The metrics to be served.
+     */
+    private final ConversationMetrics metrics;
+
+    /**
+     * The HTTP server.
+     */
+    private final HttpServer server;
+
+    /**
+     * Starts a server.
+     *
+     * @param metrics the metrics to be served
+     * @param port    the TCP port
+     * @throws IOException if the server cannot be started
+     */
+    public PrometheusEndpoint(ConversationMetrics metrics, int port) throws IOException {
+        this.metrics = metrics;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * Writes the metrics in Prometheus text format.
+     *
+     * @return the metrics
+     */
+    String format() {
+        StringBuilder sb = new StringBuilder(4096);
+        sb.append("# HELP blab_turn_phase_seconds Duration of the phases of conversation turns.\n");
+        sb.append("# TYPE blab_turn_phase_seconds summary\n");
+        for (TurnPhase phase : TurnPhase.values()) {
+            LatencyHistogram histogram = metrics.histogram(phase);
+            for (double quantile : QUANTILES) {
+                sb.append("blab_turn_phase_seconds{phase=\"").append(phase.label())
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.percentileSeconds(quantile)).append('\n');
+            }
+            sb.append("blab_turn_phase_seconds_sum{phase=\"").append(phase.label()).append("\"} ")
+                    .append(histogram.sumSeconds()).append('\n');
+            sb.append("blab_turn_phase_seconds_count{phase=\"").append(phase.label()).append("\"} ")
+                    .append(histogram.count()).append('\n');
+        }
+        sb.append("# HELP blab_http_phase_seconds Duration of the phases of HTTP calls.\n");
+        sb.append("# TYPE blab_http_phase_seconds summary\n");
+        for (HttpPhase phase : HttpPhase.values()) {
+            LatencyHistogram histogram = metrics.histogram(phase);
+            for (double quantile : QUANTILES) {
+                sb.append("blab_http_phase_seconds{phase=\"").append(phase.label())
+                        .append("\",quantile=\"").append(quantile).append("\"} ")
+                        .append(histogram.percentileSeconds(quantile)).append('\n');
+            }
+            sb.append("blab_http_phase_seconds_sum{phase=\"").append(phase.label()).append("\"} ")
+                    .append(histogram.sumSeconds()).append('\n');
+            sb.append("blab_http_phase_seconds_count{phase=\"").append(phase.label()).append("\"} ")
+                    .append(histogram.count()).append('\n');
+        }
+        sb.append("# HELP blab_failed_http_calls_total HTTP calls that failed.\n");
+        sb.append("# TYPE blab_failed_http_calls_total counter\n");
+        sb.append("blab_failed_http_calls_total ").append(metrics.failedHttpCalls()).append('\n');
+        sb.append("# HELP blab_failed_sends_total Messages that could not be sent to BLAB Controller.\n");
+        sb.append("# TYPE blab_failed_sends_total counter\n");
+        sb.append("blab_failed_sends_total ").append(metrics.failedSends()).append('\n');
+        sb.append("# HELP blab_timeouts_total Time limits reached while waiting for the user or the bots.\n");
+        sb.append("# TYPE blab_timeouts_total counter\n");
+        sb.append("blab_timeouts_total{party=\"user\"} ").append(metrics.userTimeouts()).append('\n');
+        sb.append("blab_timeouts_total{party=\"bot\"} ").append(metrics.botTimeouts()).append('\n');
+        sb.append("# HELP blab_reply_cache_requests_total Lookups in the reply cache.\n");
+        sb.append("# TYPE blab_reply_cache_requests_total counter\n");
+        sb.append("blab_reply_cache_requests_total{result=\"hit\"} ").append(metrics.replyCacheHits()).append('\n');
+        sb.append("blab_reply_cache_requests_total{result=\"miss\"} ").append(metrics.replyCacheMisses()).append('\n');
+        sb.append("# HELP blab_recognitions_total Voice recognitions joined to or dropped from a user message.\n");
+        sb.append("# TYPE blab_recognitions_total counter\n");
+        sb.append("blab_recognitions_total{action=\"merged\"} ").append(metrics.mergedRecognitions()).append('\n');
+        sb.append("blab_recognitions_total{action=\"duplicate\"} ").append(metrics.duplicateRecognitions()).append('\n');
+        sb.append("# HELP blab_barge_ins_total Times the user interrupted the robot while it was speaking.\n");
+        sb.append("# TYPE blab_barge_ins_total counter\n");
+        sb.append("blab_barge_ins_total ").append(metrics.bargeIns()).append('\n');
+        sb.append("# HELP blab_queue_depth Messages waiting in queues.\n");
+        sb.append("# TYPE blab_queue_depth gauge\n");
+        sb.append("blab_queue_depth{queue=\"user\"} ").append(metrics.userQueue().depth()).append('\n');
+        sb.append("blab_queue_depth{queue=\"bot\"} ").append(metrics.botQueue().depth()).append('\n');
+        sb.append("# HELP blab_queue_high_water_mark Highest number of messages observed in a single queue.\n");
+        sb.append("# TYPE blab_queue_high_water_mark gauge\n");
+        sb.append("blab_queue_high_water_mark{queue=\"user\"} ").append(metrics.userQueue().highWaterMark()).append('\n');
+        sb.append("blab_queue_high_water_mark{queue=\"bot\"} ").append(metrics.botQueue().highWaterMark()).append('\n');
+        sb.append("# HELP blab_queue_overflows_total Messages dropped or coalesced because a queue was full.\n");
+        sb.append("# TYPE blab_queue_overflows_total counter\n");
+        sb.append("blab_queue_overflows_total{queue=\"user\",action=\"dropped\"} ")
+                .append(metrics.userQueue().droppedMessages()).append('\n');
+        sb.append("blab_queue_overflows_total{queue=\"user\",action=\"coalesced\"} ")
+                .append(metrics.userQueue().coalescedMessages()).append('\n');
+        sb.append("blab_queue_overflows_total{queue=\"bot\",action=\"dropped\"} ")
+                .append(metrics.botQueue().droppedMessages()).append('\n');
+        sb.append("blab_queue_overflows_total{queue=\"bot\",action=\"coalesced\"} ")
+                .append(metrics.botQueue().coalescedMessages()).append('\n');
+        for (ConversationMetrics.Gauge gauge : metrics.gauges()) {
+            sb.append("# HELP blab_").append(gauge.name()).append(' ').append(gauge.help()).append('\n');
+            sb.append("# TYPE blab_").append(gauge.name()).append(" gauge\n");
+            sb.append("blab_").append(gauge.name()).append(' ').append(gauge.value().getAsLong()).append('\n');
+        }
+        for (ConversationMetrics.Counter counter : metrics.counters()) {
+            sb.append("# HELP blab_").append(counter.name()).append("_total ").append(counter.help()).append('\n');
+            sb.append("# TYPE blab_").append(counter.name()).append("_total counter\n");
+            sb.append("blab_").append(counter.name()).append("_total ").append(counter.value().getAsLong()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Handles an HTTP request.
+     *
+     * @param exchange the request and response
+     * @throws IOException if the response cannot be written
+     */
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = format().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream output = exchange.getResponseBody()) {
+            output.write(body);
+        }
+    }
+
+    /**
+     * Stops the server.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
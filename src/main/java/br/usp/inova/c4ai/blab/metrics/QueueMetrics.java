@@ -0,0 +1,102 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the depth, the high-water mark and the overflows of a kind of message queue (e.g. the user message queues
+ * of all conversations).
+ */
+public final class QueueMetrics {
+
+    /**
+     * Total number of messages waiting in the queues.
+     */
+    private final AtomicLong depth = new AtomicLong();
+
+    /**
+     * Highest number of messages observed in a single queue.
+     */
+    private final AtomicLong highWaterMark = new AtomicLong();
+
+    /**
+     * Number of messages discarded because a queue was full.
+     */
+    private final LongAdder droppedMessages = new LongAdder();
+
+    /**
+     * Number of messages merged into other messages because a queue was full.
+     */
+    private final LongAdder coalescedMessages = new LongAdder();
+
+    /**
+     * Adds a value to the number of messages waiting in the queues.
+     *
+     * @param delta 1 when a message is enqueued, -1 when it is dequeued
+     */
+    public void addDepth(long delta) {
+        depth.addAndGet(delta);
+    }
+
+    /**
+     * Updates the high-water mark with the current size of a queue.
+     *
+     * @param size number of messages in the queue
+     */
+    public void updateHighWaterMark(long size) {
+        if (size > highWaterMark.get())
+            highWaterMark.accumulateAndGet(size, Math::max);
+    }
+
+    /**
+     * Increments the number of messages discarded because a queue was full.
+     */
+    public void messageDropped() {
+        droppedMessages.increment();
+    }
+
+    /**
+     * Adds a value to the number of messages merged into other messages because a queue was full.
+     *
+     * @param count number of messages that were merged
+     */
+    public void messagesCoalesced(long count) {
+        coalescedMessages.add(count);
+    }
+
+    /**
+     * Returns the number of messages waiting in the queues.
+     *
+     * @return the number of queued messages
+     */
+    public long depth() {
+        return depth.get();
+    }
+
+    /**
+     * Returns the highest number of messages observed in a single queue.
+     *
+     * @return the high-water mark
+     */
+    public long highWaterMark() {
+        return highWaterMark.get();
+    }
+
+    /**
+     * Returns the number of messages discarded because a queue was full.
+     *
+     * @return the number of dropped messages
+     */
+    public long droppedMessages() {
+        return droppedMessages.sum();
+    }
+
+    /**
+     * Returns the number of messages merged into other messages because a queue was full.
+     *
+     * @return the number of coalesced messages
+     */
+    public long coalescedMessages() {
+        return coalescedMessages.sum();
+    }
+}
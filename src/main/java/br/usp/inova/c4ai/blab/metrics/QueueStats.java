@@ -0,0 +1,14 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+/**
+ * Snapshot of the depth, the high-water mark and the overflows of a single message queue (unlike
+ * {@link QueueMetrics}, which aggregates the queues of all conversations).
+ *
+ * @param queue             name of the queue ("user" or "bot")
+ * @param depth             number of messages waiting in the queue
+ * @param highWaterMark     highest number of messages observed in the queue
+ * @param droppedMessages   number of messages discarded because the queue was full
+ * @param coalescedMessages number of messages merged into other messages because the queue was full
+ */
+public record QueueStats(String queue, int depth, long highWaterMark, long droppedMessages, long coalescedMessages) {
+}
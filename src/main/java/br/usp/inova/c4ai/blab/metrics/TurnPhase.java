@@ -0,0 +1,55 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+/**
+ * Represents an interval of a conversation turn whose duration is measured.
+ */
+public enum TurnPhase {
+
+    /**
+     * From the voice recognition callback to the insertion of the user message in the queue.
+     */
+    RECOGNITION_TO_ENQUEUE("recognition_to_enqueue"),
+
+    /**
+     * From the insertion of the user message in the queue until it is sent to BLAB Controller.
+     */
+    ENQUEUE_TO_SEND("enqueue_to_send"),
+
+    /**
+     * From the user message being sent until the first bot message is received.
+     */
+    SEND_TO_FIRST_BOT_MESSAGE("send_to_first_bot_message"),
+
+    /**
+     * From the first bot message being received until the robot is asked to speak.
+     */
+    FIRST_BOT_MESSAGE_TO_SPEECH("first_bot_message_to_speech"),
+
+    /**
+     * Duration of a request to the robot to speak (and listen afterwards).
+     */
+    SPEECH("speech"),
+
+    /**
+     * From the voice recognition callback until the robot is asked to speak the reply.
+     */
+    RECOGNITION_TO_SPEECH("recognition_to_speech");
+
+    /**
+     * Name used in exported metrics.
+     */
+    private final String label;
+
+    TurnPhase(String label) {
+        this.label = label;
+    }
+
+    /**
+     * Returns the name used in exported metrics.
+     *
+     * @return the name in snake case
+     */
+    public String label() {
+        return label;
+    }
+}
@@ -0,0 +1,116 @@
+package br.usp.inova.c4ai.blab.metrics;
+
+/**
+ * Measures the phases of the turns of a single conversation.
+ * <p>
+ * Timestamps are obtained from {@link System#nanoTime()} by the caller. Each phase is recorded in the
+ * {@link ConversationMetrics} instance that created this object as soon as both of its endpoints are known.
+ */
+public class TurnTimer {
+
+    /**
+     * Where durations are recorded.
+     */
+    private final ConversationMetrics metrics;
+
+    /**
+     * When the last user message was recognized.
+     */
+    private volatile long recognizedAt;
+
+    /**
+     * When the last user message was enqueued.
+     */
+    private volatile long enqueuedAt;
+
+    /**
+     * When the user message of the current turn was sent, or 0 if no message has been sent.
+     */
+    private long sentAt;
+
+    /**
+     * When the first bot message of the current turn was received, or 0 if no message has been received.
+     */
+    private long firstBotMessageAt;
+
+    /**
+     * Recognition timestamp of the user message of the current turn.
+     */
+    private long turnRecognizedAt;
+
+    /**
+     * Whether the robot has already been asked to speak the reply of the current turn.
+     */
+    private boolean replySpoken;
+
+    TurnTimer(ConversationMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Called when a user message is recognized.
+     *
+     * @param nanoTime the current time
+     */
+    public void userMessageRecognized(long nanoTime) {
+        recognizedAt = nanoTime;
+    }
+
+    /**
+     * Called when a user message is enqueued.
+     *
+     * @param nanoTime the current time
+     */
+    public void userMessageEnqueued(long nanoTime) {
+        enqueuedAt = nanoTime;
+        metrics.record(TurnPhase.RECOGNITION_TO_ENQUEUE, nanoTime - recognizedAt);
+    }
+
+    /**
+     * Called when a user message is sent to BLAB Controller, which starts a new turn.
+     *
+     * @param nanoTime the current time
+     */
+    public synchronized void userMessageSent(long nanoTime) {
+        metrics.record(TurnPhase.ENQUEUE_TO_SEND, nanoTime - enqueuedAt);
+        sentAt = nanoTime;
+        turnRecognizedAt = recognizedAt;
+        firstBotMessageAt = 0;
+        replySpoken = false;
+    }
+
+    /**
+     * Called when a bot message is received.
+     *
+     * @param nanoTime the current time
+     */
+    public synchronized void botMessageReceived(long nanoTime) {
+        if (sentAt == 0 || firstBotMessageAt != 0)
+            return;
+        firstBotMessageAt = nanoTime;
+        metrics.record(TurnPhase.SEND_TO_FIRST_BOT_MESSAGE, nanoTime - sentAt);
+    }
+
+    /**
+     * Called when the robot is asked to speak.
+     *
+     * @param nanoTime the current time
+     */
+    public synchronized void speechStarted(long nanoTime) {
+        if (firstBotMessageAt == 0 || replySpoken)
+            return;
+        replySpoken = true;
+        metrics.record(TurnPhase.FIRST_BOT_MESSAGE_TO_SPEECH, nanoTime - firstBotMessageAt);
+        metrics.record(TurnPhase.RECOGNITION_TO_SPEECH, nanoTime - turnRecognizedAt);
+    }
+
+    /**
+     * Called when a request to the robot to speak returns.
+     *
+     * @param startedAt when the request was made
+     * @param nanoTime  the current time
+     */
+    public void speechFinished(long startedAt, long nanoTime) {
+        metrics.record(TurnPhase.SPEECH, nanoTime - startedAt);
+    }
+}
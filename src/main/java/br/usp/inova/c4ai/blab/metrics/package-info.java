@@ -0,0 +1,4 @@
+/**
+ * Latency histograms and counters of conversations, and their exporters (JMX and Prometheus text format).
+ */
+package br.usp.inova.c4ai.blab.metrics;
@@ -0,0 +1,40 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+/**
+ * Who sent a message of a transcript.
+ */
+public enum Direction {
+    /**
+     * A message said by the user and sent to the bots.
+     */
+    USER,
+
+    /**
+     * A message sent by a bot (or taken from the reply cache) and spoken by the robot.
+     */
+    BOT;
+
+    /**
+     * Returns the direction stored in a record.
+     *
+     * @param code the code written by {@link #code()}
+     * @return the direction
+     * @throws IllegalArgumentException if the code is invalid
+     */
+    static Direction of(byte code) {
+        return switch (code) {
+            case 'U' -> USER;
+            case 'B' -> BOT;
+            default -> throw new IllegalArgumentException("Invalid direction: " + code);
+        };
+    }
+
+    /**
+     * Returns the code of this direction in a record.
+     *
+     * @return the code
+     */
+    byte code() {
+        return this == USER ? (byte) 'U' : (byte) 'B';
+    }
+}
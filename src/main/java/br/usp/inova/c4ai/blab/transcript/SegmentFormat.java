@@ -0,0 +1,156 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Binary format of transcript segment files.
+ * <p>
+ * A segment starts with {@link #MAGIC}, followed by the records. Each record is a 32-bit length, followed by that
+ * many bytes: the timestamp (64 bits), the direction (one byte), the latency (variable-length integer), the
+ * conversation ID and the text (each a variable-length integer with the number of bytes, followed by the UTF-8
+ * encoded characters). Integers are big-endian; variable-length integers use 7 bits per byte, least significant
+ * first.
+ * <p>
+ * Segments are preallocated and filled with zeros, so a length of 0 marks the end of the records. The length is
+ * written after the rest of the record, so that a record is either complete or not visible at all if the writer
+ * stops in the middle of it.
+ */
+final class SegmentFormat {
+
+    /**
+     * First bytes of every segment.
+     */
+    static final byte[] MAGIC = "BLABTRS1".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size of the length that precedes each record, in bytes.
+     */
+    static final int LENGTH_SIZE = Integer.BYTES;
+
+    /**
+     * Extension of segment files.
+     */
+    static final String EXTENSION = ".seg";
+
+    private SegmentFormat() {
+    }
+
+    /**
+     * Returns the size of a record, excluding its length.
+     *
+     * @param conversationId UTF-8 encoded conversation ID
+     * @param text           UTF-8 encoded text
+     * @param latency        latency in microseconds
+     * @return the size in bytes
+     */
+    static int recordSize(byte[] conversationId, byte[] text, long latency) {
+        return Long.BYTES + 1 + varLongSize(latency)
+                + varLongSize(conversationId.length) + conversationId.length
+                + varLongSize(text.length) + text.length;
+    }
+
+    /**
+     * Writes a record at the position of a buffer, and advances the position.
+     *
+     * @param buffer         the buffer, with enough space for the record
+     * @param record         the record
+     * @param conversationId UTF-8 encoded conversation ID
+     * @param text           UTF-8 encoded text
+     */
+    static void write(ByteBuffer buffer, TranscriptRecord record, byte[] conversationId, byte[] text) {
+        int start = buffer.position();
+        buffer.position(start + LENGTH_SIZE);
+        buffer.putLong(record.timestamp());
+        buffer.put(record.direction().code());
+        putVarLong(buffer, record.latency());
+        putVarLong(buffer, conversationId.length);
+        buffer.put(conversationId);
+        putVarLong(buffer, text.length);
+        buffer.put(text);
+        buffer.putInt(start, buffer.position() - start - LENGTH_SIZE);
+    }
+
+    /**
+     * Reads the record at the position of a buffer, and advances the position.
+     *
+     * @param buffer the buffer
+     * @return the record, or {@code null} if there are no more records
+     * @throws IllegalArgumentException if the record is corrupted
+     */
+    static TranscriptRecord read(ByteBuffer buffer) {
+        if (buffer.remaining() < LENGTH_SIZE)
+            return null;
+        int length = buffer.getInt(buffer.position());
+        if (length <= 0)
+            return null;
+        if (length > buffer.remaining() - LENGTH_SIZE)
+            throw new IllegalArgumentException("Truncated record at position " + buffer.position());
+        int end = buffer.position() + LENGTH_SIZE + length;
+        buffer.position(buffer.position() + LENGTH_SIZE);
+        long timestamp = buffer.getLong();
+        Direction direction = Direction.of(buffer.get());
+        long latency = getVarLong(buffer);
+        String conversationId = getString(buffer);
+        String text = getString(buffer);
+        if (buffer.position() != end)
+            throw new IllegalArgumentException("Invalid record length at position " + (end - length - LENGTH_SIZE));
+        return new TranscriptRecord(timestamp, conversationId, direction, text, latency);
+    }
+
+    /**
+     * Returns the number of bytes of a variable-length integer.
+     *
+     * @param value the value (not negative)
+     * @return the number of bytes
+     */
+    private static int varLongSize(long value) {
+        return Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 6) / 7);
+    }
+
+    /**
+     * Writes a variable-length integer.
+     *
+     * @param buffer the buffer
+     * @param value  the value (not negative)
+     */
+    private static void putVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads a variable-length integer.
+     *
+     * @param buffer the buffer
+     * @return the value
+     */
+    private static long getVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Invalid variable-length integer at position " + buffer.position());
+    }
+
+    /**
+     * Reads a string preceded by its length.
+     *
+     * @param buffer the buffer
+     * @return the string
+     */
+    private static String getString(ByteBuffer buffer) {
+        int length = (int) getVarLong(buffer);
+        if (length < 0 || length > buffer.remaining())
+            throw new IllegalArgumentException("Invalid string length at position " + buffer.position());
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
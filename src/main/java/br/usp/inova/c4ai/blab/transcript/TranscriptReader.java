@@ -0,0 +1,80 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Reads the records written by {@link TranscriptWriter}.
+ * <p>
+ * Segments can be read while they are being written; records that have not been completely written are not
+ * visible.
+ */
+public final class TranscriptReader {
+
+    private TranscriptReader() {
+    }
+
+    /**
+     * Returns the segment files of a directory, oldest first.
+     *
+     * @param directory the directory
+     * @return the segment files
+     * @throws IOException if the directory cannot be listed
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(SegmentFormat.EXTENSION))
+                    .sorted()
+                    .toList();
+        }
+    }
+
+    /**
+     * Reads the records of all the segments of a directory, oldest first.
+     *
+     * @param directory the directory
+     * @param consumer  function called with each record
+     * @throws IOException if a segment cannot be read
+     */
+    public static void read(Path directory, Consumer<TranscriptRecord> consumer) throws IOException {
+        for (Path segment : segments(directory))
+            readSegment(segment, consumer);
+    }
+
+    /**
+     * Reads the records of a segment.
+     *
+     * @param segment  the segment file
+     * @param consumer function called with each record
+     * @return the number of bytes used by the records and the header
+     * @throws IOException if the file cannot be read or is not a segment
+     */
+    public static long readSegment(Path segment, Consumer<TranscriptRecord> consumer) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        byte[] magic = new byte[SegmentFormat.MAGIC.length];
+        if (buffer.remaining() >= magic.length)
+            buffer.get(magic);
+        if (!Arrays.equals(magic, SegmentFormat.MAGIC))
+            throw new IOException("Not a transcript segment: " + segment);
+        try {
+            TranscriptRecord record;
+            while ((record = SegmentFormat.read(buffer)) != null)
+                consumer.accept(record);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupted transcript segment " + segment + ": " + e.getMessage(), e);
+        }
+        return buffer.position();
+    }
+}
@@ -0,0 +1,15 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+/**
+ * A message of a conversation.
+ *
+ * @param timestamp      when the message was handled, in milliseconds since the epoch
+ * @param conversationId ID of the conversation in BLAB Controller (empty if the conversation has not been created)
+ * @param direction      who sent the message
+ * @param text           text of the message
+ * @param latency        for user messages, how long the robot listened before the message was sent; for bot
+ *                       messages, how long after the user message was sent the message was handled;
+ *                       in microseconds
+ */
+public record TranscriptRecord(long timestamp, String conversationId, Direction direction, String text, long latency) {
+}
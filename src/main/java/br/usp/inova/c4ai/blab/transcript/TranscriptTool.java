@@ -0,0 +1,115 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+import br.usp.inova.c4ai.blab.internal.JSONFormat;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Command-line tool that lists and exports transcripts.
+ * <p>
+ * Commands:
+ * <ul>
+ *     <li>{@code segments <directory>}: lists the segment files, with their number of records, used bytes and
+ *     time range;</li>
+ *     <li>{@code export <directory> [conversation ID]}: prints the records (optionally, of a single conversation)
+ *     as JSON lines;</li>
+ *     <li>{@code text <directory> [conversation ID]}: prints the records as human-readable lines.</li>
+ * </ul>
+ */
+public final class TranscriptTool {
+
+    private TranscriptTool() {
+    }
+
+    /**
+     * A record in the format exported as JSON.
+     *
+     * @param time           when the message was handled, in ISO-8601 format
+     * @param conversationId ID of the conversation
+     * @param direction      "user" or "bot"
+     * @param text           text of the message
+     * @param latencyMs      latency in milliseconds (see {@link TranscriptRecord#latency()})
+     */
+    private record ExportedRecord(String time, String conversationId, String direction, String text, double latencyMs) {
+    }
+
+    /**
+     * Runs a command.
+     *
+     * @param args the command and its arguments
+     * @throws IOException if the transcripts cannot be read
+     */
+    public static void main(String[] args) throws IOException {
+        PrintStream out = new PrintStream(System.out, false, StandardCharsets.UTF_8);
+        if (args.length < 2) {
+            System.err.println("Usage: TranscriptTool segments|export|text <directory> [conversation ID]");
+            System.exit(2);
+        }
+        Path directory = Path.of(args[1]);
+        String conversationId = args.length > 2 ? args[2] : null;
+        switch (args[0]) {
+            case "segments" -> listSegments(directory, out);
+            case "export" -> {
+                JSONFormat json = new JSONFormat();
+                read(directory, conversationId, r -> out.println(json.toJson(new ExportedRecord(
+                        Instant.ofEpochMilli(r.timestamp()).toString(), r.conversationId(),
+                        r.direction().name().toLowerCase(Locale.ROOT), r.text(), r.latency() / 1e3))));
+            }
+            case "text" -> read(directory, conversationId, r -> out.printf(Locale.ROOT, "%s %s %-4s %8.1fms %s%n",
+                    Instant.ofEpochMilli(r.timestamp()), r.conversationId(), r.direction(), r.latency() / 1e3,
+                    r.text().replace('\n', ' ').replace('\r', ' ')));
+            default -> {
+                System.err.println("Unknown command: " + args[0]);
+                System.exit(2);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads the records of a directory.
+     *
+     * @param directory      the directory
+     * @param conversationId ID of the conversation whose records are read, or {@code null} to read all records
+     * @param consumer       function called with each record
+     * @throws IOException if a segment cannot be read
+     */
+    private static void read(Path directory, String conversationId, Consumer<TranscriptRecord> consumer) throws IOException {
+        TranscriptReader.read(directory, conversationId == null ? consumer : r -> {
+            if (r.conversationId().equals(conversationId))
+                consumer.accept(r);
+        });
+    }
+
+    /**
+     * Prints a line for each segment of a directory.
+     *
+     * @param directory the directory
+     * @param out       where the lines are printed
+     * @throws IOException if a segment cannot be read
+     */
+    private static void listSegments(Path directory, PrintStream out) throws IOException {
+        for (Path segment : TranscriptReader.segments(directory)) {
+            AtomicLong count = new AtomicLong();
+            AtomicLong first = new AtomicLong(Long.MAX_VALUE);
+            AtomicLong last = new AtomicLong(Long.MIN_VALUE);
+            long used = TranscriptReader.readSegment(segment, r -> {
+                count.incrementAndGet();
+                first.accumulateAndGet(r.timestamp(), Math::min);
+                last.accumulateAndGet(r.timestamp(), Math::max);
+            });
+            out.printf(Locale.ROOT, "%s %d records, %d of %d bytes%s%n", segment.getFileName(), count.get(), used,
+                    Files.size(segment), count.get() > 0
+                            ? ", " + Instant.ofEpochMilli(first.get()) + " to " + Instant.ofEpochMilli(last.get())
+                            : "");
+        }
+    }
+}
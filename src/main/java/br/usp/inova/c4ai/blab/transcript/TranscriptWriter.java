@@ -0,0 +1,400 @@
+package br.usp.inova.c4ai.blab.transcript;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Appends transcript records to memory-mapped segment files in a directory.
+ * <p>
+ * Records are handed off to a background thread through a bounded queue: {@link #append(TranscriptRecord)} never
+ * blocks, and records are dropped (and counted) if the queue is full. The background thread writes the records
+ * into the current segment (see {@link SegmentFormat}), which is mapped into memory, and starts a new segment when
+ * it is full. Segments are flushed to disk when they are full, when no records arrive for a while and when the
+ * writer is closed.
+ * <p>
+ * Whenever a segment is started, old segments are deleted according to the retention settings. The directory may be
+ * shared by several processes of the same host: the segments of the other processes that are still running (whose
+ * process ID is in the file name) are never deleted, since they may be being written.
+ */
+public final class TranscriptWriter implements Closeable {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    /**
+     * How long the background thread waits for records before flushing the current segment, in milliseconds.
+     */
+    private static final long FLUSH_INTERVAL = 1000;
+
+    /**
+     * Maximum number of records taken from the queue at once.
+     */
+    private static final int BATCH_SIZE = 256;
+
+    /**
+     * How long {@link #close()} waits for the queued records to be written, in milliseconds.
+     */
+    private static final long CLOSE_TIMEOUT = 10_000;
+
+    /**
+     * Minimum size of a segment, in bytes.
+     */
+    private static final int MIN_SEGMENT_SIZE = 4096;
+
+    /**
+     * Beginning of the names of the segment files, which are followed by the start time, the process ID and a
+     * sequence number, separated by hyphens.
+     */
+    private static final String SEGMENT_PREFIX = "transcript-";
+
+    /**
+     * Queued when the writer is closed, so that the background thread stops after writing the records before it.
+     */
+    private static final TranscriptRecord END = new TranscriptRecord(0, "", Direction.USER, "", 0);
+
+    /**
+     * Directory of the segment files.
+     */
+    private final Path directory;
+
+    /**
+     * Size of each segment file, in bytes.
+     */
+    private final int segmentSize;
+
+    /**
+     * How long segments are kept, in milliseconds, or 0 to keep them regardless of their age.
+     */
+    private final long retention;
+
+    /**
+     * Maximum total size of the segments, in bytes, or 0 for no limit.
+     */
+    private final long maxTotalSize;
+
+    /**
+     * Records waiting to be written.
+     */
+    private final BlockingQueue<TranscriptRecord> queue;
+
+    /**
+     * Writes the queued records.
+     */
+    private final Thread thread;
+
+    /**
+     * Number of records that were not written (because the queue was full, or because of an error).
+     */
+    private final LongAdder droppedRecords = new LongAdder();
+
+    /**
+     * Number of records written.
+     */
+    private volatile long writtenRecords;
+
+    /**
+     * Whether {@link #close()} has been called.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Current segment (accessed only by the background thread), or {@code null} if no segment is open.
+     */
+    private MappedByteBuffer segment;
+
+    /**
+     * File of the current segment.
+     */
+    private Path segmentPath;
+
+    /**
+     * Whether records were written into the current segment since it was last flushed.
+     */
+    private boolean dirty;
+
+    /**
+     * Number of segments started by this writer (used to make the file names unique).
+     */
+    private int segmentCount;
+
+    /**
+     * Creates the directory if needed, deletes old segments and starts the background thread.
+     *
+     * @param directory     directory of the segment files
+     * @param segmentSize   size of each segment file, in bytes
+     * @param retention     how long segments are kept, in milliseconds, or 0 to keep them regardless of their age
+     * @param maxTotalSize  maximum total size of the segments, in bytes, or 0 for no limit
+     * @param queueCapacity maximum number of records waiting to be written
+     * @throws IOException if the directory cannot be created
+     */
+    public TranscriptWriter(Path directory, int segmentSize, long retention, long maxTotalSize, int queueCapacity) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE)
+            throw new IllegalArgumentException("Segment size must be at least " + MIN_SEGMENT_SIZE + " bytes: " + segmentSize);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.retention = retention;
+        this.maxTotalSize = maxTotalSize;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        Files.createDirectories(directory);
+        applyRetention();
+        this.thread = new Thread(this::run, "transcript-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Queues a record to be written, without blocking.
+     *
+     * @param record the record
+     * @return whether the record was queued ({@code false} if the queue is full or the writer is closed)
+     */
+    public boolean append(TranscriptRecord record) {
+        if (closed || !queue.offer(record)) {
+            droppedRecords.increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of records waiting to be written.
+     *
+     * @return the number of queued records
+     */
+    public int queuedRecords() {
+        return queue.size();
+    }
+
+    /**
+     * Returns the number of records written.
+     *
+     * @return the number of written records
+     */
+    public long writtenRecords() {
+        return writtenRecords;
+    }
+
+    /**
+     * Returns the number of records that were not written (because the queue was full, or because of an error).
+     *
+     * @return the number of dropped records
+     */
+    public long droppedRecords() {
+        return droppedRecords.sum();
+    }
+
+    /**
+     * Writes the queued records, flushes the current segment and stops the background thread.
+     */
+    @Override
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            // the queue may stay full if the background thread has stopped
+            if (queue.offer(END, CLOSE_TIMEOUT, TimeUnit.MILLISECONDS))
+                thread.join(CLOSE_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive())
+            logger.warn("Transcript writer did not finish in {}ms", CLOSE_TIMEOUT);
+    }
+
+    /**
+     * Body of the background thread.
+     * <p>
+     * Errors while writing a record or flushing the segment (such as an {@link java.io.UncheckedIOException} thrown
+     * by the memory mapping) are logged and the current segment is abandoned, so that the thread keeps consuming the
+     * queue and the following records go to a new segment.
+     */
+    private void run() {
+        List<TranscriptRecord> batch = new ArrayList<>(BATCH_SIZE);
+        try {
+            while (true) {
+                TranscriptRecord first = queue.poll(FLUSH_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    try {
+                        flush();
+                    } catch (RuntimeException e) {
+                        logger.error("Could not flush transcript segment {}", segmentPath, e);
+                        abandonSegment();
+                    }
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCH_SIZE - 1);
+                for (TranscriptRecord record : batch) {
+                    if (record == END)
+                        return;
+                    try {
+                        write(record);
+                    } catch (RuntimeException e) {
+                        logger.error("Could not write transcript record to {}", segmentPath, e);
+                        droppedRecords.increment();
+                        abandonSegment();
+                    }
+                }
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            logger.warn("Transcript writer interrupted");
+        } finally {
+            try {
+                closeSegment();
+            } catch (RuntimeException e) {
+                logger.error("Could not flush transcript segment {}", segmentPath, e);
+            }
+        }
+    }
+
+    /**
+     * Writes a record into the current segment, starting a new segment if needed.
+     *
+     * @param record the record
+     */
+    private void write(TranscriptRecord record) {
+        byte[] conversationId = record.conversationId().getBytes(StandardCharsets.UTF_8);
+        byte[] text = record.text().getBytes(StandardCharsets.UTF_8);
+        int size = SegmentFormat.LENGTH_SIZE + SegmentFormat.recordSize(conversationId, text, record.latency());
+        if (size > segmentSize - SegmentFormat.MAGIC.length) {
+            logger.warn("Transcript record of {} bytes does not fit in a segment; dropped", size);
+            droppedRecords.increment();
+            return;
+        }
+        try {
+            if (segment == null || segment.remaining() < size)
+                startSegment();
+        } catch (IOException e) {
+            logger.error("Could not create transcript segment in {}", directory, e);
+            droppedRecords.increment();
+            return;
+        }
+        SegmentFormat.write(segment, record, conversationId, text);
+        dirty = true;
+        writtenRecords++;
+    }
+
+    /**
+     * Flushes and closes the current segment, opens a new one and deletes old segments.
+     *
+     * @throws IOException if the new segment cannot be created
+     */
+    private void startSegment() throws IOException {
+        closeSegment();
+        Path path = directory.resolve(String.format(SEGMENT_PREFIX + "%013d-%d-%04d%s",
+                System.currentTimeMillis(), ProcessHandle.current().pid(), segmentCount++ % 10_000, SegmentFormat.EXTENSION));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            // the mapping remains valid after the channel is closed
+            segment = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+        segment.put(SegmentFormat.MAGIC);
+        segmentPath = path;
+        logger.debug("Started transcript segment {}", path);
+        applyRetention();
+    }
+
+    /**
+     * Flushes the records written into the current segment to disk.
+     */
+    private void flush() {
+        if (segment != null && dirty) {
+            segment.force();
+            dirty = false;
+        }
+    }
+
+    /**
+     * Flushes and closes the current segment, if any.
+     */
+    private void closeSegment() {
+        flush();
+        segment = null;
+        segmentPath = null;
+    }
+
+    /**
+     * Stops writing into the current segment after an error, without flushing it, so that the next record starts a
+     * new segment.
+     */
+    private void abandonSegment() {
+        segment = null;
+        segmentPath = null;
+        dirty = false;
+    }
+
+    /**
+     * Deletes the segments that are older than the retention time, then the oldest segments while the total size
+     * exceeds the limit (except the current segment and the segments of other running processes).
+     */
+    private void applyRetention() {
+        if (retention <= 0 && maxTotalSize <= 0)
+            return;
+        try {
+            List<Path> segments = TranscriptReader.segments(directory);
+            long totalSize = 0;
+            for (Path path : segments)
+                totalSize += Files.size(path);
+            long cutoff = System.currentTimeMillis() - retention;
+            for (Path path : segments) {
+                if (path.equals(segmentPath) || writtenByOtherProcess(path))
+                    continue;
+                boolean expired = retention > 0 && Files.getLastModifiedTime(path).toMillis() < cutoff;
+                if (expired || (maxTotalSize > 0 && totalSize > maxTotalSize)) {
+                    long size = Files.size(path);
+                    Files.delete(path);
+                    totalSize -= size;
+                    logger.info("Deleted transcript segment {}", path);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Could not apply the retention of transcripts in {}", directory, e);
+        }
+    }
+
+    /**
+     * Checks whether a segment was started by another process that is still running (and may still be writing it).
+     *
+     * @param path the segment file
+     * @return {@code true} if the process ID in the file name is not this process's and that process is alive
+     */
+    private static boolean writtenByOtherProcess(Path path) {
+        long pid = segmentPid(path);
+        return pid >= 0 && pid != ProcessHandle.current().pid()
+                && ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+    }
+
+    /**
+     * Returns the ID of the process that started a segment, from the name of its file.
+     *
+     * @param path the segment file
+     * @return the process ID, or -1 if the name is not in the format used by this class
+     */
+    private static long segmentPid(Path path) {
+        String name = path.getFileName().toString();
+        if (!name.startsWith(SEGMENT_PREFIX))
+            return -1;
+        int start = name.indexOf('-', SEGMENT_PREFIX.length()) + 1;
+        int end = start > 0 ? name.indexOf('-', start) : -1;
+        try {
+            return end > start ? Long.parseLong(name, start, end, 10) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,5 @@
+/**
+ * Transcripts of conversations: compact binary records of the user and bot messages, appended to memory-mapped
+ * segment files by a background writer, and the tools that read and export them.
+ */
+package br.usp.inova.c4ai.blab.transcript;